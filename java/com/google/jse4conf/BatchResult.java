@@ -0,0 +1,192 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.mozilla.javascript.Undefined;
+
+/**
+ * Values of a section evaluated for many bindings by {@link Section#evaluateBatch}, one row per
+ * binding and one column per key.
+ *
+ * <p>A column is a boolean[], double[], or String[] array if all its values are of that JS type,
+ * and an Object[] array of the JS values otherwise. Rows of failed evaluations have an error
+ * message, and default values in all columns: false, 0, or null.
+ */
+public final class BatchResult {
+  private static final byte NONE = 0; // no value yet
+  private static final byte BOOLEAN = 1;
+  private static final byte NUMBER = 2;
+  private static final byte STRING = 3;
+  private static final byte OBJECT = 4;
+
+  private final List<String> keys;
+  private final Map<String, Integer> columnOfKey = new HashMap<>();
+  private final int rows;
+  private final byte[] kinds; // kind of each column
+  private final Object[] columns; // one array of rows per column, null while its kind is NONE
+  private final String[] errors; // error of each row, or null
+  private int errorCount;
+
+  BatchResult(List<String> keys, int rows) {
+    this.keys = Collections.unmodifiableList(keys);
+    this.rows = rows;
+    kinds = new byte[keys.size()];
+    columns = new Object[keys.size()];
+    errors = new String[rows];
+    for (int i = 0; i < keys.size(); i++) {
+      columnOfKey.put(keys.get(i), i);
+    }
+  }
+
+  private static byte kindOf(Object value) {
+    if (value instanceof Boolean) {
+      return BOOLEAN;
+    }
+    if (value instanceof Number) {
+      return NUMBER;
+    }
+    return (value instanceof CharSequence) ? STRING : OBJECT;
+  }
+
+  private Object newColumn(byte kind) {
+    switch (kind) {
+      case BOOLEAN:
+        return new boolean[rows];
+      case NUMBER:
+        return new double[rows];
+      case STRING:
+        return new String[rows];
+      default:
+        return new Object[rows];
+    }
+  }
+
+  // Set the value of a row in a column, changing the column to Object[] if value is of another
+  // kind.
+  void set(int row, int column, Object value) {
+    byte kind = kindOf(value);
+    if (kinds[column] == NONE) {
+      kinds[column] = kind;
+      columns[column] = newColumn(kind);
+    } else if (kinds[column] != kind && kinds[column] != OBJECT) {
+      columns[column] = getValues(column);
+      kinds[column] = OBJECT;
+    }
+    switch (kinds[column]) {
+      case BOOLEAN:
+        ((boolean[]) columns[column])[row] = (Boolean) value;
+        break;
+      case NUMBER:
+        ((double[]) columns[column])[row] = ((Number) value).doubleValue();
+        break;
+      case STRING:
+        ((String[]) columns[column])[row] = value.toString();
+        break;
+      default:
+        ((Object[]) columns[column])[row] = value;
+    }
+  }
+
+  void setError(int row, String error) {
+    if (errors[row] == null) {
+      errorCount++;
+    }
+    errors[row] = error;
+  }
+
+  /** Return the number of rows, one per binding. */
+  public int size() {
+    return rows;
+  }
+
+  /** Return the keys of all columns. */
+  public List<String> getKeys() {
+    return keys;
+  }
+
+  /** Return the error of a row, or null if its evaluation succeeded. */
+  public String getError(int row) {
+    return errors[row];
+  }
+
+  /** Return the number of rows with errors. */
+  public int getErrorCount() {
+    return errorCount;
+  }
+
+  // Return the column array of key if it is of the kind; otherwise null.
+  private Object column(String key, byte kind) {
+    Integer column = columnOfKey.get(key);
+    return (column == null || kinds[column] != kind) ? null : columns[column];
+  }
+
+  /** Return the column of key if all its values are booleans; otherwise null. */
+  public boolean[] getBooleans(String key) {
+    return (boolean[]) column(key, BOOLEAN);
+  }
+
+  /** Return the column of key if all its values are numbers; otherwise null. */
+  public double[] getNumbers(String key) {
+    return (double[]) column(key, NUMBER);
+  }
+
+  /** Return the column of key if all its values are strings; otherwise null. */
+  public String[] getStrings(String key) {
+    return (String[]) column(key, STRING);
+  }
+
+  /** Return the values of key in all rows, boxed if the column is of primitive values. */
+  public Object[] getValues(String key) {
+    Integer column = columnOfKey.get(key);
+    return (column == null) ? null : getValues(column);
+  }
+
+  private Object[] getValues(int column) {
+    Object[] result = new Object[rows];
+    for (int row = 0; row < rows; row++) {
+      result[row] = valueAt(column, row);
+    }
+    return result;
+  }
+
+  // Return the value of a row in a column, boxed if it is a primitive value.
+  private Object valueAt(int column, int row) {
+    Object values = columns[column];
+    if (errors[row] != null || values == null) {
+      return null;
+    }
+    switch (kinds[column]) {
+      case BOOLEAN:
+        return ((boolean[]) values)[row];
+      case NUMBER:
+        return ((double[]) values)[row];
+      case STRING:
+        return ((String[]) values)[row];
+      default:
+        return ((Object[]) values)[row];
+    }
+  }
+
+  /** Return the value of key in a row, or null for an error row, an undefined value, or no key. */
+  public Object getValue(int row, String key) {
+    Integer column = columnOfKey.get(key);
+    Object value = (column == null) ? null : valueAt(column, row);
+    return (value == Undefined.instance) ? null : value;
+  }
+}
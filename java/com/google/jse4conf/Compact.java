@@ -0,0 +1,154 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact read-only sets and maps of strings in sorted arrays, for frozen sections.
+ *
+ * <p>Key names and short values are interned, so many sections of similar configs share one copy
+ * of each. Lookups are binary searches, which are fast enough for section sizes.
+ */
+final class Compact {
+  static final int MAX_INTERNED_LENGTH = 64; // longer values are seldom shared
+
+  private Compact() {}
+
+  /** Return s interned if it is short; otherwise return s. */
+  static String intern(String s) {
+    return (s == null || s.length() > MAX_INTERNED_LENGTH) ? s : s.intern();
+  }
+
+  /** Return the strings interned, in a new sorted array. */
+  static String[] sorted(Collection<String> strings) {
+    String[] array = new String[strings.size()];
+    int i = 0;
+    for (String s : strings) {
+      array[i++] = s.intern();
+    }
+    Arrays.sort(array);
+    return array;
+  }
+
+  /** Return a read-only set of a sorted array. */
+  static Set<String> set(String[] sorted) {
+    return new AbstractSet<String>() {
+      @Override
+      public boolean contains(Object o) {
+        return (o instanceof String) && Arrays.binarySearch(sorted, o) >= 0;
+      }
+
+      @Override
+      public Iterator<String> iterator() {
+        return Arrays.asList(sorted).iterator();
+      }
+
+      @Override
+      public int size() {
+        return sorted.length;
+      }
+    };
+  }
+
+  /**
+   * Return a read-only copy of map. The keys array is used if it has the same strings as the map
+   * keys in sorted order, so maps of the same keys share one array.
+   */
+  static Map<String, String> map(Map<String, String> map, String[] keys) {
+    if (keys.length != map.size() || !map.keySet().containsAll(Arrays.asList(keys))) {
+      keys = sorted(map.keySet());
+    }
+    String[] values = new String[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      values[i] = intern(map.get(keys[i]));
+    }
+    return new ArrayMap(keys, values);
+  }
+
+  /** A read-only map of sorted keys to values in parallel arrays. */
+  private static final class ArrayMap extends AbstractMap<String, String> {
+    private final String[] keys;
+    private final String[] values;
+
+    ArrayMap(String[] keys, String[] values) {
+      this.keys = keys;
+      this.values = values;
+    }
+
+    private int index(Object key) {
+      return (key instanceof String) ? Arrays.binarySearch(keys, key) : -1;
+    }
+
+    @Override
+    public String get(Object key) {
+      int i = index(key);
+      return (i < 0) ? null : values[i];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return index(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+      return keys.length;
+    }
+
+    @Override
+    public Set<String> keySet() {
+      return set(keys);
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+      return new AbstractSet<Map.Entry<String, String>>() {
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+          return new Iterator<Map.Entry<String, String>>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+              return next < keys.length;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+              if (next >= keys.length) {
+                throw new NoSuchElementException();
+              }
+              int i = next++;
+              return new AbstractMap.SimpleImmutableEntry<>(keys[i], values[i]);
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return keys.length;
+        }
+      };
+    }
+  }
+}
@@ -17,18 +17,17 @@ package com.google.jse4conf;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import org.eclipse.jgit.errors.ConfigInvalidException;
-import org.eclipse.jgit.lib.Config;
 
 /** Converts a JSE config file to JavaScript code. */
 public class Conf2JS {
@@ -36,6 +35,7 @@ public class Conf2JS {
   private final JS js; // Rhino context+scope to test eval parsed values
   private final String initCode; // predefined code for JS environment
   private boolean dumpJSValues; // with initCode, dump its value and JS section values
+  private MetricsListener metrics = MetricsListener.NONE; // passed to every compiled Section
 
   // section names or section-subsection names returned by config parser
   private List<String> sectionList;
@@ -61,7 +61,11 @@ public class Conf2JS {
   }
 
   Conf2JS(boolean debug, boolean trace, JS js, String initCode) {
-    logger = new Logger(debug, trace);
+    this(new Logger(debug, trace), js, initCode);
+  }
+
+  Conf2JS(Logger logger, JS js, String initCode) {
+    this.logger = logger;
     this.js = js;
     this.initCode = initCode;
     this.dumpJSValues = false;
@@ -72,42 +76,45 @@ public class Conf2JS {
     return this;
   }
 
+  /** Report compile metrics of all sections to the listener. */
+  public Conf2JS setMetricsListener(MetricsListener newValue) {
+    this.metrics = newValue;
+    return this;
+  }
+
   public String getCompilationErrors() {
     return compilationErrors;
   }
 
-  private String dumpSectionKeyCode() {
-    String code = "";
+  private void dumpSectionKeyCode(Appendable out) throws IOException {
     for (String name : sectionList) {
       Section section = sections.get(name);
-      code += dumpJSValues ? section.dumpJSKeyValues(initCode) : section.dumpJSCode();
+      if (dumpJSValues) {
+        section.dumpJSKeyValues(initCode, out);
+      } else {
+        section.dumpJSCode(out, false);
+      }
     }
     if (compilationErrors != null && compilationErrors.length() > 0) {
-      code += compilationErrors;
+      out.append(compilationErrors);
     }
-    return code;
   }
 
-  private void compileSection(Config cfg, String section, String subsection, boolean compileAll) {
+  private void compileSection(ConfParser parser, String sectionName, boolean compileAll) {
     // Skip a (sub)section if useJSE is not true and not compileAll.
-    String sectionName = Section.nameOf(section, subsection);
-    if (!compileAll && !cfg.getBoolean(section, subsection, "useJSE", false)) {
-      logger.debug("### skip non-JSE Section: " + sectionName);
+    if (!compileAll && !parser.useJSE(sectionName)) {
+      logger.debug("### skip non-JSE Section: %s", sectionName);
       return;
     }
-    Set<String> keys = cfg.getNames(section, subsection);
-    if (keys.size() < 1) {
-      logger.debug("### skip empty Section: " + sectionName);
+    Section sectionObject = parser.getSection(sectionName);
+    if (sectionObject.getKeys().isEmpty()) {
+      logger.debug("### skip empty Section: %s", sectionName);
       return;
     }
-    logger.debug("### compile Section: " + sectionName);
+    logger.debug("### compile Section: %s", sectionName);
     sectionList.add(sectionName);
-    Section sectionObject = new Section(sectionName, logger);
     sections.put(sectionName, sectionObject);
-    for (String k : keys) {
-      sectionObject.addKeyValue(k, cfg.getString(section, subsection, k));
-    }
-    sectionObject.compile(js);
+    sectionObject.setMetricsListener(metrics).compile(js);
     if (js != null) {
       js.reset(initCode); // reset to compile the next section
     }
@@ -120,29 +127,35 @@ public class Conf2JS {
 
   /** Compile sections in content to JS code, if useJSE is true in a (sub)section or compileAll. */
   public String compileConfString(String content, boolean compileAll) {
+    StringBuilder code = new StringBuilder();
+    try {
+      compileConfString(content, compileAll, code);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // not thrown by StringBuilder
+    }
+    return code.toString();
+  }
+
+  /** Compile sections in content and append JS code to out. */
+  public void compileConfString(String content, boolean compileAll, Appendable out)
+      throws IOException {
     sectionList = new ArrayList<>();
+    sections = new HashMap<>();
     compilationErrors = "";
-    Config cfg = new Config();
     try {
-      // Need to replace "\r\n" with "\n" for DOS format files.
-      content = content.replace("\r\n", "\n");
-      cfg.fromText(content);
-      sections = new HashMap<>();
-      // Although getSections returns a Set<String>, it says that
-      // the set's iterator returns sections in the order they are
-      // declared by the configuration.
-      for (String s : cfg.getSections()) {
-        compileSection(cfg, s, null, compileAll);
-        for (String sub : cfg.getSubsections(s)) {
-          compileSection(cfg, s, sub, compileAll);
-        }
+      // The parser reads DOS format "\r\n" like "\n", and returns sections in the order
+      // they are declared by the configuration, each followed by its subsections.
+      ConfParser parser = new ConfParser(logger).parse(content);
+      for (String name : parser.getSectionNames()) {
+        compileSection(parser, name, compileAll);
       }
-    } catch (ConfigInvalidException e) {
+    } catch (ParseException e) {
       String error = "ERROR: " + e.getMessage();
       logger.debug(error);
+      FlightEvents.compileError("", error);
       compilationErrors += error;
     }
-    return dumpSectionKeyCode();
+    dumpSectionKeyCode(out);
   }
 
   public Set<String> getJSSectionNames() {
@@ -154,17 +167,21 @@ public class Conf2JS {
   }
 
   public void compileFile(String inF, String outF) throws IOException {
-    logger.debug("To compile file " + inF + " to " + outF);
-    String jsCode = "";
+    logger.debug("To compile file %s to %s", inF, outF);
+    try (Writer fileWriter = Files.newBufferedWriter(Paths.get(outF), UTF_8)) {
+      compileFile(inF, fileWriter);
+    }
+  }
+
+  /** Compile config file inF and write the JS code directly to out. */
+  public void compileFile(String inF, Appendable out) throws IOException {
     if (dumpJSValues) {
       js.reset(initCode);
-      jsCode =
-          Arrays.stream(js.getScope().getIds())
-              .map(id -> js.dumpSource(id.toString(), false))
-              .reduce(jsCode, (x, y) -> x + y);
+      for (Object id : js.getScope().getIds()) {
+        js.dumpSource(id.toString(), false, out);
+      }
     }
-    jsCode += compileConfString(readAllBytes(inF));
-    writeToFile(outF, jsCode);
+    compileConfString(readAllBytes(inF), false, out);
   }
 
   /** Read bytes from a file. */
@@ -179,12 +196,37 @@ public class Conf2JS {
     }
   }
 
-  public static void main(String[] args) throws IOException {
+  private static String nextArg(String[] args, int i, String flag, String what) {
+    if (i >= args.length) {
+      System.out.println("Need " + what + " after " + flag + " flag.");
+      System.exit(1);
+    }
+    return args[i];
+  }
+
+  private static int nextIntArg(String[] args, int i, String flag, String what) {
+    String arg = nextArg(args, i, flag, what);
+    try {
+      return Integer.parseInt(arg);
+    } catch (NumberFormatException e) {
+      System.out.println("Need " + what + " after " + flag + " flag, not " + arg + ".");
+      System.exit(1);
+      return 0; // not reached
+    }
+  }
+
+  /**
+   * Compile one config file: {@code conf2js [-d] [-t] [-js jsFile] inF outF}, or many config files,
+   * directories, or glob patterns into an output directory: {@code conf2js [-d] [-t] [-js jsFile]
+   * [-j threads] -o outDir input...}.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
     boolean debug = false;
     boolean trace = false;
     String jsFile = null;
-    String inF = null;
-    String outF = null;
+    String outDir = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    List<String> files = new ArrayList<>();
     for (int i = 0; i < args.length; ++i) {
       String arg = args[i];
       if (arg.equals("-d")) {
@@ -192,26 +234,35 @@ public class Conf2JS {
       } else if (arg.equals("-t")) {
         trace = true;
       } else if (arg.equals("-js")) {
-        ++i;
-        if (i >= args.length) {
-          System.out.println("Need JS file after -js flag.");
-          System.exit(1);
-        }
-        jsFile = args[i];
-      } else if (inF == null) {
-        inF = arg;
-      } else if (outF == null) {
-        outF = arg;
+        jsFile = nextArg(args, ++i, arg, "JS file");
+      } else if (arg.equals("-o")) {
+        outDir = nextArg(args, ++i, arg, "output directory");
+      } else if (arg.equals("-j")) {
+        threads = nextIntArg(args, ++i, arg, "number of threads");
       } else {
-        System.out.println("Extra argument: " + arg);
-        System.exit(1);
+        files.add(arg);
       }
     }
-    if (inF != null && outF != null) {
-      String initCode = (jsFile == null) ? null : readAllBytes(jsFile);
+    if (outDir == null && files.size() > 2) {
+      System.out.println("Extra argument: " + files.get(2));
+      System.exit(1);
+    }
+    String initCode = (jsFile == null) ? null : readAllBytes(jsFile);
+    if (outDir != null) {
+      Files.createDirectories(Paths.get(outDir));
+      Conf2JSBatch batch = new Conf2JSBatch(debug, trace, initCode, threads);
+      List<Conf2JSBatch.Result> results = null;
+      try {
+        results = batch.compileAll(Conf2JSBatch.findInputs(files), Paths.get(outDir));
+      } catch (IllegalArgumentException e) {
+        System.out.println(e.getMessage());
+        System.exit(1);
+      }
+      System.exit(Conf2JSBatch.printSummary(results) ? 0 : 1);
+    } else if (files.size() == 2) {
       new Conf2JS(debug, trace, new JS(initCode), initCode)
           .setDumpJSValues(true)
-          .compileFile(inF, outF);
+          .compileFile(files.get(0), files.get(1));
     }
   }
 }
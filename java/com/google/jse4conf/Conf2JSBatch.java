@@ -0,0 +1,270 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles many config files to JS files in one JVM.
+ *
+ * <p>Inputs can be config files, directories, or glob patterns. A directory input takes all files
+ * matching {@link #DEFAULT_GLOB} directly in that directory. Each input file is compiled like
+ * {@code conf2js -js jsFile inF outF}, and its output is written into the output directory as the
+ * input file path, relative to the deepest directory containing all inputs, plus {@link
+ * #OUTPUT_SUFFIX}. So inputs of one directory have outputs directly in the output directory, and
+ * inputs of the same name in different directories, like those of a recursive glob pattern,
+ * keep their different directories.
+ *
+ * <p>Files are compiled by a bounded pool of worker threads. A Rhino Context is bound to the thread
+ * that enters it, so every file is compiled in its own JS environment of its worker thread. This
+ * batch saves only the JVM and Rhino startup of each file; workers do not share a prelude. Like
+ * conf2js, every file evaluates the prelude code again for every compiled section, so sections
+ * cannot change each other through the prelude objects.
+ */
+public class Conf2JSBatch {
+  /** Files taken from a directory input. */
+  public static final String DEFAULT_GLOB = "*.{conf,config}";
+
+  /** Suffix added to an input file path to make its output file path. */
+  public static final String OUTPUT_SUFFIX = ".js.out";
+
+  private final boolean debug;
+  private final boolean trace;
+  private final String initCode; // prelude JS code, could be null
+  private final int threads; // number of worker threads
+
+  /** Result of compiling one input file. */
+  public static class Result {
+    private final Path input;
+    private final Path output;
+    private final long nanos; // time to compile and write this file
+    private final String error; // null if no error
+
+    Result(Path input, Path output, long nanos, String error) {
+      this.input = input;
+      this.output = output;
+      this.nanos = nanos;
+      this.error = error;
+    }
+
+    public Path getInput() {
+      return input;
+    }
+
+    public Path getOutput() {
+      return output;
+    }
+
+    public long getMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    public String getError() {
+      return error;
+    }
+
+    public boolean hasError() {
+      return error != null;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s %6d ms  %s -> %s%s",
+          hasError() ? "FAIL" : "PASS",
+          getMillis(),
+          input,
+          output,
+          hasError() ? ("\n  " + error.trim().replace("\n", "\n  ")) : "");
+    }
+  }
+
+  public Conf2JSBatch(boolean debug, boolean trace, String initCode, int threads) {
+    this.debug = debug;
+    this.trace = trace;
+    this.initCode = initCode;
+    this.threads = Math.max(1, threads);
+  }
+
+  private static boolean isGlob(String pattern) {
+    return pattern.indexOf('*') >= 0
+        || pattern.indexOf('?') >= 0
+        || pattern.indexOf('[') >= 0
+        || pattern.indexOf('{') >= 0;
+  }
+
+  // Return files under the longest directory prefix of pattern that match the glob pattern.
+  private static List<Path> findGlobFiles(String pattern) throws IOException {
+    String[] parts = pattern.split("/", -1);
+    StringBuilder prefix = new StringBuilder();
+    for (int i = 0; i < parts.length - 1 && !isGlob(parts[i]); i++) {
+      prefix.append(parts[i]).append('/');
+    }
+    // An empty prefix walks the current directory and yields relative paths like the pattern.
+    Path dir = Paths.get(prefix.length() == 0 ? "" : prefix.toString());
+    if (!Files.isDirectory(dir)) {
+      return new ArrayList<>();
+    }
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+    try (Stream<Path> paths = Files.walk(dir)) {
+      return paths
+          .filter(Files::isRegularFile)
+          .filter(matcher::matches)
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  /** Expand the given files, directories, and glob patterns to a list of input files. */
+  public static List<Path> findInputs(List<String> patterns) throws IOException {
+    List<Path> inputs = new ArrayList<>();
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + DEFAULT_GLOB);
+    for (String pattern : patterns) {
+      Path path = Paths.get(pattern);
+      if (!isGlob(pattern) && Files.isDirectory(path)) {
+        try (Stream<Path> paths = Files.list(path)) {
+          paths
+              .filter(Files::isRegularFile)
+              .filter(p -> matcher.matches(p.getFileName()))
+              .sorted()
+              .forEach(inputs::add);
+        }
+      } else if (isGlob(pattern)) {
+        inputs.addAll(findGlobFiles(pattern));
+      } else {
+        inputs.add(path); // a missing file is reported as a compilation error
+      }
+    }
+    return inputs;
+  }
+
+  // Compile one input file in the current worker thread.
+  private Result compile(Path input, Path output) {
+    long start = System.nanoTime();
+    String error = null;
+    JS js = new JS(initCode);
+    try {
+      Files.createDirectories(output.getParent());
+      Conf2JS conf2JS = new Conf2JS(debug, trace, js, initCode).setDumpJSValues(true);
+      conf2JS.compileFile(input.toString(), output.toString());
+      String errors = conf2JS.getCompilationErrors();
+      if (errors != null && !errors.isEmpty()) {
+        error = errors;
+      }
+    } catch (IOException | RuntimeException e) {
+      error = e.toString();
+    } finally {
+      js.exit();
+    }
+    return new Result(input, output, System.nanoTime() - start, error);
+  }
+
+  // Return the deepest directory containing both a and b, or null if they have different roots.
+  private static Path commonAncestor(Path a, Path b) {
+    while (a != null && !b.startsWith(a)) {
+      a = a.getParent();
+    }
+    return a;
+  }
+
+  /**
+   * Return the output file of each input in outDir, like the class comment says. Throw
+   * IllegalArgumentException if two inputs have the same output, like an input given twice.
+   */
+  public static List<Path> outputPaths(List<Path> inputs, Path outDir) {
+    List<Path> paths = new ArrayList<>();
+    Path base = null;
+    for (int i = 0; i < inputs.size(); i++) {
+      Path path = inputs.get(i).toAbsolutePath().normalize();
+      paths.add(path);
+      base = (i == 0) ? path.getParent() : commonAncestor(base, path.getParent());
+    }
+    List<Path> outputs = new ArrayList<>();
+    Map<Path, Path> inputOfOutput = new HashMap<>();
+    for (int i = 0; i < inputs.size(); i++) {
+      Path path = paths.get(i);
+      Path relative = (base == null) ? path.subpath(0, path.getNameCount()) : base.relativize(path);
+      Path output = outDir.resolve(relative + OUTPUT_SUFFIX);
+      Path other = inputOfOutput.putIfAbsent(output, inputs.get(i));
+      if (other != null) {
+        throw new IllegalArgumentException(
+            String.format(
+                "Inputs %s and %s have the same output %s", other, inputs.get(i), output));
+      }
+      outputs.add(output);
+    }
+    return outputs;
+  }
+
+  /**
+   * Compile all input files into outDir; return results in the order of inputs. Throw
+   * IllegalArgumentException before compiling any file if two inputs have the same output.
+   */
+  public List<Result> compileAll(List<Path> inputs, Path outDir) throws InterruptedException {
+    List<Path> outputs = outputPaths(inputs, outDir);
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, inputs.size() + 1));
+    try {
+      List<Future<Result>> futures = new ArrayList<>();
+      for (int i = 0; i < inputs.size(); i++) {
+        Path input = inputs.get(i);
+        Path output = outputs.get(i);
+        futures.add(pool.submit(() -> compile(input, output)));
+      }
+      List<Result> results = new ArrayList<>();
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          results.add(futures.get(i).get());
+        } catch (ExecutionException e) {
+          results.add(new Result(inputs.get(i), null, 0, e.getCause().toString()));
+        }
+      }
+      return results;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /** Print one line per result and a final count; return true if there was no error. */
+  public static boolean printSummary(List<Result> results) {
+    int failed = 0;
+    long millis = 0;
+    for (Result r : results) {
+      Logger.println(r.toString());
+      failed += r.hasError() ? 1 : 0;
+      millis += r.getMillis();
+    }
+    Logger.println(
+        String.format(
+            "### %d files, %d passed, %d failed, %d ms total compile time",
+            results.size(), results.size() - failed, failed, millis));
+    return failed == 0;
+  }
+}
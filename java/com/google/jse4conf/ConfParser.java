@@ -0,0 +1,371 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A single-pass parser of config text in the JGit Config (git-config) syntax.
+ *
+ * <p>This parser depends only on the core library. It reads the text once, without copying it to
+ * replace DOS line ends, and adds every key-value pair directly into a {@link Section} of the
+ * (sub)section. Like JGit Config:
+ *
+ * <ul>
+ *   <li>Section and key names are case-insensitive, and keep the first declared spelling.
+ *       Subsection names are case-sensitive.
+ *   <li>The last value of a key wins.
+ *   <li>Sections are listed in their declared order, each followed by its subsections.
+ * </ul>
+ *
+ * <p>Byte input can be parsed after decoding, e.g. {@code parse(UTF_8.decode(byteBuffer))}, which
+ * returns a CharBuffer without copying it into a String.
+ */
+public class ConfParser {
+  static final String USE_JSE = "useJSE"; // key to enable JS expressions in a (sub)section
+
+  // All (sub)sections of a section name, in declared order.
+  private static class Group {
+    final Entry entry; // the section itself
+    final Map<String, Entry> subsections = new LinkedHashMap<>();
+
+    Group(Entry entry) {
+      this.entry = entry;
+    }
+  }
+
+  // One (sub)section, with its case-insensitive key index and useJSE value.
+  private static class Entry {
+    final String name; // combined section-subsection name
+    final Section section;
+    final Map<String, String> keys = new HashMap<>(); // lower case key -> declared key
+    boolean useJSE;
+
+    Entry(String name, Logger logger) {
+      this.name = name;
+      this.section = new Section(name, logger);
+    }
+  }
+
+  private final Logger logger; // passed to every new Section
+  private Map<String, Group> groups; // lower case section name -> Group
+  private Map<String, Entry> entries; // combined section-subsection name -> Entry
+
+  // Parser state of one parse call.
+  private CharSequence text;
+  private int pos;
+
+  /** Create a parser that creates Sections without debug/trace messages. */
+  public ConfParser() {
+    this(Logger.OFF);
+  }
+
+  /** Create a parser that creates Sections with the given logger. */
+  public ConfParser(Logger logger) {
+    this.logger = logger;
+    reset();
+  }
+
+  private void reset() {
+    groups = new LinkedHashMap<>();
+    entries = new HashMap<>();
+  }
+
+  /** Parse text in the git-config syntax and return this parser; all previous results are reset. */
+  public ConfParser parse(CharSequence text) throws ParseException {
+    reset();
+    this.text = text;
+    this.pos = 0;
+    try {
+      Entry current = null;
+      for (int c = skipSpaces(true); c >= 0; c = skipSpaces(true)) {
+        if (c == '#' || c == ';') {
+          skipLine();
+        } else if (c == '[') {
+          pos++;
+          current = readHeader();
+          skipLine(); // JGit Config ignores the rest of a header line
+        } else if (current == null) {
+          throw error("Invalid line in config file");
+        } else {
+          readKeyValue(current);
+        }
+      }
+    } finally {
+      this.text = null; // do not hold a large input after parse
+    }
+    return this;
+  }
+
+  /** Return combined section-subsection names, sections in declared order then subsections. */
+  public List<String> getSectionNames() {
+    List<String> names = new ArrayList<>();
+    for (Group g : groups.values()) {
+      names.add(g.entry.name);
+      names.addAll(g.subsections.keySet());
+    }
+    return names;
+  }
+
+  /** Return names of (sub)sections with useJSE=true, in the order of getSectionNames. */
+  public List<String> getJSESectionNames() {
+    List<String> names = new ArrayList<>();
+    for (String name : getSectionNames()) {
+      if (entries.get(name).useJSE) {
+        names.add(name);
+      }
+    }
+    return names;
+  }
+
+  /** Return the Section of a combined section-subsection name, or null. */
+  public Section getSection(String name) {
+    Entry e = entries.get(name);
+    return (e == null) ? null : e.section;
+  }
+
+  /** Return true if the (sub)section has useJSE=true. */
+  public boolean useJSE(String name) {
+    Entry e = entries.get(name);
+    return e != null && e.useJSE;
+  }
+
+  private ParseException error(String msg) {
+    return new ParseException(msg, pos);
+  }
+
+  // Return the next char, or -1 at the end. A "\r\n" is returned as one '\n'.
+  private int read() {
+    if (pos >= text.length()) {
+      return -1;
+    }
+    char c = text.charAt(pos++);
+    if (c == '\r' && pos < text.length() && text.charAt(pos) == '\n') {
+      pos++;
+      return '\n';
+    }
+    return c;
+  }
+
+  // Return the next char without moving pos, or -1 at the end.
+  private int peek() {
+    int start = pos;
+    int c = read();
+    pos = start;
+    return c;
+  }
+
+  // Skip white spaces, and also new lines if skipLF; return the next char.
+  private int skipSpaces(boolean skipLF) {
+    for (int c = peek(); c >= 0; c = peek()) {
+      if (!Character.isWhitespace(c) || (c == '\n' && !skipLF)) {
+        return c;
+      }
+      read();
+    }
+    return -1;
+  }
+
+  private void skipLine() {
+    for (int c = read(); c >= 0 && c != '\n'; c = read()) {}
+  }
+
+  private static boolean isSectionNameChar(int c) {
+    return Character.isLetterOrDigit(c) || c == '.' || c == '-';
+  }
+
+  private static boolean isKeyNameChar(int c) {
+    return Character.isLetterOrDigit(c) || c == '-';
+  }
+
+  // Read "name]" or "name "subsection"]" after '[', and return its Entry.
+  private Entry readHeader() throws ParseException {
+    StringBuilder name = new StringBuilder();
+    int c = read();
+    while (isSectionNameChar(c)) {
+      name.append((char) c);
+      c = read();
+    }
+    if (name.length() == 0 || (c != ']' && c != ' ' && c != '\t')) {
+      throw error("Bad section entry: " + name);
+    }
+    String subsection = null;
+    if (c != ']') {
+      if (skipSpaces(false) != '"') {
+        throw error("Bad section entry: " + name);
+      }
+      read();
+      subsection = readSubsectionName();
+      if (read() != ']') {
+        throw error("Bad group header");
+      }
+    }
+    return getEntry(name.toString(), subsection);
+  }
+
+  // Read a quoted subsection name after the opening '"'.
+  private String readSubsectionName() throws ParseException {
+    StringBuilder name = new StringBuilder();
+    for (int c = read(); c != '"'; c = read()) {
+      if (c < 0 || c == '\n') {
+        throw error("Bad group header");
+      }
+      if (c == '\\') {
+        c = read();
+        if (c < 0) {
+          throw error("End of file in escape");
+        }
+      }
+      name.append((char) c);
+    }
+    return name.toString();
+  }
+
+  private Entry getEntry(String section, String subsection) {
+    Group group = groups.get(section.toLowerCase(Locale.ROOT));
+    if (group == null) {
+      group = new Group(new Entry(section, logger));
+      groups.put(section.toLowerCase(Locale.ROOT), group);
+      entries.put(section, group.entry);
+    }
+    if (subsection == null) {
+      return group.entry;
+    }
+    // Use the first declared spelling of a section name in combined names.
+    String name = Section.nameOf(group.entry.name, subsection);
+    Entry entry = group.subsections.get(name);
+    if (entry == null) {
+      entry = new Entry(name, logger);
+      group.subsections.put(name, entry);
+      entries.put(name, entry);
+    }
+    return entry;
+  }
+
+  // Read "key", "key = value", or "key = value # comment".
+  private void readKeyValue(Entry entry) throws ParseException {
+    StringBuilder name = new StringBuilder();
+    int c = peek();
+    while (isKeyNameChar(c)) {
+      name.append((char) read());
+      c = peek();
+    }
+    c = skipSpaces(false);
+    String value;
+    boolean isTrue;
+    if (c >= 0 && c != '=' && c != '\n' && c != '#' && c != ';') {
+      throw error("Bad entry name: " + name);
+    } else if (c == '=') {
+      read();
+      value = readValue();
+      isTrue = toBoolean(value);
+    } else {
+      skipLine(); // a key without value is a true boolean
+      value = "";
+      isTrue = true;
+    }
+    String key = name.toString();
+    String lowerKey = key.toLowerCase(Locale.ROOT);
+    String declaredKey = entry.keys.putIfAbsent(lowerKey, key);
+    entry.section.addKeyValue(declaredKey == null ? key : declaredKey, value);
+    if (lowerKey.equals(USE_JSE.toLowerCase(Locale.ROOT))) {
+      entry.useJSE = isTrue;
+    }
+  }
+
+  private static boolean toBoolean(String value) {
+    switch (value.trim().toLowerCase(Locale.ROOT)) {
+      case "true":
+      case "yes":
+      case "on":
+      case "1":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  // Read a value up to the end of line or comment; remove quotes, escapes, and outer spaces.
+  private String readValue() throws ParseException {
+    StringBuilder value = new StringBuilder();
+    boolean leading = true; // skipping leading spaces
+    int spaces = 0; // number of unquoted spaces not yet known to be trailing
+    int spaceStart = 0; // position in text of the first such space
+    boolean quote = false;
+    for (int c = read(); c >= 0; c = read()) {
+      if (c == '\n') {
+        if (quote) {
+          throw error("Newline in quotes not allowed");
+        }
+        break;
+      }
+      if (!quote && (c == '#' || c == ';')) {
+        skipLine();
+        break;
+      }
+      if (!quote && Character.isWhitespace(c)) {
+        // Keep a non-leading space until a non-space char follows.
+        if (!leading && spaces++ == 0) {
+          spaceStart = pos - 1;
+        }
+        continue;
+      }
+      leading = false;
+      if (spaces > 0) {
+        value.append(text, spaceStart, spaceStart + spaces);
+        spaces = 0;
+      }
+      if (c == '"') {
+        quote = !quote;
+      } else if (c == '\\') {
+        readEscape(value);
+      } else {
+        value.append((char) c);
+      }
+    }
+    return value.toString();
+  }
+
+  private void readEscape(StringBuilder value) throws ParseException {
+    int c = read();
+    switch (c) {
+      case -1:
+        throw error("End of file in escape");
+      case '\n': // line continuation
+        return;
+      case 't':
+        value.append('\t');
+        return;
+      case 'b':
+        value.append('\b');
+        return;
+      case 'n':
+        value.append('\n');
+        return;
+      case '\\':
+      case '"':
+        value.append((char) c);
+        return;
+      default:
+        throw error("Bad escape: " + (char) c);
+    }
+  }
+}
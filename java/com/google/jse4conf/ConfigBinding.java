@@ -0,0 +1,206 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Implements an interface bound to a JSEConfig (sub)section by {@link JSEConfig#bind}.
+ *
+ * <p>All values are converted to the method return types when the interface is bound, and again
+ * when the first method is called after the config is compiled again, so a method call is a map
+ * lookup of a converted value. The library runs on Java 8, so the implementation is a dynamic
+ * Proxy, not a generated class.
+ */
+final class ConfigBinding implements InvocationHandler {
+  /** Converted values of one compiled generation of the config. */
+  private static final class Values {
+    final long generation;
+    final Map<Method, Object> byMethod;
+
+    Values(long generation, Map<Method, Object> byMethod) {
+      this.generation = generation;
+      this.byMethod = byMethod;
+    }
+  }
+
+  private final JSEConfig config;
+  private final Class<?> type;
+  private final String section;
+  private final String subsection;
+  private volatile Values values;
+
+  private ConfigBinding(JSEConfig config, Class<?> type, String section, String subsection) {
+    this.config = config;
+    this.type = type;
+    this.section = section;
+    this.subsection = subsection;
+  }
+
+  /** Return an implementation of interface type; see {@link JSEConfig#bind}. */
+  static <T> T bind(JSEConfig config, Class<T> type, String section, String subsection) {
+    if (!type.isInterface()) {
+      throw new IllegalArgumentException(type.getName() + " is not an interface");
+    }
+    ConfigBinding binding = new ConfigBinding(config, type, section, subsection);
+    binding.values = binding.convert();
+    return type.cast(
+        Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, binding));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) {
+    if (method.getDeclaringClass() == Object.class) {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        default:
+          return type.getSimpleName() + "(" + Section.nameOf(section, subsection) + ")";
+      }
+    }
+    Values v = values;
+    if (v.generation != config.getGeneration()) {
+      v = convert();
+      values = v;
+    }
+    return v.byMethod.get(method);
+  }
+
+  // Convert the values of all methods; throw IllegalArgumentException with all errors.
+  private Values convert() {
+    long generation = config.getGeneration();
+    Map<Method, Object> byMethod = new HashMap<>();
+    List<String> errors = new ArrayList<>();
+    for (Method m : type.getMethods()) {
+      if (Modifier.isStatic(m.getModifiers())) {
+        continue;
+      }
+      String key = Section.nameOf(section, subsection) + "." + m.getName();
+      if (m.isDefault() || m.getParameterCount() > 0) {
+        errors.add(key + ": not an abstract method without parameters");
+        continue;
+      }
+      try {
+        byMethod.put(m, value(m.getName(), m.getReturnType()));
+      } catch (IllegalArgumentException e) {
+        errors.add(key + ": " + e.getMessage());
+      }
+    }
+    if (!errors.isEmpty()) {
+      throw new IllegalArgumentException(
+          "Cannot bind " + type.getName() + ":\n  " + String.join("\n  ", errors));
+    }
+    return new Values(generation, byMethod);
+  }
+
+  // Return the JS value of a key, or its plain config value, converted to the given type.
+  private Object value(String name, Class<?> t) {
+    if (config.hasJSKey(section, subsection, name)) {
+      return fromJS(config.getJSValue(section, subsection, name), t);
+    }
+    if (!config.getNames(section, subsection).contains(name)) {
+      throw new IllegalArgumentException("no such key");
+    }
+    return fromConfig(config, name, t);
+  }
+
+  private Object fromJS(Object v, Class<?> t) {
+    if (t == Object.class) {
+      return v;
+    } else if (t == boolean.class || t == Boolean.class) {
+      if (v instanceof Boolean) {
+        return v;
+      }
+    } else if (t == String.class) {
+      if (v instanceof CharSequence) {
+        return v.toString();
+      }
+    } else if (t.isEnum()) {
+      if (v instanceof CharSequence) {
+        Config cfg = new Config();
+        cfg.setString(section, subsection, "value", v.toString());
+        return fromConfig(cfg, "value", t);
+      }
+    } else if (v instanceof Number) {
+      Number n = (Number) v;
+      if (t == double.class || t == Double.class) {
+        return n.doubleValue();
+      } else if ((t == long.class || t == Long.class) && n.doubleValue() == n.longValue()) {
+        return n.longValue();
+      } else if ((t == int.class || t == Integer.class) && n.doubleValue() == n.intValue()) {
+        return n.intValue();
+      }
+    }
+    checkSupported(t);
+    throw new IllegalArgumentException("not a valid " + t.getSimpleName() + ": " + v);
+  }
+
+  private Object fromConfig(Config cfg, String name, Class<?> t) {
+    if (t == Object.class || t == String.class) {
+      return cfg.getString(section, subsection, name);
+    } else if (t == boolean.class || t == Boolean.class) {
+      return cfg.getBoolean(section, subsection, name, false);
+    } else if (t == int.class || t == Integer.class) {
+      return cfg.getInt(section, subsection, name, 0);
+    } else if (t == long.class || t == Long.class) {
+      return cfg.getLong(section, subsection, name, 0);
+    } else if (t == double.class || t == Double.class) {
+      String value = cfg.getString(section, subsection, name);
+      if (value == null) {
+        throw new IllegalArgumentException("no value");
+      }
+      return Double.parseDouble(value);
+    } else if (t.isEnum()) {
+      return enumValue(cfg, name, t);
+    }
+    checkSupported(t);
+    return null; // not reached
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private Object enumValue(Config cfg, String name, Class<?> t) {
+    Object value = cfg.getEnum((Enum[]) t.getEnumConstants(), section, subsection, name, null);
+    if (value == null) {
+      throw new IllegalArgumentException("no value");
+    }
+    return value;
+  }
+
+  private static void checkSupported(Class<?> t) {
+    if (!(t == Object.class
+        || t == String.class
+        || t.isEnum()
+        || t == boolean.class
+        || t == Boolean.class
+        || t == int.class
+        || t == Integer.class
+        || t == long.class
+        || t == Long.class
+        || t == double.class
+        || t == Double.class)) {
+      throw new IllegalArgumentException("unsupported type " + t.getName());
+    }
+  }
+}
@@ -0,0 +1,32 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Receives the JS keys whose values changed when a JSEConfig is compiled again; see {@link
+ * JSEConfig#subscribe(String, String, ConfigChangeListener)}.
+ */
+@FunctionalInterface
+public interface ConfigChangeListener {
+  /**
+   * Called with the changed keys matched by subscriptions of this listener, by combined section
+   * name, like "plugin-my-test" for subsection "my-test" of section "plugin". Keys are JS key
+   * names, and include added and removed keys.
+   */
+  void changed(JSEConfig config, Map<String, Set<String>> changedKeys);
+}
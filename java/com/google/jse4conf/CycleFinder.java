@@ -0,0 +1,235 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Find cyclic key dependencies in linear time.
+ *
+ * <p>Keys are grouped into strongly connected components with Tarjan's algorithm. Every component
+ * of two or more keys contains cycles, and one cycle is reported for it, unless all its cycles are
+ * resolved by the dependency list. Like Section.compile, a cycle with 2 or more keys in the
+ * dependency list is trusted to be resolved by the user. So a component is reported with a cycle
+ * that has no key in the dependency list, or otherwise a cycle through exactly one such key.
+ *
+ * <p>Components and cycles are found by iterative depth-first searches, so deep dependency chains
+ * do not overflow the Java stack. A found cycle is shortened to the shortest cycle through its
+ * first key by a breadth-first search. The output is deterministic, because keys and used keys are
+ * visited in sorted order.
+ */
+final class CycleFinder {
+  private static final int WHITE = 0; // not visited
+  private static final int GRAY = 1; // on the current search path
+  private static final int BLACK = 2; // visited and done
+
+  private final KeyGraph graph;
+  private final boolean[] inDependencyList; // key id -> true if in the dependency list
+  private final int[] componentOf; // key id -> component id
+
+  // Depth-first search states, reused by all searches.
+  private final int[] state;
+  private final int[] pathKeys; // key ids on the search path
+  private final int[] pathEdges; // next used key index of each key on the search path
+  private final int[] parent; // key id -> previous key id in a breadth-first search
+
+  CycleFinder(KeyGraph graph, Set<String> depSet) {
+    this.graph = graph;
+    int n = graph.size();
+    inDependencyList = new boolean[n];
+    for (String key : depSet) {
+      int id = graph.id(key);
+      if (id >= 0) {
+        inDependencyList[id] = true;
+      }
+    }
+    componentOf = new int[n];
+    state = new int[n];
+    pathKeys = new int[n];
+    pathEdges = new int[n];
+    parent = new int[n];
+    Arrays.fill(parent, -1);
+  }
+
+  /** Return one cycle for every unresolved strongly connected component, in key order. */
+  List<List<String>> findCycles() {
+    List<List<String>> cycles = new ArrayList<>();
+    for (int[] members : findComponents()) {
+      List<String> cycle = findCycle(members, -1);
+      for (int i = 0; cycle == null && i < members.length; i++) {
+        if (inDependencyList[members[i]]) {
+          cycle = findCycle(members, members[i]);
+        }
+      }
+      if (cycle != null) {
+        cycles.add(cycle);
+      }
+    }
+    return cycles;
+  }
+
+  // Tarjan's algorithm; return sorted members of components with 2 or more keys,
+  // ordered by their first key.
+  private List<int[]> findComponents() {
+    int n = graph.size();
+    int[] index = new int[n];
+    int[] low = new int[n];
+    boolean[] onStack = new boolean[n];
+    int[] stack = new int[n];
+    int stackSize = 0;
+    int pathSize = 0;
+    int counter = 0;
+    List<int[]> components = new ArrayList<>();
+    Arrays.fill(index, -1);
+    for (int root = 0; root < n; root++) {
+      if (index[root] >= 0) {
+        continue;
+      }
+      index[root] = low[root] = counter++;
+      stack[stackSize++] = root;
+      onStack[root] = true;
+      pathKeys[pathSize] = root;
+      pathEdges[pathSize++] = graph.useStart(root);
+      while (pathSize > 0) {
+        int v = pathKeys[pathSize - 1];
+        if (pathEdges[pathSize - 1] < graph.useEnd(v)) {
+          int w = graph.usedKey(pathEdges[pathSize - 1]++);
+          if (index[w] < 0) {
+            index[w] = low[w] = counter++;
+            stack[stackSize++] = w;
+            onStack[w] = true;
+            pathKeys[pathSize] = w;
+            pathEdges[pathSize++] = graph.useStart(w);
+          } else if (onStack[w]) {
+            low[v] = Math.min(low[v], index[w]);
+          }
+          continue;
+        }
+        pathSize--;
+        if (pathSize > 0) {
+          int u = pathKeys[pathSize - 1];
+          low[u] = Math.min(low[u], low[v]);
+        }
+        if (low[v] == index[v]) {
+          int start = stackSize;
+          do {
+            onStack[stack[--start]] = false;
+          } while (stack[start] != v);
+          int[] members = Arrays.copyOfRange(stack, start, stackSize);
+          stackSize = start;
+          int id = components.size();
+          for (int m : members) {
+            componentOf[m] = id;
+          }
+          if (members.length > 1) {
+            Arrays.sort(members);
+            components.add(members);
+          }
+        }
+      }
+    }
+    components.sort((a, b) -> Integer.compare(a[0], b[0]));
+    return components;
+  }
+
+  // Return true if key w can be on a cycle in the component, with dependency list key dep.
+  private boolean allowed(int w, int component, int dep) {
+    return componentOf[w] == component && (!inDependencyList[w] || w == dep);
+  }
+
+  // Find a cycle in the component, using no key in the dependency list except dep.
+  // If dep >= 0, search only from dep; other cycles were not found before.
+  private List<String> findCycle(int[] members, int dep) {
+    int component = componentOf[members[0]];
+    List<String> cycle = null;
+    for (int i = 0; cycle == null && i < members.length; i++) {
+      int start = members[i];
+      if ((dep < 0 || start == dep) && state[start] == WHITE && allowed(start, component, dep)) {
+        cycle = searchCycle(start, component, dep);
+      }
+    }
+    for (int m : members) {
+      state[m] = WHITE;
+    }
+    return cycle;
+  }
+
+  // Depth-first search from start; return the first found cycle or null.
+  private List<String> searchCycle(int start, int component, int dep) {
+    int pathSize = 0;
+    state[start] = GRAY;
+    pathKeys[pathSize] = start;
+    pathEdges[pathSize++] = graph.useStart(start);
+    while (pathSize > 0) {
+      int v = pathKeys[pathSize - 1];
+      if (pathEdges[pathSize - 1] < graph.useEnd(v)) {
+        int w = graph.usedKey(pathEdges[pathSize - 1]++);
+        if (!allowed(w, component, dep)) {
+          continue;
+        }
+        if (state[w] == GRAY) {
+          return shortestCycle(w, component, dep); // w is on a cycle
+        }
+        if (state[w] == WHITE) {
+          state[w] = GRAY;
+          pathKeys[pathSize] = w;
+          pathEdges[pathSize++] = graph.useStart(w);
+        }
+        continue;
+      }
+      state[v] = BLACK;
+      pathSize--;
+    }
+    return null;
+  }
+
+  // Breadth-first search from key w on a cycle; return the shortest cycle from w back to w.
+  private List<String> shortestCycle(int w, int component, int dep) {
+    int[] queue = pathEdges; // the depth-first search is done, reuse its array
+    int head = 0;
+    int tail = 0;
+    int last = -1; // last key before w on the found cycle
+    queue[tail++] = w;
+    parent[w] = w;
+    while (head < tail && last < 0) {
+      int v = queue[head++];
+      for (int j = graph.useStart(v); j < graph.useEnd(v); j++) {
+        int u = graph.usedKey(j);
+        if (u == w) {
+          last = v;
+          break;
+        }
+        if (parent[u] < 0 && allowed(u, component, dep)) {
+          parent[u] = v;
+          queue[tail++] = u;
+        }
+      }
+    }
+    List<String> cycle = new ArrayList<>();
+    for (int v = last; v != w; v = parent[v]) {
+      cycle.add(graph.key(v));
+    }
+    cycle.add(graph.key(w));
+    Collections.reverse(cycle);
+    for (int i = 0; i < tail; i++) {
+      parent[queue[i]] = -1;
+    }
+    return cycle;
+  }
+}
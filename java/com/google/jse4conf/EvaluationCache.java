@@ -0,0 +1,301 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * A thread-safe cache of key values evaluated by {@link Section#evaluateBatch}, keyed by the
+ * fingerprints of the bound names each key uses, directly or through other keys of its section.
+ * When all keys of a binding are cached, the section is not evaluated for that binding.
+ *
+ * <p>Keys that use the impure builtins Date or Math.random, directly or through other keys, are
+ * never cached. Keys that call functions, directly or through other keys, are not cached if they
+ * use names that are not bound, like functions of the JS code or other sections, unless those
+ * names are standard JS functions or are declared pure by {@link #setPureNames}. Values are cached
+ * for the evaluated sections; the owner of the cache must invalidate it when the sections or their
+ * JS code change, like JSEConfig does when it is compiled again.
+ *
+ * <p>Least recently used entries are evicted when there are more than maxEntries entries, entries
+ * expire after expireAfter, and with soft values the garbage collector can drop values when
+ * memory is low.
+ */
+public final class EvaluationCache {
+  /** Default limit of cached key values. */
+  public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+  /** Computes fingerprints of bound values. */
+  @FunctionalInterface
+  public interface Fingerprinter {
+    /**
+     * Return a string that is equal for bound values that give the same key values, or null if the
+     * value of name cannot be fingerprinted, and keys using name are not cached.
+     */
+    String fingerprint(String name, Object value);
+  }
+
+  /**
+   * Default fingerprints: the contents of strings, numbers, booleans, null, and Java maps, lists,
+   * and arrays of them. Other values, like JS objects, have no default fingerprint.
+   */
+  public static final Fingerprinter CONTENTS = (name, value) -> contents(value);
+
+  private static final Object NULL = new Object(); // cached null value
+
+  // Standard JS names that calling keys can use without a binding; Date and Math.random are impure.
+  private static final Set<String> STANDARD_NAMES =
+      new HashSet<>(
+          Arrays.asList(
+              "Array", "Boolean", "Infinity", "JSON", "Math", "NaN", "Number", "Object", "RegExp",
+              "String", "decodeURI", "decodeURIComponent", "encodeURI", "encodeURIComponent",
+              "isFinite", "isNaN", "parseFloat", "parseInt", "undefined"));
+
+  // A cached value, with its expiration time in System.nanoTime.
+  private static final class Entry {
+    final Object value; // value, or SoftReference of value
+    final long expiresAt;
+
+    Entry(Object value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private int maxEntries = DEFAULT_MAX_ENTRIES; // guarded by this
+  private volatile long expireAfterNanos = Long.MAX_VALUE;
+  private volatile boolean softValues;
+  private volatile Fingerprinter fingerprinter = CONTENTS;
+  private volatile Set<String> pureNames = Collections.emptySet();
+
+  // Entries in least recently used order; guarded by this.
+  private final LinkedHashMap<String, Entry> entries =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, EvaluationCache.Entry> eldest) {
+          return size() > maxEntries;
+        }
+      };
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder bypasses = new LongAdder();
+
+  /** Limit the number of cached key values. */
+  public synchronized EvaluationCache setMaxEntries(int newValue) {
+    maxEntries = newValue;
+    return this;
+  }
+
+  /** Expire cached key values after the given time; by default they do not expire. */
+  public EvaluationCache setExpireAfter(long duration, TimeUnit unit) {
+    expireAfterNanos = unit.toNanos(duration);
+    return this;
+  }
+
+  /** Keep cached values by soft references, which are cleared when memory is low. */
+  public EvaluationCache setSoftValues(boolean newValue) {
+    softValues = newValue;
+    return this;
+  }
+
+  /** Compute fingerprints of bound values with fingerprinter instead of {@link #CONTENTS}. */
+  public EvaluationCache setFingerprinter(Fingerprinter newValue) {
+    fingerprinter = newValue;
+    return this;
+  }
+
+  /**
+   * Declare names of the JS code or sections, like {@code "Common"}, whose functions always return
+   * the same values for the same arguments, so keys calling them can be cached.
+   */
+  public EvaluationCache setPureNames(Collection<String> names) {
+    pureNames = Collections.unmodifiableSet(new HashSet<>(names));
+    return this;
+  }
+
+  /**
+   * Return the cache key of a section key that uses the bound names, or null if one of their
+   * values has no fingerprint, or if the key calls functions and uses a name that is not bound,
+   * standard, or pure. Names missing in binding are fingerprinted as unbound. Fingerprints of
+   * binding values are saved in fingerprints, to be reused for other keys of the binding.
+   */
+  String cacheKey(
+      String section,
+      String key,
+      Collection<String> names,
+      boolean calls,
+      Map<String, ?> binding,
+      Map<String, String> fingerprints) {
+    Set<String> pure = pureNames;
+    List<String> parts = new ArrayList<>();
+    parts.add(section);
+    parts.add(key);
+    for (String name : names) {
+      parts.add(name);
+      if (!binding.containsKey(name)) {
+        if (calls && !STANDARD_NAMES.contains(name) && !pure.contains(name)) {
+          bypasses.increment(); // could call an impure function of the JS code or a section
+          return null;
+        }
+        parts.add(null); // unbound, unlike any fingerprint
+        continue;
+      }
+      if (!fingerprints.containsKey(name)) {
+        fingerprints.put(name, fingerprinter.fingerprint(name, binding.get(name)));
+      }
+      String fingerprint = fingerprints.get(name);
+      if (fingerprint == null) {
+        bypasses.increment();
+        return null;
+      }
+      parts.add(fingerprint);
+    }
+    return Snapshot.hash(parts);
+  }
+
+  /** Count a binding that is not cached because a key uses an impure builtin. */
+  void bypass() {
+    bypasses.increment();
+  }
+
+  /**
+   * Return the cached values of cacheKeys, or null if one of them is not cached. Keys with null
+   * cacheKeys are not looked up.
+   */
+  synchronized Object[] getAll(String[] cacheKeys) {
+    Object[] values = new Object[cacheKeys.length];
+    long now = System.nanoTime();
+    for (int i = 0; i < cacheKeys.length; i++) {
+      if (cacheKeys[i] == null) {
+        continue;
+      }
+      Entry entry = entries.get(cacheKeys[i]);
+      Object value = (entry == null) ? null : entry.value;
+      if (value instanceof SoftReference) {
+        value = ((SoftReference<?>) value).get();
+      }
+      if (value == null || now - entry.expiresAt > 0) {
+        if (entry != null) {
+          entries.remove(cacheKeys[i]);
+        }
+        misses.increment();
+        return null;
+      }
+      values[i] = (value == NULL) ? null : value;
+    }
+    hits.increment();
+    return values;
+  }
+
+  /** Cache the values of keys with non-null cacheKeys. */
+  synchronized void putAll(String[] cacheKeys, Object[] values) {
+    long expiresAt = System.nanoTime() + Math.min(expireAfterNanos, Long.MAX_VALUE / 2);
+    for (int i = 0; i < cacheKeys.length; i++) {
+      if (cacheKeys[i] != null) {
+        Object value = (values[i] == null) ? NULL : values[i];
+        entries.put(
+            cacheKeys[i], new Entry(softValues ? new SoftReference<>(value) : value, expiresAt));
+      }
+    }
+  }
+
+  /** Remove all cached values. */
+  public synchronized void invalidateAll() {
+    entries.clear();
+  }
+
+  /** Return the number of cached values, including expired or dropped ones not removed yet. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Return the number of bindings with all key values found in the cache. */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /** Return the number of bindings with a key value not found in the cache. */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * Return the number of bindings not cached because of impure or calling keys, or unknown
+   * fingerprints.
+   */
+  public long getBypassCount() {
+    return bypasses.sum();
+  }
+
+  // Return the contents fingerprint of a Java value, or null.
+  private static String contents(Object value) {
+    StringBuilder out = new StringBuilder();
+    return appendContents(value, out, 0) ? out.toString() : null;
+  }
+
+  private static boolean appendContents(Object value, StringBuilder out, int depth) {
+    if (depth > 100 || value instanceof Scriptable) {
+      return false; // too deep, or a JS object that could be changed by evaluation
+    }
+    if (value == null) {
+      out.append('z');
+    } else if (value instanceof Boolean) {
+      out.append((Boolean) value ? 't' : 'f');
+    } else if (value instanceof Number) {
+      out.append('n').append(((Number) value).doubleValue()).append(';');
+    } else if (value instanceof CharSequence) {
+      String s = value.toString();
+      out.append('s').append(s.length()).append(':').append(s);
+    } else if (value instanceof Map) {
+      Map<String, Object> sorted = new TreeMap<>();
+      for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+        sorted.put(String.valueOf(e.getKey()), e.getValue());
+      }
+      out.append('{');
+      for (Map.Entry<String, Object> e : sorted.entrySet()) {
+        if (!appendContents(e.getKey(), out, depth + 1)
+            || !appendContents(e.getValue(), out, depth + 1)) {
+          return false;
+        }
+      }
+      out.append('}');
+    } else if (value instanceof List || value instanceof Object[]) {
+      out.append('[');
+      for (Object element :
+          (value instanceof List) ? ((List<?>) value).toArray() : (Object[]) value) {
+        if (!appendContents(element, out, depth + 1)) {
+          return false;
+        }
+      }
+      out.append(']');
+    } else {
+      return false;
+    }
+    return true;
+  }
+}
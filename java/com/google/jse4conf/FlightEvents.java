@@ -0,0 +1,167 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * Emit JDK Flight Recorder events, if the JVM has Flight Recorder.
+ *
+ * <p>The library is built for Java 8, and some Java 8 runtimes do not have the jdk.jfr module. So
+ * the event types are in JfrEvents, built separately for JDK 11+ from the java11 source directory,
+ * and called through method handles found only if this class finds jdk.jfr.Event and JfrEvents.
+ * Without them, every method here is a check of a constant false flag. With Flight Recorder, an
+ * event object is created and committed only if its event type is enabled in a recording.
+ */
+final class FlightEvents {
+  static final String OK = "ok";
+
+  private static final Class<?> EVENTS = eventsClass();
+
+  // Static methods of JfrEvents, or null if it is not found.
+  private static final MethodHandle KEY_EVALUATED_ENABLED =
+      find("keyEvaluatedEnabled", methodType(boolean.class));
+  private static final MethodHandle SECTION_COMPILED =
+      find(
+          "sectionCompiled",
+          methodType(
+              void.class, String.class, int.class, int.class, int.class, long.class, String.class));
+  private static final MethodHandle KEY_EVALUATED =
+      find(
+          "keyEvaluated",
+          methodType(void.class, String.class, String.class, long.class, String.class));
+  private static final MethodHandle CYCLE_DETECTED =
+      find("cycleDetected", methodType(void.class, String.class, List.class));
+  private static final MethodHandle COMPILE_ERROR =
+      find("compileError", methodType(void.class, String.class, String.class));
+  private static final MethodHandle PRELUDE_INITIALIZED =
+      find("preludeInitialized", methodType(void.class, int.class, long.class, String.class));
+
+  static final boolean AVAILABLE =
+      KEY_EVALUATED_ENABLED != null
+          && SECTION_COMPILED != null
+          && KEY_EVALUATED != null
+          && CYCLE_DETECTED != null
+          && COMPILE_ERROR != null
+          && PRELUDE_INITIALIZED != null;
+
+  private FlightEvents() {}
+
+  private static Class<?> eventsClass() {
+    ClassLoader loader = FlightEvents.class.getClassLoader();
+    try {
+      Class.forName("jdk.jfr.Event", false, loader);
+      return Class.forName("com.google.jse4conf.JfrEvents", true, loader);
+    } catch (ClassNotFoundException | LinkageError e) {
+      return null;
+    }
+  }
+
+  private static MethodHandle find(String name, MethodType type) {
+    if (EVENTS == null) {
+      return null;
+    }
+    try {
+      return MethodHandles.lookup().findStatic(EVENTS, name, type);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  // JfrEvents methods throw no checked exceptions.
+  private static RuntimeException rethrow(Throwable e) {
+    if (e instanceof Error) {
+      throw (Error) e;
+    }
+    return (RuntimeException) e;
+  }
+
+  /** Return true if key evaluation events should be timed and emitted. */
+  static boolean keyEvaluatedEnabled() {
+    if (!AVAILABLE) {
+      return false;
+    }
+    try {
+      return (boolean) KEY_EVALUATED_ENABLED.invokeExact();
+    } catch (Throwable e) {
+      throw rethrow(e);
+    }
+  }
+
+  static void sectionCompiled(String section, int keys, int errors, int cycles, long nanos) {
+    if (AVAILABLE) {
+      String outcome = errors == 0 ? OK : "errors";
+      try {
+        SECTION_COMPILED.invokeExact(section, keys, errors, cycles, nanos, outcome);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+  }
+
+  static void keyEvaluated(String section, String key, long nanos, String outcome) {
+    if (AVAILABLE) {
+      try {
+        KEY_EVALUATED.invokeExact(section, key, nanos, outcome);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+  }
+
+  static void cyclesDetected(String section, List<List<String>> cycles) {
+    if (AVAILABLE) {
+      for (List<String> c : cycles) {
+        try {
+          CYCLE_DETECTED.invokeExact(section, c);
+        } catch (Throwable e) {
+          throw rethrow(e);
+        }
+      }
+    }
+  }
+
+  static void compileErrors(String section, List<String> errors) {
+    for (String e : errors) {
+      compileError(section, e);
+    }
+  }
+
+  static void compileError(String section, String error) {
+    if (AVAILABLE) {
+      try {
+        COMPILE_ERROR.invokeExact(section, error);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+  }
+
+  static void preludeInitialized(int codeLength, long nanos, Object result) {
+    if (AVAILABLE) {
+      String outcome = (result instanceof Throwable) ? result.toString() : OK;
+      try {
+        PRELUDE_INITIALIZED.invokeExact(codeLength, nanos, outcome);
+      } catch (Throwable e) {
+        throw rethrow(e);
+      }
+    }
+  }
+}
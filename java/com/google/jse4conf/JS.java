@@ -14,6 +14,10 @@
 
 package com.google.jse4conf;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
 import org.mozilla.javascript.ConsString;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
@@ -27,23 +31,49 @@ public class JS {
   private Context context; // perthread Rhino runtime context
   private Scriptable scope; // Rhino JS global scope
   private String initCode; // Initialization after Rhino startup code
+  private final ScopeProfile profile; // how to initialize standard objects of a new scope
 
   /** Create a new global default scope. */
   public JS() {
     this((String) null);
   }
 
-  /** Create a clone with same initCode. */
+  /** Create a clone with same initCode and scope profile. */
   public JS(JS js) {
-    this(js.initCode);
+    this(js.initCode, js.profile);
   }
 
   /** Create a new global default scope initilized with given JS code. */
   public JS(String initCode) {
+    this(initCode, ScopeProfile.STANDARD);
+  }
+
+  /** Create a new global scope of the given profile initialized with given JS code. */
+  public JS(String initCode, ScopeProfile profile) {
     context = null;
+    this.profile = profile;
     reset(initCode);
   }
 
+  /**
+   * Create a JS environment with a new scope that inherits all names of this scope. Variables
+   * defined in the new scope do not change this scope. Must call exit of the new JS, like any JS.
+   */
+  public JS newChildScope() {
+    JS child = new JS(ContextFactory.getGlobal().enterContext(), initCode, profile);
+    child.scope = child.context.newObject(scope);
+    child.scope.setPrototype(scope);
+    child.scope.setParentScope(null);
+    return child;
+  }
+
+  // Create a JS of an entered context, to be given a scope by the caller.
+  private JS(Context context, String initCode, ScopeProfile profile) {
+    this.context = context;
+    this.initCode = initCode;
+    this.profile = profile;
+  }
+
   /** Reset to a new global scope. */
   public void reset() {
     reset(null);
@@ -53,10 +83,16 @@ public class JS {
   public Object reset(String initCode) {
     exit();
     context = ContextFactory.getGlobal().enterContext();
-    scope = context.initStandardObjects();
+    scope = profile.newScope(context);
     this.initCode = initCode;
+    if (initCode == null) {
+      return null;
+    }
     // caller should check if the returned object is an Exception.
-    return (initCode == null) ? null : eval(initCode, "<init>");
+    long start = System.nanoTime();
+    Object result = eval(initCode, "<init>");
+    FlightEvents.preludeInitialized(initCode.length(), System.nanoTime() - start, result);
+    return result;
   }
 
   /** Must call exit before release this object. */
@@ -79,6 +115,11 @@ public class JS {
     return scope;
   }
 
+  /** Return the profile of new global scopes. */
+  public ScopeProfile getScopeProfile() {
+    return profile;
+  }
+
   /** Create JS NativeArray in this context and global scope. */
   public NativeArray newArray(int length) {
     Scriptable obj = context.newArray(scope, length);
@@ -178,6 +219,32 @@ public class JS {
     }
   }
 
+  /**
+   * Convert a Java value to a JS value in this context and global scope: maps to objects, lists
+   * and arrays to arrays, and other values like Context.javaToJS. JS objects are not converted.
+   */
+  public Object toJS(Object value) {
+    if (value instanceof Scriptable) {
+      return value;
+    }
+    if (value instanceof Map) {
+      Scriptable obj = newObject();
+      for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+        obj.put(String.valueOf(e.getKey()), obj, toJS(e.getValue()));
+      }
+      return obj;
+    }
+    if (value instanceof List || value instanceof Object[]) {
+      Object[] elements =
+          (value instanceof List) ? ((List<?>) value).toArray() : ((Object[]) value).clone();
+      for (int i = 0; i < elements.length; i++) {
+        elements[i] = toJS(elements[i]);
+      }
+      return newArray(elements);
+    }
+    return Context.javaToJS(value, scope);
+  }
+
   /** Convert Java int to JS Object. */
   public static Integer from(int value) {
     return value; // use Java default conversion
@@ -224,25 +291,36 @@ public class JS {
     return eval(expr, expr).toString();
   }
 
-  /** Dump all elements of a named object, with indentation. */
-  private String dumpObjectElements(String indent, String name, NativeObject obj) {
-    String result = "";
+  /** Append all elements of a named object, with indentation, to out. */
+  private void dumpObjectElements(String indent, String name, NativeObject obj, Appendable out)
+      throws IOException {
     for (Object key : obj.getIds()) {
-      result += indent + key + ": " + dumpObjectKeyValue(name, obj, key.toString()) + ",\n";
+      out.append(indent).append(key.toString()).append(": ");
+      out.append(dumpObjectKeyValue(name, obj, key.toString())).append(",\n");
     }
-    return result;
   }
 
   /** Return the JS source form of a named variable; enclosed in comment if inComment is true. */
   public String dumpSource(String name, boolean inComment) {
+    StringBuilder source = new StringBuilder();
+    try {
+      dumpSource(name, inComment, source);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // not thrown by StringBuilder
+    }
+    return source.toString();
+  }
+
+  /** Append the JS source form of a named variable to out; in comment if inComment is true. */
+  public void dumpSource(String name, boolean inComment, Appendable out) throws IOException {
     Object obj = scope.get(name, scope);
     if (obj instanceof NativeObject) {
-      return ((inComment ? "/*\nvar " : "var ") + name + " = {\n")
-          + dumpObjectElements("  ", name, (NativeObject) obj)
-          + ("};\n" + (inComment ? "*/\n" : ""));
+      out.append(inComment ? "/*\nvar " : "var ").append(name).append(" = {\n");
+      dumpObjectElements("  ", name, (NativeObject) obj, out);
+      out.append("};\n").append(inComment ? "*/\n" : "");
     } else {
-      return ((inComment ? "// var " : "var ") + name + " = ")
-          + (eval(name + ".toSource()", name) + ";\n");
+      out.append(inComment ? "// var " : "var ").append(name).append(" = ");
+      out.append(String.valueOf(eval(name + ".toSource()", name))).append(";\n");
     }
   }
 
@@ -14,12 +14,38 @@
 
 package com.google.jse4conf;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.transport.RefSpec;
 import org.mozilla.javascript.NativeObject;
@@ -34,18 +60,80 @@ import org.mozilla.javascript.NativeObject;
 public class JSEConfig extends Config {
 
   private final Config baseConfig;
+  private final JSEConfig parent; // compiled parent config of inherit, or null
 
   private String jsCode; // initial JS code to be executed before compileJS
-  private Object compiledJSObject; // saved result Object of compileJS
+  private volatile Object compiledJSObject; // saved result Object of compileJS
+  private MetricsListener metrics = MetricsListener.NONE; // receives compile and accessor metrics
+  private SectionCache sectionCache; // shared compiled sections, or null
+  private EvaluationCache evaluationCache; // key values of evaluateBatch, or null
+  private ScopeProfile scopeProfile = ScopeProfile.STANDARD; // of JS environments to compile
+  private boolean freezeSections; // freeze sections after they are compiled
+  private final AtomicLong generation = new AtomicLong(); // changed with compiled sections
+  private int maxPendingCompiles = DEFAULT_MAX_PENDING_COMPILES;
+  private final AtomicInteger pendingCompiles = new AtomicInteger(); // async compiles not done
+  private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+  private Executor changeExecutor = Runnable::run; // delivers changed keys to listeners
+  private String publishedJSCode; // JS code of the current state
 
-  /** map from a (combined) section name to the Section object */
-  private Map<String, Section> sections;
+  /** Default limit of async compiles of a config that are submitted but not done. */
+  public static final int DEFAULT_MAX_PENDING_COMPILES = 4;
 
-  /** map from a (combined) section name to the JS NativeObject, maps of key to JS values */
-  private Map<String, Map<String, Object>> sectionValues;
+  /**
+   * Compiled sections and their values. A compile changes a copy of the current state and then
+   * replaces the state, so readers in other threads see either all old or all new sections.
+   */
+  private static final class State {
+    /** map from a (combined) section name to the Section object */
+    final Map<String, Section> sections;
+
+    /** map from a (combined) section name to the JS NativeObject, maps of key to JS values */
+    final Map<String, Map<String, Object>> values;
+
+    /** map from a (combined) section name to its {section, subsection}, to be compiled when used */
+    final Map<String, String[]> pending;
+
+    State(
+        Map<String, Section> sections,
+        Map<String, Map<String, Object>> values,
+        Map<String, String[]> pending) {
+      this.sections = sections;
+      this.values = values;
+      this.pending = pending;
+    }
+
+    State copy() {
+      return new State(new HashMap<>(sections), new HashMap<>(values), new HashMap<>(pending));
+    }
+  }
+
+  private volatile State state; // replaced only by synchronized compile methods
+
+  // A subscription to changes of a (sub)section, one of its keys, or keys with a name prefix.
+  private static final class Subscription {
+    final ConfigChangeListener listener;
+    final String section; // combined section name, or null for a prefix
+    final String key; // key name, or null for all keys
+    final String prefix; // prefix of "section.key" names, or null
+
+    Subscription(ConfigChangeListener listener, String section, String key, String prefix) {
+      this.listener = listener;
+      this.section = section;
+      this.key = key;
+      this.prefix = prefix;
+    }
+
+    boolean matches(String sectionName, String keyName) {
+      if (prefix != null) {
+        return (sectionName + "." + keyName).startsWith(prefix);
+      }
+      return section.equals(sectionName) && (key == null || key.equals(keyName));
+    }
+  }
 
   public JSEConfig() {
     baseConfig = null;
+    parent = null;
     reset(null);
   }
 
@@ -54,23 +142,187 @@ public class JSEConfig extends Config {
   }
 
   public JSEConfig(Config defaultConfig, String jsCode) {
+    this(defaultConfig, jsCode, true);
+  }
+
+  JSEConfig(Config defaultConfig, String jsCode, boolean compile) {
     super(defaultConfig);
     // Since the base class is not really set up like the given defaultConfig could have been,
     // some method like getNames need to be delegated manually.
     baseConfig = defaultConfig;
+    parent = null;
     reset(jsCode);
-    compileJS();
+    if (compile) {
+      compileJS();
+    }
+  }
+
+  // A config of the child layer over parent; combined is a Config with parent as base config.
+  private JSEConfig(JSEConfig parent, Config combined) {
+    super(combined);
+    baseConfig = combined;
+    this.parent = parent;
+    reset(parent.jsCode);
+    metrics = parent.metrics;
+    sectionCache = parent.sectionCache;
+    scopeProfile = parent.scopeProfile;
+  }
+
+  /**
+   * Create a compiled JSEConfig of a child config layered over a compiled parent JSEConfig, with
+   * the JS code of parent. Key values in child override the same keys in parent; other keys are
+   * inherited.
+   *
+   * <p>Parent is not compiled again. Compiled sections of parent without keys in child are shared
+   * with parent, and evaluated again only if they refer to a changed section. A section with keys
+   * in child reuses the parsed values of parent's keys that child does not change, and evaluates
+   * only changed keys and keys using them to check their values. Parent should not be compiled
+   * again while the child is used.
+   */
+  public static JSEConfig inherit(JSEConfig parent, Config child) {
+    Config combined = new Config(parent);
+    for (String s : child.getSections()) {
+      List<String> subsections = new ArrayList<>(child.getSubsections(s));
+      subsections.add(0, null);
+      for (String sub : subsections) {
+        for (String name : child.getNames(s, sub)) {
+          combined.setStringList(s, sub, name, Arrays.asList(child.getStringList(s, sub, name)));
+        }
+      }
+    }
+    JSEConfig config = new JSEConfig(parent, combined);
+    config.compileJS();
+    return config;
+  }
+
+  /** Return the parent config of a config created by inherit, or null. */
+  public JSEConfig getParent() {
+    return parent;
+  }
+
+  /**
+   * Create a JSEConfig like {@code new JSEConfig(defaultConfig, jsCode)}, but restore compiled
+   * sections from a snapshot written by exportSnapshot. If the snapshot was made from a different
+   * config or JS code, all sections are compiled as usual.
+   */
+  public static JSEConfig fromSnapshot(Config defaultConfig, String jsCode, InputStream in)
+      throws IOException {
+    JSEConfig config = new JSEConfig(defaultConfig, jsCode, false);
+    if (!config.importSnapshot(in)) {
+      config.compileJS();
+    }
+    return config;
   }
 
   private void reset(String jsCode) {
-    sections = new HashMap<>();
-    sectionValues = new HashMap<>();
+    state = new State(new HashMap<>(), new HashMap<>(), new HashMap<>());
     setJSCode(jsCode);
+    publishedJSCode = jsCode;
   }
 
   public JSEConfig setJSCode(String jsCode) {
     this.jsCode = jsCode;
     compiledJSObject = null;
+    if (evaluationCache != null) {
+      evaluationCache.invalidateAll();
+    }
+    return this;
+  }
+
+  /** Report compile, evaluation, and getJS* accessor metrics to the listener. */
+  public JSEConfig setMetricsListener(MetricsListener metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
+  /**
+   * Share compiled sections with other configs through the cache, or stop sharing if cache is null.
+   * Values of shared sections must not be changed; see {@link SectionCache}.
+   */
+  public JSEConfig setSectionCache(SectionCache cache) {
+    this.sectionCache = cache;
+    return this;
+  }
+
+  /**
+   * Cache key values of evaluateBatch, or stop caching if cache is null; see {@link
+   * EvaluationCache}. Values are cached for the current compiled sections only, and the cache is
+   * cleared when this config is compiled again, so a cache should not be shared by configs.
+   */
+  public JSEConfig setEvaluationCache(EvaluationCache cache) {
+    this.evaluationCache = cache;
+    return this;
+  }
+
+  /**
+   * Create JS environments to compile and evaluate sections with scopes of the profile, instead of
+   * STANDARD scopes; see {@link ScopeProfile}. With MINIMAL, each environment uses SEALED scopes
+   * if the JS code or its sections use Java classes or packages.
+   */
+  public JSEConfig setScopeProfile(ScopeProfile profile) {
+    this.scopeProfile = profile;
+    return this;
+  }
+
+  /**
+   * Freeze compiled sections to keep less memory; see {@link Section#freeze}. Frozen sections of a
+   * parent config are analyzed from scratch in a child config of inherit. Only sections compiled
+   * by this config are frozen, not the sections it shares with its parent or the section cache.
+   */
+  public JSEConfig setFreezeSections(boolean newValue) {
+    freezeSections = newValue;
+    return this;
+  }
+
+  /**
+   * Call listener after compiles with the changed keys of a (sub)section; subsection could be null.
+   * Keys are changed when their values are not deep-equal JS values, or for functions and other
+   * objects, when their source or the keys and sections they use are changed, so compiling the
+   * same config again notifies nothing.
+   */
+  public JSEConfig subscribe(String section, String subsection, ConfigChangeListener listener) {
+    subscriptions.add(new Subscription(listener, Section.nameOf(section, subsection), null, null));
+    return this;
+  }
+
+  /** Call listener after compiles if the key of a (sub)section is changed. */
+  public JSEConfig subscribe(
+      String section, String subsection, String key, ConfigChangeListener listener) {
+    subscriptions.add(new Subscription(listener, Section.nameOf(section, subsection), key, null));
+    return this;
+  }
+
+  /**
+   * Call listener after compiles with the changed keys whose "section.key" names start with
+   * prefix, where section is a combined section name; for example, prefix "plugin-" matches all
+   * subsections of plugin, and "SampleCL.max" matches keys like maxFiles of section SampleCL.
+   */
+  public JSEConfig subscribePrefix(String prefix, ConfigChangeListener listener) {
+    subscriptions.add(new Subscription(listener, null, null, prefix));
+    return this;
+  }
+
+  /** Remove all subscriptions of listener. */
+  public JSEConfig unsubscribe(ConfigChangeListener listener) {
+    subscriptions.removeIf(s -> s.listener == listener);
+    return this;
+  }
+
+  /**
+   * Call change listeners in tasks of executor; by default they are called in the compiling thread
+   * after the compiled sections are replaced.
+   */
+  public JSEConfig setChangeExecutor(Executor executor) {
+    changeExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Limit the async compiles of this config that are submitted but not done; more compileJSAsync
+   * calls are rejected.
+   */
+  public JSEConfig setMaxPendingCompiles(int newValue) {
+    maxPendingCompiles = newValue;
     return this;
   }
 
@@ -80,13 +332,18 @@ public class JSEConfig extends Config {
 
   @Override
   public Set<String> getNames(String section, String subsection) {
+    if (parent != null) {
+      Set<String> names = new LinkedHashSet<>(parent.getNames(section, subsection));
+      names.addAll(baseConfig.getNames(section, subsection)); // keys of the child layer
+      return names;
+    }
     return (baseConfig == null)
         ? super.getNames(section, subsection)
         : baseConfig.getNames(section, subsection);
   }
 
   public Set<String> getJSNames(String section) {
-    Section s = sections.get(section);
+    Section s = compiledSection(section);
     return (s == null) ? new HashSet<>() : s.getKeys();
   }
 
@@ -94,34 +351,287 @@ public class JSEConfig extends Config {
     return getJSNames(Section.nameOf(section, subsection));
   }
 
-  private Section compile2Section(JS js, String sectionName, String subsectionName) {
-    Section section = new Section(sectionName, subsectionName);
+  // Create a Section of the (sub)section key values.
+  private Section newSection(String sectionName, String subsectionName) {
+    Section section = new Section(sectionName, subsectionName).setMetricsListener(metrics);
     Set<String> keys = getNames(sectionName, subsectionName);
     for (String k : keys) {
       section.addKeyValue(k, getString(sectionName, subsectionName, k));
     }
-    section.compile(js);
     return section;
   }
 
+  // Create a Section of the (sub)section key values, and analyze it, reusing the parse results of
+  // the same section in parent.
+  private Section analyzedSection(String sectionName, String subsectionName) {
+    Section section = newSection(sectionName, subsectionName);
+    section.analyze((parent == null) ? null : parent.compiledSection(section.getName()));
+    return section;
+  }
+
+  // Return the compiled Section of parent for a (sub)section without keys in the child layer and
+  // with saved values in parent; otherwise return null.
+  private Section inheritedSection(String sectionName, String subsectionName) {
+    if (parent == null || !baseConfig.getNames(sectionName, subsectionName).isEmpty()) {
+      return null;
+    }
+    String name = Section.nameOf(sectionName, subsectionName);
+    Section section = parent.compiledSection(name);
+    return parent.state.values.containsKey(name) ? section : null;
+  }
+
   /** Compile all (sub)sections that have useJSE=true. */
   public boolean compileJS() {
     return compileJS(false);
   }
 
-  /** Compile all (sub)sections with either useJSE=true or compileAll=true. */
-  public boolean compileJS(boolean compileAll) {
-    boolean success = true;
+  /**
+   * Compile all (sub)sections with either useJSE=true or compileAll=true.
+   *
+   * <p>All sections are evaluated once in one shared JS environment of the JS code. A value can
+   * refer to another compiled section by its JS name, like {@code Common.isSuperUser(CL.Author)},
+   * and each section is evaluated after the sections it refers to.
+   */
+  public synchronized boolean compileJS(boolean compileAll) {
+    Plan plan = plan(compileAll);
+    for (Runnable analysis : plan.analyses) {
+      analysis.run();
+    }
+    return evaluate(plan, () -> false);
+  }
+
+  /** Compile like compileJS() in tasks of executor; see compileJSAsync(executor, false). */
+  public CompletableFuture<Boolean> compileJSAsync(Executor executor) {
+    return compileJSAsync(executor, false);
+  }
+
+  /**
+   * Compile like compileJS(compileAll) in tasks of executor, and return a future of its result.
+   * Sections are analyzed in parallel tasks, then evaluated in one task in one JS environment. The
+   * compiled sections replace the old ones at once, so getJS* calls in other threads see either
+   * all old or all new sections.
+   *
+   * <p>Cancelling the future stops the compile before its next section, and keeps the old sections.
+   * A call is rejected with a future failed by RejectedExecutionException if executor rejects a
+   * task or maxPendingCompiles compiles of this config are not done yet.
+   */
+  public CompletableFuture<Boolean> compileJSAsync(Executor executor, boolean compileAll) {
+    return submitCompile(
+        cancelled ->
+            CompletableFuture.supplyAsync(() -> plan(compileAll), executor)
+                .thenCompose(
+                    plan -> {
+                      List<CompletableFuture<Void>> analyses = new ArrayList<>();
+                      for (Runnable analysis : plan.analyses) {
+                        analyses.add(
+                            CompletableFuture.runAsync(
+                                () -> {
+                                  if (!cancelled.getAsBoolean()) {
+                                    analysis.run();
+                                  }
+                                },
+                                executor));
+                      }
+                      return CompletableFuture.allOf(analyses.toArray(new CompletableFuture<?>[0]))
+                          .thenApply(v -> plan);
+                    })
+                .thenApplyAsync(plan -> evaluate(plan, cancelled), executor));
+  }
+
+  /**
+   * Compile like compileJS(section, subsection) in a task of executor; cancellation and rejection
+   * are like {@link #compileJSAsync(Executor, boolean)}.
+   */
+  public CompletableFuture<Boolean> compileJSAsync(
+      Executor executor, String section, String subsection) {
+    return submitCompile(
+        cancelled ->
+            CompletableFuture.supplyAsync(
+                () -> {
+                  if (cancelled.getAsBoolean()) {
+                    throw new CancellationException();
+                  }
+                  return compileJS(section, subsection);
+                },
+                executor));
+  }
+
+  // Start an async compile if the pending compiles are under the limit, and return a future of its
+  // result, which can be cancelled. The compile function gets a test of cancellation.
+  private CompletableFuture<Boolean> submitCompile(
+      Function<BooleanSupplier, CompletableFuture<Boolean>> compile) {
+    CompletableFuture<Boolean> result = new CompletableFuture<>();
+    if (pendingCompiles.incrementAndGet() > maxPendingCompiles) {
+      pendingCompiles.decrementAndGet();
+      result.completeExceptionally(
+          new RejectedExecutionException(maxPendingCompiles + " compiles are pending"));
+      return result;
+    }
+    CompletableFuture<Boolean> work;
+    try {
+      work = compile.apply(result::isCancelled);
+    } catch (RejectedExecutionException e) {
+      work = new CompletableFuture<>();
+      work.completeExceptionally(e);
+    }
+    work.whenComplete(
+        (success, error) -> {
+          pendingCompiles.decrementAndGet();
+          if (error == null) {
+            result.complete(success);
+          } else {
+            result.completeExceptionally(
+                (error instanceof CompletionException) ? error.getCause() : error);
+          }
+        });
+    return result;
+  }
+
+  // Selected (sub)sections of a compile. Sections inherited from parent or found in the section
+  // cache come with their values; other sections are analyzed by analyses before evaluation.
+  private static final class Plan {
+    final List<Section> all = new ArrayList<>();
+    final Set<String> jsNames = new HashSet<>(); // JS names of selected sections
+    final Map<String, String[]> names = new HashMap<>(); // name -> {section, subsection}
+    final Set<Section> created = new HashSet<>(); // sections created by this config
+    final Map<String, Map<String, Object>> shared = new HashMap<>(); // inherited or cached
+    final Map<String, String> cacheKeys = new HashMap<>(); // names of sections to cache -> keys
+    final List<Runnable> analyses = new ArrayList<>(); // independent of each other
+  }
+
+  // Select the (sub)sections to compile and find the shared ones; do not change the state.
+  private Plan plan(boolean compileAll) {
+    Plan plan = new Plan();
+    List<String[]> selected = new ArrayList<>(); // {section, subsection} to compile
     for (String s : getSections()) {
-      if (compileAll || getBoolean(s, "useJSE", false)) {
-        success = compileJS(s) && success;
-      }
-      for (String sub : getSubsections(s)) {
+      List<String> subsections = new ArrayList<>(getSubsections(s));
+      subsections.add(0, null);
+      for (String sub : subsections) {
         if (compileAll || getBoolean(s, sub, "useJSE", false)) {
-          success = compileJS(s, sub) && success;
+          selected.add(new String[] {s, sub});
+          plan.jsNames.add(JS.toJSName(Section.nameOf(s, sub)));
+        }
+      }
+    }
+    for (String[] names : selected) {
+      plan.names.put(Section.nameOf(names[0], names[1]), names);
+      Section section = inheritedSection(names[0], names[1]);
+      if (section != null) {
+        plan.shared.put(section.getName(), parent.state.values.get(section.getName()));
+      } else {
+        section = newSection(names[0], names[1]);
+        String name = section.getName();
+        String key = (sectionCache == null) ? null : SectionCache.key(jsCode, section);
+        Map.Entry<Section, Map<String, Object>> cached =
+            (key == null) ? null : sectionCache.get(key, plan.jsNames);
+        if (key != null) {
+          metrics.sectionCacheLookup(section.getJSName(), cached != null);
+        }
+        if (cached != null) {
+          section = cached.getKey();
+          plan.shared.put(name, cached.getValue());
+        } else {
+          plan.created.add(section);
+          Section base = (parent == null) ? null : parent.compiledSection(name);
+          Section analyzed = section;
+          plan.analyses.add(() -> analyzed.analyze(base));
+          if (key != null) {
+            plan.cacheKeys.put(name, key);
+          }
         }
       }
+      plan.all.add(section);
     }
+    return plan;
+  }
+
+  // Evaluate the analyzed sections of plan in one JS environment and replace the state with them.
+  // Throw CancellationException and keep the state if cancelled becomes true.
+  private synchronized boolean evaluate(Plan plan, BooleanSupplier cancelled) {
+    SectionGraph graph = new SectionGraph(plan.all);
+    List<Section> order = graph.evaluationOrder();
+    // Sections of parent or the current state not compiled here are changed too; a fresh compile
+    // would not define them.
+    Set<String> changedJSNames = new HashSet<>(); // JS names of sections different from state
+    Set<String> oldNames = new HashSet<>(state.sections.keySet());
+    if (parent != null) {
+      oldNames.addAll(parent.state.sections.keySet());
+    }
+    for (String name : oldNames) {
+      if (!plan.jsNames.contains(JS.toJSName(name))) {
+        changedJSNames.add(JS.toJSName(name));
+      }
+    }
+    Set<String> changed = new HashSet<>(); // names of sections to evaluate
+    boolean more = true;
+    while (more) { // until no more inherited sections use changed sections, even in cycles
+      more = false;
+      for (Section section : order) {
+        if (!changed.contains(section.getName())
+            && (!plan.shared.containsKey(section.getName())
+                || !Collections.disjoint(section.getFreeNames(), changedJSNames))) {
+          changed.add(section.getName());
+          changedJSNames.add(section.getJSName());
+          more = true;
+        }
+      }
+    }
+    Set<Section> usedByChanged = new HashSet<>();
+    Map<String, Section> planSections = new HashMap<>();
+    for (Section section : order) {
+      if (changed.contains(section.getName())) {
+        usedByChanged.addAll(graph.referencedClosure(section));
+      }
+      planSections.put(section.getName(), section);
+    }
+    // Sections analyzed with a base Section of parent take validated values of keys that do not
+    // use sections different from parent.
+    Set<String> changedFromParent = sectionsChangedFromParent(planSections);
+    changedFromParent.addAll(changedJSNames);
+    State next = state.copy();
+    boolean success = true;
+    // one JS environment shared by all (sub)sections
+    JS js = new JS(jsCode, scopeProfile.forCode(jsCode, order));
+    try {
+      for (Section section : order) {
+        if (cancelled.getAsBoolean()) {
+          throw new CancellationException();
+        }
+        String name = section.getName();
+        String key = plan.cacheKeys.get(name);
+        if (!changed.contains(name)) {
+          // Share the section and values of parent or the cache.
+          next.pending.remove(name);
+          next.sections.put(name, section);
+          next.values.put(name, plan.shared.get(name));
+          if (usedByChanged.contains(section)) {
+            js.eval(section.dumpJSCode(), name);
+          }
+        } else {
+          boolean fromParent = (parent != null);
+          if (plan.shared.containsKey(name)) {
+            // An inherited or compiled section using a changed section; validate a new Section of
+            // this config like a fresh compile, reusing the validated values of keys not using
+            // changed sections.
+            String[] names = plan.names.get(name);
+            Section old = section;
+            fromParent = (parent != null && old == parent.state.sections.get(name));
+            section = newSection(names[0], names[1]);
+            section.analyze(old);
+            plan.created.add(section);
+          }
+          section.setChangedSections(fromParent ? changedFromParent : changedJSNames);
+          if (!evaluate(next, js, section, true, plan.created.contains(section))) {
+            success = false;
+          } else if (key != null && Collections.disjoint(section.getFreeNames(), plan.jsNames)) {
+            sectionCache.put(key, section, next.values.get(name));
+          }
+        }
+      }
+    } finally {
+      js.exit();
+    }
+    publish(next);
     return success;
   }
 
@@ -130,32 +640,245 @@ public class JSEConfig extends Config {
     return compileJS(section, null);
   }
 
-  /** Compile the specified (sub)section; subsection could be null. */
-  public boolean compileJS(String section, String subsection) {
-    String sectionName = Section.nameOf(section, subsection);
-    JS js = new JS(jsCode); // new JS environment for each (sub)section
-    Section sectionObject = compile2Section(js, section, subsection);
-    sections.put(sectionName, sectionObject);
-    sectionValues.remove(sectionName);
+  /**
+   * Compile the specified (sub)section; subsection could be null. Other compiled sections referred
+   * to by this section are evaluated again in its JS environment, but are not compiled again.
+   * Compiled sections using this section, directly or indirectly, are evaluated again after it,
+   * and their keys using changed sections are validated again.
+   */
+  public synchronized boolean compileJS(String section, String subsection) {
+    Section sectionObject = analyzedSection(section, subsection);
+    String name = sectionObject.getName();
+    List<Section> users = usersOf(name, sectionObject.getJSName());
+    // Users of a section restored from a snapshot have values of the same config already, and
+    // are not evaluated again.
+    boolean restoring = state.pending.containsKey(name);
+    Set<String> used = new HashSet<>(sectionObject.getFreeNames());
+    for (Section user : restoring ? Collections.<Section>emptyList() : users) {
+      used.addAll(user.getFreeNames());
+    }
+    for (String pendingName : new ArrayList<>(state.pending.keySet())) {
+      if (used.contains(JS.toJSName(pendingName))) {
+        compiledSection(pendingName); // a section restored from a snapshot without values
+      }
+    }
+    // Other compiled sections with values are shared; those using this section are evaluated
+    // again by evaluate(plan).
+    Plan plan = new Plan();
+    plan.all.add(sectionObject);
+    plan.created.add(sectionObject);
+    plan.jsNames.add(sectionObject.getJSName());
+    plan.names.put(name, new String[] {section, subsection});
+    for (String s : getSections()) {
+      List<String> subsections = new ArrayList<>(getSubsections(s));
+      subsections.add(0, null);
+      for (String sub : subsections) {
+        String other = Section.nameOf(s, sub);
+        Section otherSection = state.sections.get(other);
+        if (other.equals(name) || (otherSection == null && !state.pending.containsKey(other))) {
+          continue;
+        }
+        if (otherSection != null
+            && state.values.containsKey(other)
+            && !(restoring && users.contains(otherSection))) {
+          plan.all.add(otherSection);
+          plan.shared.put(other, state.values.get(other));
+        }
+        plan.jsNames.add(JS.toJSName(other));
+        plan.names.put(other, new String[] {s, sub});
+      }
+    }
+    return evaluate(plan, () -> false);
+  }
+
+  // Return the compiled sections with values, other than the named one, that use jsName directly
+  // or through other such sections.
+  private List<Section> usersOf(String name, String jsName) {
+    Set<String> usedJSNames = new HashSet<>();
+    usedJSNames.add(jsName);
+    List<Section> users = new ArrayList<>();
+    boolean more = true;
+    while (more) {
+      more = false;
+      for (Section section : state.sections.values()) {
+        if (!section.getName().equals(name)
+            && !users.contains(section)
+            && !Collections.disjoint(section.getFreeNames(), usedJSNames)) {
+          users.add(section);
+          usedJSNames.add(section.getJSName());
+          more = true;
+        }
+      }
+    }
+    return users;
+  }
+
+  // Return the JS names of sections whose compiled Section in sections is not the one of parent,
+  // including sections compiled in only one of them.
+  private Set<String> sectionsChangedFromParent(Map<String, Section> sections) {
+    Set<String> changed = new HashSet<>();
+    if (parent != null) {
+      Set<String> names = new HashSet<>(sections.keySet());
+      names.addAll(parent.state.sections.keySet());
+      for (String name : names) {
+        if (sections.get(name) != parent.state.sections.get(name)) {
+          changed.add(JS.toJSName(name));
+        }
+      }
+    }
+    return changed;
+  }
+
+  // Return the scope profile of a JS environment to evaluate section after the sections it refers
+  // to in closure.
+  private ScopeProfile scopeProfile(Section section, List<Section> closure) {
+    List<Section> sections = new ArrayList<>(closure);
+    sections.add(section);
+    return scopeProfile.forCode(jsCode, sections);
+  }
+
+  // Replace the compiled sections with the next state, and notify listeners of changed keys.
+  private void publish(State next) {
+    State old = state;
+    state = next;
+    generation.incrementAndGet();
+    if (evaluationCache != null) {
+      evaluationCache.invalidateAll();
+    }
+    boolean sameJSCode = Objects.equals(publishedJSCode, jsCode);
+    publishedJSCode = jsCode;
+    if (!subscriptions.isEmpty()) {
+      // Functions of a different JS code are compared like new functions.
+      notifyChanges(
+          ValueDelta.changes(
+              sameJSCode ? old.sections : Collections.emptyMap(),
+              old.values,
+              next.sections,
+              next.values));
+    }
+  }
+
+  // Deliver the changed keys matched by subscriptions to their listeners.
+  private void notifyChanges(Map<String, Set<String>> changes) {
+    Map<ConfigChangeListener, Map<String, Set<String>>> matched = new LinkedHashMap<>();
+    for (Subscription subscription : subscriptions) {
+      for (Map.Entry<String, Set<String>> e : changes.entrySet()) {
+        for (String key : e.getValue()) {
+          if (subscription.matches(e.getKey(), key)) {
+            matched
+                .computeIfAbsent(subscription.listener, l -> new TreeMap<>())
+                .computeIfAbsent(e.getKey(), n -> new TreeSet<>())
+                .add(key);
+          }
+        }
+      }
+    }
+    for (Map.Entry<ConfigChangeListener, Map<String, Set<String>>> e : matched.entrySet()) {
+      ConfigChangeListener listener = e.getKey();
+      Map<String, Set<String>> changedKeys = Collections.unmodifiableMap(e.getValue());
+      changeExecutor.execute(() -> listener.changed(this, changedKeys));
+    }
+  }
+
+  // Validate the analyzed section in a child scope of js if validate is true, then evaluate it in
+  // js and save its values in next. Freeze it with freezeSections only if created is true, since
+  // sections of parent or the section cache are shared with other configs. Return false if the
+  // evaluation failed; caller can check error in compiledJSObject.
+  private boolean evaluate(
+      State next, JS js, Section sectionObject, boolean validate, boolean created) {
+    String sectionName = sectionObject.getName();
+    next.pending.remove(sectionName);
+    if (validate) {
+      JS scope = js.newChildScope();
+      try {
+        sectionObject.validate(scope);
+      } finally {
+        scope.exit();
+      }
+    }
+    if (freezeSections && created) {
+      sectionObject.freeze();
+    }
+    next.sections.put(sectionName, sectionObject);
+    next.values.remove(sectionName);
     String code = sectionObject.dumpJSCode(true);
+    long start = System.nanoTime();
+    Object result = js.eval(code, sectionName);
+    compiledJSObject = result;
+    metrics.phaseTime(
+        sectionObject.getJSName(), MetricsListener.Phase.EVALUATION, System.nanoTime() - start);
+    if (!(result instanceof NativeObject)) {
+      return false;
+    }
+    @SuppressWarnings("unchecked")
+    Map<String, Object> map = (Map<String, Object>) result;
+    next.values.put(sectionName, new HashMap<>(map));
+    return true;
+  }
+
+  /**
+   * Evaluate a compiled (sub)section once for every binding, like a rule section for many changes,
+   * and return the values of its keys in columns; see {@link Section#evaluateBatch}. All bindings
+   * are evaluated in one JS environment of the JS code and the compiled sections this section
+   * refers to. Bound names are seen only by the code of this section, not by functions of the JS
+   * code or of the sections it refers to. Return null if the (sub)section is not compiled.
+   *
+   * <p>With an evaluation cache, key values of bindings seen before are taken from the cache.
+   */
+  public BatchResult evaluateBatch(
+      String section, String subsection, List<? extends Map<String, ?>> bindings) {
+    // Values of a batch running while this config is compiled again are cached by the old
+    // generation, and not used by later batches.
+    long cachedGeneration = generation.get();
+    Section sectionObject = compiledSection(Section.nameOf(section, subsection));
+    if (sectionObject == null) {
+      return null;
+    }
+    List<Section> all = new ArrayList<>(state.sections.values());
+    List<Section> closure = new SectionGraph(all).referencedClosure(sectionObject);
+    JS js = new JS(jsCode, scopeProfile(sectionObject, closure));
     try {
-      compiledJSObject = js.eval(code, sectionName);
-      if (compiledJSObject instanceof NativeObject) {
-        @SuppressWarnings("unchecked")
-        Map<String, Object> map = (Map<String, Object>) compiledJSObject;
-        sectionValues.put(sectionName, new HashMap<>(map));
-      } else {
-        return false; // caller can check error in compiledJSObject
+      for (Section referenced : closure) {
+        js.eval(referenced.dumpJSCode(), referenced.getName());
       }
+      return sectionObject.evaluateBatch(
+          js, bindings, evaluationCache, sectionObject.getJSName() + "@" + cachedGeneration);
     } finally {
       js.exit();
     }
-    return true;
+  }
+
+  /**
+   * Return an implementation of the interface type that returns values of a section; see {@link
+   * #bind(Class, String, String)}.
+   */
+  public <T> T bind(Class<T> type, String section) {
+    return bind(type, section, null);
+  }
+
+  /**
+   * Return an implementation of the interface type that returns values of a (sub)section. Each
+   * method of type has no parameters, and returns the value of the key of its name, like {@code
+   * int maxFiles()} for key maxFiles. Return types can be boolean, int, long, double, their boxed
+   * types, String, enums, or Object for the JS value. Keys without JavaScript values are converted
+   * like Config.get* does.
+   *
+   * <p>All values are converted by bind, which throws IllegalArgumentException for all missing
+   * keys and values of wrong types. After this config is compiled again, values are converted
+   * again when a method is called, which throws IllegalArgumentException for any error.
+   */
+  public <T> T bind(Class<T> type, String section, String subsection) {
+    return ConfigBinding.bind(this, type, section, subsection);
+  }
+
+  // Return a number that changes every time compiled sections are changed.
+  long getGeneration() {
+    return generation.get();
   }
 
   /** Return true if a section has a key with JavaScript value. */
   public boolean hasJSKey(String section, String name) {
-    Section s = sections.get(section);
+    Section s = compiledSection(section);
     return (s == null) ? false : s.hasParsedKey(name);
   }
 
@@ -164,9 +887,17 @@ public class JSEConfig extends Config {
     return hasJSKey(Section.nameOf(section, subsection), name);
   }
 
+  // Return hasJSKey, and report it to metrics as an accessor hit or fallback.
+  private boolean useJSKey(String section, String subsection, String name) {
+    boolean hit = hasJSKey(section, subsection, name);
+    metrics.accessed(Section.nameOf(section, subsection), name, hit);
+    return hit;
+  }
+
   /** Return the JavaScript value of section.name, or null. */
   public Object getJSValue(String section, String name) {
-    Map<String, Object> s = sectionValues.get(section);
+    compiledSection(section);
+    Map<String, Object> s = state.values.get(section);
     return (s == null) ? null : s.get(name);
   }
 
@@ -182,7 +913,7 @@ public class JSEConfig extends Config {
 
   /** Return JavaScript value of section.subsection.name as int, or the default value. */
   public int getJSInt(String section, String subsection, String name, int defaultValue) {
-    return hasJSKey(section, subsection, name)
+    return useJSKey(section, subsection, name)
         ? JS.toJava(getJSValue(section, subsection, name), defaultValue)
         : getInt(section, subsection, name, defaultValue);
   }
@@ -194,7 +925,7 @@ public class JSEConfig extends Config {
 
   /** Return JavaScript value of section.subsection.name as long, or the default value. */
   public long getJSLong(String section, String subsection, String name, long defaultValue) {
-    return hasJSKey(section, subsection, name)
+    return useJSKey(section, subsection, name)
         ? JS.toJava(getJSValue(section, subsection, name), defaultValue)
         : getLong(section, subsection, name, defaultValue);
   }
@@ -207,7 +938,7 @@ public class JSEConfig extends Config {
   /** Return JavaScript value of section.subsection.name as boolean, or the default value. */
   public boolean getJSBoolean(
       String section, String subsection, String name, boolean defaultValue) {
-    return hasJSKey(section, subsection, name)
+    return useJSKey(section, subsection, name)
         ? JS.toJava(getJSValue(section, subsection, name), defaultValue)
         : getBoolean(section, subsection, name, defaultValue);
   }
@@ -219,14 +950,14 @@ public class JSEConfig extends Config {
 
   /** Return JavaScript value of section.subsection.name as String, or null. */
   public String getJSString(String section, String subsection, String name) {
-    return hasJSKey(section, subsection, name)
+    return useJSKey(section, subsection, name)
         ? getJSValue(section, subsection, name).toString()
         : getString(section, subsection, name);
   }
 
   private Config makeTempConfig(String section, String subsection, String name) {
     Config cfg = this;
-    if (hasJSKey(section, subsection, name)) {
+    if (useJSKey(section, subsection, name)) {
       cfg = new Config();
       String value = getJSValue(section, subsection, name).toString();
       cfg.setString(section, subsection, name, value);
@@ -273,7 +1004,7 @@ public class JSEConfig extends Config {
   /** Returns all JavaScript key-value pairs of a subsection, with JavaScript parsed source code. */
   public String dumpJSSource(String section, String subsection) {
     String sectionName = Section.nameOf(section, subsection);
-    Section sect = sections.get(sectionName);
+    Section sect = compiledSection(sectionName);
     return sect == null ? notFoundSection(sectionName) : sect.dumpJSCode();
   }
 
@@ -285,7 +1016,122 @@ public class JSEConfig extends Config {
   /** Returns all JavaScript key-value pairs of a subsection, with evaluated JavaScript values. */
   public String dumpJSValues(String section, String subsection) {
     String sectionName = Section.nameOf(section, subsection);
-    Section sect = sections.get(sectionName);
+    Section sect = compiledSection(sectionName);
     return sect == null ? notFoundSection(sectionName) : sect.dumpJSKeyValues(jsCode);
   }
+
+  // Return the Section of a combined section name, compiling it first if it was not restored
+  // from a snapshot; return null for an unknown section.
+  Section compiledSection(String sectionName) {
+    String[] names = state.pending.get(sectionName);
+    if (names != null) {
+      compileJS(names[0], names[1]);
+    }
+    return state.sections.get(sectionName);
+  }
+
+  // Return a hash of the JS code and all config (sub)section key values.
+  private String sourceHash() {
+    List<String> parts = new ArrayList<>();
+    parts.add(jsCode);
+    List<String> sectionList = new ArrayList<>(getSections());
+    sectionList.sort(null);
+    for (String s : sectionList) {
+      List<String> subsections = new ArrayList<>(getSubsections(s));
+      subsections.sort(null);
+      subsections.add(0, null);
+      for (String sub : subsections) {
+        List<String> names = new ArrayList<>(getNames(s, sub));
+        names.sort(null);
+        parts.add("[" + Section.nameOf(s, sub));
+        for (String name : names) {
+          parts.add(name);
+          parts.addAll(Arrays.asList(getStringList(s, sub, name)));
+        }
+      }
+    }
+    return Snapshot.hash(parts);
+  }
+
+  /**
+   * Write all compiled (sub)sections to a binary snapshot, to be restored later by
+   * importSnapshot or fromSnapshot without compiling them. Sections with values that are not
+   * JSON-like, such as functions, are written only by name and compiled again when first used.
+   */
+  public void exportSnapshot(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(Snapshot.MAGIC);
+    data.writeInt(Snapshot.VERSION);
+    Snapshot.writeString(data, sourceHash());
+    State current = state;
+    List<String[]> compiled = new ArrayList<>();
+    for (String s : getSections()) {
+      List<String> subsections = new ArrayList<>(getSubsections(s));
+      subsections.add(0, null);
+      for (String sub : subsections) {
+        String name = Section.nameOf(s, sub);
+        if (current.sections.containsKey(name) || current.pending.containsKey(name)) {
+          compiled.add(new String[] {s, sub});
+        }
+      }
+    }
+    data.writeInt(compiled.size());
+    for (String[] names : compiled) {
+      String name = Section.nameOf(names[0], names[1]);
+      Snapshot.writeString(data, names[0]);
+      Snapshot.writeString(data, names[1]);
+      Section section = current.sections.get(name);
+      Map<String, Object> values = current.values.get(name);
+      boolean restorable = section != null && values != null && Snapshot.canWrite(values);
+      data.writeBoolean(restorable);
+      if (restorable) {
+        section.writeCompiled(data);
+        Snapshot.writeValues(data, values);
+      }
+    }
+    data.flush();
+  }
+
+  /**
+   * Publish all boolean, number, and string values of compiled (sub)sections to a new generation of
+   * the shared read-only value store at path; see {@link SharedValueStore}.
+   */
+  public void publishValues(Path path) throws IOException {
+    for (String name : new ArrayList<>(state.pending.keySet())) {
+      compiledSection(name);
+    }
+    SharedValueStore.publish(path, state.values);
+  }
+
+  /**
+   * Replace all compiled (sub)sections with those in a snapshot written by exportSnapshot. Return
+   * false and keep the current state if the snapshot is of another format version, config, or JS
+   * code.
+   */
+  public synchronized boolean importSnapshot(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    if (data.readInt() != Snapshot.MAGIC || data.readInt() != Snapshot.VERSION) {
+      return false;
+    }
+    if (!sourceHash().equals(Snapshot.readString(data))) {
+      return false;
+    }
+    Map<String, Section> newSections = new HashMap<>();
+    Map<String, Map<String, Object>> newValues = new HashMap<>();
+    Map<String, String[]> newPending = new HashMap<>();
+    for (int i = data.readInt(); i > 0; i--) {
+      String section = Snapshot.readString(data);
+      String subsection = Snapshot.readString(data);
+      String name = Section.nameOf(section, subsection);
+      if (data.readBoolean()) {
+        newSections.put(name, Section.readCompiled(name, data));
+        newValues.put(name, Snapshot.readValues(data));
+      } else {
+        newPending.put(name, new String[] {section, subsection});
+      }
+    }
+    compiledJSObject = null;
+    publish(new State(newSections, newValues, newPending));
+    return true;
+  }
 }
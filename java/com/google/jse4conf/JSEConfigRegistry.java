@@ -0,0 +1,290 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * A thread-safe registry of compiled JSEConfigs by name, like one config per repository.
+ *
+ * <p>A config is loaded by a {@link Loader} and compiled when it is first used, and later uses get
+ * the same JSEConfig. Least recently used configs are evicted when there are more than maxEntries
+ * configs, or when the total weight, the length of their config texts, is more than maxWeight.
+ *
+ * <p>Compiled sections are frozen to save memory; see {@link Section#freeze}. If compileJS of a
+ * config fails, like for an error in one key, the partly compiled config is still registered, so
+ * its plain values and the sections that did evaluate can be read; {@link #hasFailed} tells such
+ * configs apart.
+ */
+public class JSEConfigRegistry {
+  /** Loads the config of a name, from files, Git, memory, or any other source. */
+  @FunctionalInterface
+  public interface Loader {
+    /** Return the config of name, or null if name has no config. */
+    Config load(String name) throws IOException, ConfigInvalidException;
+  }
+
+  /** A compiled config, its weight, and whether its compileJS failed. */
+  private static final class Entry {
+    final JSEConfig config;
+    final long weight;
+    final boolean failed;
+
+    Entry(JSEConfig config, long weight, boolean failed) {
+      this.config = config;
+      this.weight = weight;
+      this.failed = failed;
+    }
+  }
+
+  private final Loader loader;
+  private final String jsCode; // JS code of all configs
+  private int maxEntries = Integer.MAX_VALUE;
+  private long maxWeight = Long.MAX_VALUE;
+  private SectionCache sectionCache; // given to all configs, or null
+  private MetricsListener metrics = MetricsListener.NONE; // given to all configs
+
+  // Entries in least recently used order; guarded by this.
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalWeight; // guarded by this
+  private long generation; // changed by invalidate, so loads started before it are not added
+
+  // Loads in progress, so concurrent gets of a name load it once.
+  private final Map<String, FutureTask<Entry>> loading = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder loads = new LongAdder();
+  private final LongAdder failedCompiles = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /** Create a registry of configs loaded by loader and compiled with jsCode. */
+  public JSEConfigRegistry(Loader loader, String jsCode) {
+    this.loader = loader;
+    this.jsCode = jsCode;
+  }
+
+  /** Keep at most the given number of compiled configs. */
+  public JSEConfigRegistry setMaxEntries(int newValue) {
+    maxEntries = newValue;
+    return this;
+  }
+
+  /**
+   * Keep compiled configs of at most the given total weight, the number of characters in their
+   * config texts. The most recently loaded config is kept even if it is heavier.
+   */
+  public JSEConfigRegistry setMaxWeight(long newValue) {
+    maxWeight = newValue;
+    return this;
+  }
+
+  /** Share compiled sections of all configs through the cache; see {@link SectionCache}. */
+  public JSEConfigRegistry setSectionCache(SectionCache cache) {
+    sectionCache = cache;
+    return this;
+  }
+
+  /** Report compile and accessor metrics of all configs to the listener. */
+  public JSEConfigRegistry setMetricsListener(MetricsListener newValue) {
+    metrics = newValue;
+    return this;
+  }
+
+  /**
+   * Return the compiled JSEConfig of name, loading and compiling it if it is not in the registry.
+   * Return null if name has no config. A config that failed to compile is returned too; see {@link
+   * #hasFailed}.
+   */
+  public JSEConfig get(String name) throws IOException, ConfigInvalidException {
+    synchronized (this) {
+      Entry entry = entries.get(name);
+      if (entry != null) {
+        hits.increment();
+        return entry.config;
+      }
+    }
+    FutureTask<Entry> task = new FutureTask<>(() -> load(name));
+    FutureTask<Entry> running = loading.putIfAbsent(name, task);
+    if (running == null) {
+      running = task;
+      try {
+        task.run();
+      } finally {
+        loading.remove(name, task);
+      }
+    }
+    try {
+      Entry entry = running.get();
+      return (entry == null) ? null : entry.config;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while loading " + name);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof ConfigInvalidException) {
+        throw (ConfigInvalidException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause); // Loader throws no other exceptions
+    }
+  }
+
+  // Load and compile the config of name, and add it to entries unless it was invalidated while
+  // loading; return null if name has no config.
+  private Entry load(String name) throws IOException, ConfigInvalidException {
+    long loadGeneration;
+    synchronized (this) {
+      loadGeneration = generation;
+    }
+    Config config = loader.load(name);
+    if (config == null) {
+      return null;
+    }
+    loads.increment();
+    JSEConfig jseConfig = new JSEConfig(config, jsCode, false);
+    jseConfig.setSectionCache(sectionCache).setMetricsListener(metrics).setFreezeSections(true);
+    boolean failed = !jseConfig.compileJS();
+    if (failed) {
+      failedCompiles.increment();
+    }
+    Entry entry = new Entry(jseConfig, config.toText().length(), failed);
+    synchronized (this) {
+      if (generation != loadGeneration) {
+        return entry; // possibly of an old config text, so it is not added
+      }
+      Entry old = entries.put(name, entry);
+      totalWeight += entry.weight - ((old == null) ? 0 : old.weight);
+      evict();
+    }
+    return entry;
+  }
+
+  // Remove least recently used entries, but not the newest one, until entries fit in the limits.
+  private void evict() {
+    Iterator<Entry> it = entries.values().iterator();
+    while ((entries.size() > maxEntries || totalWeight > maxWeight) && entries.size() > 1) {
+      totalWeight -= it.next().weight;
+      it.remove();
+      evictions.increment();
+    }
+  }
+
+  /**
+   * Load and compile the named configs in parallel on executor, like a hot set at startup. The
+   * returned future completes after all of them are loaded, exceptionally if any load failed.
+   */
+  public CompletableFuture<Void> warm(Collection<String> names, Executor executor) {
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (String name : names) {
+      futures.add(
+          CompletableFuture.runAsync(
+              () -> {
+                try {
+                  get(name);
+                } catch (IOException | ConfigInvalidException e) {
+                  throw new CompletionException(e);
+                }
+              },
+              executor));
+    }
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+  }
+
+  /**
+   * Remove the config of name, to be loaded again when it is used. Loads in progress are not added
+   * to the registry, and later gets do not wait for them.
+   */
+  public synchronized void invalidate(String name) {
+    generation++;
+    loading.remove(name);
+    Entry entry = entries.remove(name);
+    if (entry != null) {
+      totalWeight -= entry.weight;
+    }
+  }
+
+  /** Remove all configs, to be loaded again when they are used. */
+  public synchronized void invalidateAll() {
+    generation++;
+    loading.clear();
+    entries.clear();
+    totalWeight = 0;
+  }
+
+  /** Return true if the compiled config of name is in the registry. */
+  public synchronized boolean contains(String name) {
+    return entries.containsKey(name);
+  }
+
+  /**
+   * Return true if the config of name is in the registry and its compileJS failed, so some of its
+   * sections have errors or were not evaluated.
+   */
+  public synchronized boolean hasFailed(String name) {
+    Entry entry = entries.get(name);
+    return entry != null && entry.failed;
+  }
+
+  /** Return the number of compiled configs in the registry. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Return the total weight of compiled configs in the registry. */
+  public synchronized long getWeight() {
+    return totalWeight;
+  }
+
+  /** Return the number of gets that found a compiled config. */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /** Return the number of configs compiled. */
+  public long getLoadCount() {
+    return loads.sum();
+  }
+
+  /** Return the number of configs that failed to compile. */
+  public long getFailedCount() {
+    return failedCompiles.sum();
+  }
+
+  /** Return the number of evicted configs. */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Used-key graph of a section, with integer key ids.
+ *
+ * <p>A key id is the index of the key in the sorted key list, so comparing ids is the same as
+ * comparing key names. The used keys of all keys are stored in one array, in compressed sparse row
+ * form: the ids of keys used by key v are {@code usedKey(j)} for {@code j} from {@code
+ * useStart(v)} to {@code useEnd(v) - 1}, sorted. A key using itself is not stored.
+ */
+final class KeyGraph {
+  private final List<String> keys; // sorted keys; index is the key id
+  private final Map<String, Integer> ids; // key -> key id
+  private final int[] useStart; // key id -> start index in usedKeys; useStart[n] is the end
+  private final int[] usedKeys; // sorted used key ids of all keys
+
+  KeyGraph(List<String> sortedKeys, Map<String, Set<String>> keyUseSet) {
+    keys = sortedKeys;
+    int n = keys.size();
+    ids = new HashMap<>();
+    for (int i = 0; i < n; i++) {
+      ids.put(keys.get(i), i);
+    }
+    int size = 0;
+    for (Set<String> used : keyUseSet.values()) {
+      size += used.size();
+    }
+    useStart = new int[n + 1];
+    int[] edges = new int[size];
+    size = 0;
+    for (int i = 0; i < n; i++) {
+      useStart[i] = size;
+      Set<String> used = keyUseSet.get(keys.get(i));
+      if (used != null) {
+        for (String u : used) {
+          Integer id = ids.get(u);
+          if (id != null && id != i) {
+            edges[size++] = id;
+          }
+        }
+        Arrays.sort(edges, useStart[i], size);
+      }
+    }
+    useStart[n] = size;
+    usedKeys = (size == edges.length) ? edges : Arrays.copyOf(edges, size);
+  }
+
+  /** Return the number of keys. */
+  int size() {
+    return keys.size();
+  }
+
+  /** Return the key name of an id. */
+  String key(int id) {
+    return keys.get(id);
+  }
+
+  /** Return the id of a key, or -1 if it is not a key. */
+  int id(String key) {
+    Integer id = ids.get(key);
+    return (id == null) ? -1 : id;
+  }
+
+  /** Return the index of the first key used by key v. */
+  int useStart(int v) {
+    return useStart[v];
+  }
+
+  /** Return the index after the last key used by key v. */
+  int useEnd(int v) {
+    return useStart[v + 1];
+  }
+
+  /** Return the used key id at index j. */
+  int usedKey(int j) {
+    return usedKeys[j];
+  }
+}
@@ -14,20 +14,88 @@
 
 package com.google.jse4conf;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import org.mozilla.javascript.ast.AstNode;
-import org.mozilla.javascript.ast.AstRoot;
 import org.mozilla.javascript.ast.Name;
 import org.mozilla.javascript.ast.Scope;
 
-/** A logger object prints debug/trace messages depending on the flags. */
+/**
+ * A logger object prints debug/trace messages depending on the flags.
+ *
+ * <p>Messages are built only when their level is enabled. Callers pass constant strings, a format
+ * with arguments, or a Supplier, or check isDebugEnabled/isTraceEnabled before building a costly
+ * message. So a disabled logger allocates nothing for logging.
+ *
+ * <p>Enabled messages are written to a {@link Sink}, which is System.out by default. Other sinks
+ * can forward messages to java.util.logging ({@link #julSink}), keep the last messages in memory
+ * ({@link RingBuffer}), or call any other logging library, e.g. {@code slf4jLogger::debug}.
+ */
 public class Logger {
-  private boolean debug = false; // set to dump debug messages
-  private boolean trace = false; // set to dump more than debug messages
+  /** A destination of enabled log messages. */
+  @FunctionalInterface
+  public interface Sink {
+    /** Write one message, which has no trailing new line. */
+    void log(String msg);
+  }
+
+  /** A sink that prints every message as a line to System.out. */
+  public static final Sink STDOUT = Logger::println;
+
+  /** A logger with debug and trace messages disabled. */
+  public static final Logger OFF = new Logger(false, false);
+
+  /** A sink that keeps only the last messages in memory; useful in tests and status pages. */
+  public static class RingBuffer implements Sink {
+    private final int capacity;
+    private final Deque<String> lines;
+
+    public RingBuffer(int capacity) {
+      this.capacity = Math.max(1, capacity);
+      this.lines = new ArrayDeque<>(this.capacity);
+    }
+
+    @Override
+    public synchronized void log(String msg) {
+      if (lines.size() == capacity) {
+        lines.removeFirst();
+      }
+      lines.addLast(msg);
+    }
+
+    /** Return a copy of the kept messages, oldest first. */
+    public synchronized List<String> getLines() {
+      return new ArrayList<>(lines);
+    }
+
+    public synchronized void clear() {
+      lines.clear();
+    }
+  }
+
+  /** Return a sink that logs every message to a java.util.logging.Logger at the given level. */
+  public static Sink julSink(java.util.logging.Logger jul, Level level) {
+    return msg -> jul.log(level, msg);
+  }
+
+  private final boolean debug; // set to dump debug messages
+  private final boolean trace; // set to dump more than debug messages
+  private final Sink sink; // where enabled messages go
 
   Logger(boolean debug, boolean trace) {
+    this(debug, trace, STDOUT);
+  }
+
+  /** Create a logger that writes enabled debug/trace messages to the sink. */
+  public Logger(boolean debug, boolean trace, Sink sink) {
     this.debug = debug;
     this.trace = trace;
+    this.sink = sink;
   }
 
   public static boolean println(String msg) {
@@ -35,6 +103,29 @@ public class Logger {
     return true;
   }
 
+  public boolean isDebugEnabled() {
+    return debug;
+  }
+
+  public boolean isTraceEnabled() {
+    return trace;
+  }
+
+  // Write an enabled message to the sink; always return true, like println.
+  private boolean log(String msg) {
+    sink.log(msg.endsWith("\n") ? msg.substring(0, msg.length() - 1) : msg);
+    return true;
+  }
+
+  // Two spaces per depth level; only called when a message is printed.
+  private static String indent(int depth) {
+    StringBuilder indent = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      indent.append("  ");
+    }
+    return indent.toString();
+  }
+
   public static String dumpKey(String kind, String key) {
     return dumpKey("## checking", kind, key);
   }
@@ -44,53 +135,87 @@ public class Logger {
   }
 
   public boolean debug(String msg) {
-    return debug && println(msg);
+    return debug && log(msg);
   }
 
   public boolean trace(String msg) {
-    return trace && println(msg);
+    return trace && log(msg);
+  }
+
+  /** Log String.format(format, arg) as a debug message; the format is applied only if enabled. */
+  public boolean debug(String format, Object arg) {
+    return debug && log(String.format(format, arg));
+  }
+
+  public boolean debug(String format, Object arg1, Object arg2) {
+    return debug && log(String.format(format, arg1, arg2));
+  }
+
+  public boolean trace(String format, Object arg) {
+    return trace && log(String.format(format, arg));
+  }
+
+  public boolean trace(String format, Object arg1, Object arg2) {
+    return trace && log(String.format(format, arg1, arg2));
+  }
+
+  /** Log a debug message from the supplier, which is called only if enabled. */
+  public boolean debug(Supplier<String> msg) {
+    return debug && log(msg.get());
+  }
+
+  public boolean trace(Supplier<String> msg) {
+    return trace && log(msg.get());
   }
 
   public boolean debugMissingValue(String key) {
-    return debug && println("# ERROR: missing parsed value of " + key + " default to ''.");
+    return debug && log("# ERROR: missing parsed value of " + key + " default to ''.");
   }
 
   public boolean debugKeyValue(String key, String value) {
-    return debug && println("# ERROR: " + key + " = " + value);
+    return debug && log("# ERROR: " + key + " = " + value);
   }
 
   public boolean debugKeyParsedValue(String key, String value) {
-    return debug && println("### Test parse key:" + key + " value:" + value);
+    return debug && log("### Test parse key:" + key + " value:" + value);
   }
 
   public boolean debugUsedKeys(String key, Set<String> used) {
-    return debug && println("### Found names used by " + key + ": " + used);
+    return debug && log("### Found names used by " + key + ": " + used);
   }
 
   public boolean debugKey(String kind, String key) {
-    return debug && println(dumpKey(kind, key));
+    return debug && log(dumpKey(kind, key));
   }
 
   public boolean debugKey(String prefix, String action, String key) {
-    return debug && println(dumpKey(prefix, action, key));
+    return debug && log(dumpKey(prefix, action, key));
+  }
+
+  public boolean debugKey(int depth, String action, String key) {
+    return debug && log(dumpKey(indent(depth), action, key));
   }
 
   public boolean traceKey(String kind, String key) {
-    return trace && println(dumpKey(kind, key));
+    return trace && log(dumpKey(kind, key));
   }
 
   public boolean traceKey(String prefix, String action, String key) {
-    return trace && println(dumpKey(prefix, action, key));
+    return trace && log(dumpKey(prefix, action, key));
+  }
+
+  public boolean traceKey(int depth, String action, String key) {
+    return trace && log(dumpKey(indent(depth), action, key));
   }
 
-  public boolean traceAST(String value, AstRoot root) {
+  public boolean traceAST(String value, AstNode root) {
     return trace
-        && println(
+        && log(
             "### parsed AST for [" + value + "](" + value.length() + "):\n" + root.debugPrint());
   }
 
   public boolean traceVisitNode(String type, AstNode node) {
-    return trace && println("    visit " + type + ": " + node.toSource(0));
+    return trace && log("    visit " + type + ": " + node.toSource(0));
   }
 
   private static String scopeOf(Name node) {
@@ -99,6 +224,6 @@ public class Logger {
   }
 
   public boolean traceVisitNameNode(Name node) {
-    return trace && println("    visit Name: " + node.toSource(0) + " in scope: " + scopeOf(node));
+    return trace && log("    visit Name: " + node.toSource(0) + " in scope: " + scopeOf(node));
   }
 }
@@ -0,0 +1,248 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A thread-safe MetricsListener that keeps counters and a latency histogram per phase.
+ *
+ * <p>Counters are LongAdders, so concurrent compilations do not contend on one counter. The same
+ * Metrics object can be given to many Sections, Conf2JS, and JSEConfig objects, and registered as
+ * a JMX MXBean with {@link #register}.
+ */
+public class Metrics implements MetricsListener, MetricsMXBean {
+  /** Default JMX domain of registered Metrics. */
+  public static final String JMX_DOMAIN = "com.google.jse4conf";
+
+  /**
+   * A latency histogram with power-of-two nanosecond buckets. Percentiles are reported as the upper
+   * bound of their bucket, so they are at most 2 times the real value.
+   */
+  public static class Histogram {
+    private static final int BUCKETS = 64;
+    private final LongAdder[] buckets = new LongAdder[BUCKETS]; // bucket i: < 2^i nanos
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    Histogram() {
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    public void record(long nanos) {
+      nanos = Math.max(0, nanos);
+      buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+      count.increment();
+      total.add(nanos);
+      max.accumulate(nanos);
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public long getTotalNanos() {
+      return total.sum();
+    }
+
+    public long getMaxNanos() {
+      return max.get();
+    }
+
+    /** Return the upper bound of the bucket with the given percentile (0 to 100), or 0. */
+    public long getPercentileNanos(double percentile) {
+      long[] counts = new long[BUCKETS];
+      long sum = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = buckets[i].sum();
+        sum += counts[i];
+      }
+      long rank = (long) Math.ceil(sum * percentile / 100);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts[i];
+        if (seen >= rank && seen > 0) {
+          return Math.min((i >= BUCKETS - 1) ? Long.MAX_VALUE : (1L << i) - 1, getMaxNanos());
+        }
+      }
+      return 0;
+    }
+
+    void reset() {
+      for (LongAdder b : buckets) {
+        b.reset();
+      }
+      count.reset();
+      total.reset();
+      max.reset();
+    }
+  }
+
+  private final Map<Phase, Histogram> phases = new EnumMap<>(Phase.class);
+  private final LongAdder sectionsCompiled = new LongAdder();
+  private final LongAdder keysCompiled = new LongAdder();
+  private final LongAdder compileErrors = new LongAdder();
+  private final LongAdder cycles = new LongAdder();
+  private final LongAdder accessorHits = new LongAdder();
+  private final LongAdder accessorFallbacks = new LongAdder();
+  private final LongAdder sectionCacheHits = new LongAdder();
+  private final LongAdder sectionCacheMisses = new LongAdder();
+
+  public Metrics() {
+    for (Phase p : Phase.values()) {
+      phases.put(p, new Histogram());
+    }
+  }
+
+  @Override
+  public void phaseTime(String section, Phase phase, long nanos) {
+    phases.get(phase).record(nanos);
+  }
+
+  @Override
+  public void sectionCompiled(String section, int keys, int errors, int cycles) {
+    sectionsCompiled.increment();
+    keysCompiled.add(keys);
+    compileErrors.add(errors);
+    this.cycles.add(cycles);
+  }
+
+  @Override
+  public void accessed(String section, String key, boolean hit) {
+    (hit ? accessorHits : accessorFallbacks).increment();
+  }
+
+  @Override
+  public void sectionCacheLookup(String section, boolean hit) {
+    (hit ? sectionCacheHits : sectionCacheMisses).increment();
+  }
+
+  /** Return the latency histogram of a phase. */
+  public Histogram getHistogram(Phase phase) {
+    return phases.get(phase);
+  }
+
+  /** Register this object to the platform MBean server with the given name; return its name. */
+  public ObjectName register(String name) throws JMException {
+    ObjectName objectName =
+        new ObjectName(JMX_DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    return objectName;
+  }
+
+  @Override
+  public long getSectionsCompiled() {
+    return sectionsCompiled.sum();
+  }
+
+  @Override
+  public long getKeysCompiled() {
+    return keysCompiled.sum();
+  }
+
+  @Override
+  public long getCompileErrors() {
+    return compileErrors.sum();
+  }
+
+  @Override
+  public long getCycles() {
+    return cycles.sum();
+  }
+
+  @Override
+  public long getAccessorHits() {
+    return accessorHits.sum();
+  }
+
+  @Override
+  public long getAccessorFallbacks() {
+    return accessorFallbacks.sum();
+  }
+
+  @Override
+  public long getSectionCacheHits() {
+    return sectionCacheHits.sum();
+  }
+
+  @Override
+  public long getSectionCacheMisses() {
+    return sectionCacheMisses.sum();
+  }
+
+  private Map<String, Long> phaseMap(ToLongFunction<Histogram> value) {
+    Map<String, Long> map = new LinkedHashMap<>();
+    for (Map.Entry<Phase, Histogram> e : phases.entrySet()) {
+      map.put(e.getKey().name(), value.applyAsLong(e.getValue()));
+    }
+    return map;
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  @Override
+  public Map<String, Long> getPhaseCounts() {
+    return phaseMap(Histogram::getCount);
+  }
+
+  @Override
+  public Map<String, Long> getPhaseTotalMicros() {
+    return phaseMap(h -> micros(h.getTotalNanos()));
+  }
+
+  @Override
+  public Map<String, Long> getPhaseP50Micros() {
+    return phaseMap(h -> micros(h.getPercentileNanos(50)));
+  }
+
+  @Override
+  public Map<String, Long> getPhaseP99Micros() {
+    return phaseMap(h -> micros(h.getPercentileNanos(99)));
+  }
+
+  @Override
+  public Map<String, Long> getPhaseMaxMicros() {
+    return phaseMap(h -> micros(h.getMaxNanos()));
+  }
+
+  @Override
+  public void reset() {
+    for (Histogram h : phases.values()) {
+      h.reset();
+    }
+    sectionsCompiled.reset();
+    keysCompiled.reset();
+    compileErrors.reset();
+    cycles.reset();
+    accessorHits.reset();
+    accessorFallbacks.reset();
+    sectionCacheHits.reset();
+    sectionCacheMisses.reset();
+  }
+}
@@ -0,0 +1,54 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+/**
+ * Receives compile and evaluation metrics from Section, Conf2JS, and JSEConfig.
+ *
+ * <p>All methods have empty defaults, so a listener overrides only what it needs. Listeners are
+ * called on the compiling or accessing thread, and should return quickly. {@link Metrics} is a
+ * thread-safe implementation with counters and latency histograms.
+ */
+public interface MetricsListener {
+  /** A listener that ignores all metrics. */
+  MetricsListener NONE = new MetricsListener() {};
+
+  /** Timed phases of compiling and evaluating a section. */
+  enum Phase {
+    PARSE, // parse all key values and find their used names
+    DEPENDENCY_ANALYSIS, // build the used-key graph and order keys
+    CYCLE_DETECTION, // find cyclic key dependencies
+    VALIDATION, // test evaluation of parsed values in a JS environment
+    EVALUATION, // evaluation of the compiled section code
+  }
+
+  /** Called when a phase of the section took the given time. */
+  default void phaseTime(String section, Phase phase, long nanos) {}
+
+  /** Called after a section is compiled, with its number of keys, errors, and reported cycles. */
+  default void sectionCompiled(String section, int keys, int errors, int cycles) {}
+
+  /**
+   * Called by a JSEConfig getJS* accessor; hit is true if the key has a JavaScript value, or false
+   * if the accessor falls back to the plain config value.
+   */
+  default void accessed(String section, String key, boolean hit) {}
+
+  /**
+   * Called when JSEConfig looks up a section in its {@link SectionCache}; hit is true if a cached
+   * compiled section is used instead of compiling the section.
+   */
+  default void sectionCacheLookup(String section, boolean hit) {}
+}
@@ -0,0 +1,48 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.Map;
+
+/** JMX view of {@link Metrics}; phase maps are keyed by {@link MetricsListener.Phase} names. */
+public interface MetricsMXBean {
+  long getSectionsCompiled();
+
+  long getKeysCompiled();
+
+  long getCompileErrors();
+
+  long getCycles();
+
+  long getAccessorHits();
+
+  long getAccessorFallbacks();
+
+  long getSectionCacheHits();
+
+  long getSectionCacheMisses();
+
+  Map<String, Long> getPhaseCounts();
+
+  Map<String, Long> getPhaseTotalMicros();
+
+  Map<String, Long> getPhaseP50Micros();
+
+  Map<String, Long> getPhaseP99Micros();
+
+  Map<String, Long> getPhaseMaxMicros();
+
+  void reset();
+}
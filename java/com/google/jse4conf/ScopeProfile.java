@@ -0,0 +1,103 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.Collection;
+import java.util.regex.Pattern;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * How a JS environment initializes the standard objects of its global scope.
+ *
+ * <p>A STANDARD scope gets its own standard objects from {@code Context.initStandardObjects}, which
+ * builds the whole ECMAScript global object graph for every scope. SEALED and MINIMAL scopes are
+ * new empty objects over one shared scope of sealed standard objects, built once per process, so
+ * creating a scope costs only one object. Their code can define new names, which hide the shared
+ * ones, but cannot change the shared standard objects, like {@code Array.prototype}; that throws
+ * an EvaluatorException.
+ *
+ * <p>The shared scope of MINIMAL has only the safe standard objects, without the Java classes and
+ * packages of LiveConnect, like {@code java} or {@code Packages}. JSEConfig uses MINIMAL only if
+ * its JS code and the free names of the evaluated sections do not use those names, and SEALED
+ * otherwise.
+ */
+public enum ScopeProfile {
+  /** A new scope with its own standard objects; the default. */
+  STANDARD,
+  /** A new scope over shared sealed standard objects. */
+  SEALED,
+  /** A new scope over shared sealed safe standard objects, without Java classes and packages. */
+  MINIMAL;
+
+  // Global names defined by initStandardObjects but not by initSafeStandardObjects.
+  private static final Pattern JAVA_PAT =
+      Pattern.compile(
+          "\\b(?:Packages|java|javax|org|com|edu|net|getClass|JavaAdapter|JavaImporter)\\b");
+
+  private volatile ScriptableObject sharedScope; // sealed standard objects of SEALED or MINIMAL
+
+  /** Return a new global scope of this profile in context cx. */
+  Scriptable newScope(Context cx) {
+    if (this == STANDARD) {
+      return cx.initStandardObjects();
+    }
+    ScriptableObject shared = sharedScope(cx);
+    Scriptable scope = cx.newObject(shared);
+    scope.setPrototype(shared);
+    scope.setParentScope(null);
+    return scope;
+  }
+
+  private ScriptableObject sharedScope(Context cx) {
+    ScriptableObject shared = sharedScope;
+    if (shared == null) {
+      synchronized (this) {
+        shared = sharedScope;
+        if (shared == null) {
+          shared =
+              (this == SEALED)
+                  ? cx.initStandardObjects(null, true)
+                  : cx.initSafeStandardObjects(null, true);
+          sharedScope = shared;
+        }
+      }
+    }
+    return shared;
+  }
+
+  /**
+   * Return this profile, or SEALED if this is MINIMAL and jsCode or the free names of sections use
+   * Java classes or packages. The check of jsCode is textual, so names in its comments and strings
+   * count too.
+   */
+  ScopeProfile forCode(String jsCode, Collection<Section> sections) {
+    if (this != MINIMAL) {
+      return this;
+    }
+    if (jsCode != null && JAVA_PAT.matcher(jsCode).find()) {
+      return SEALED;
+    }
+    for (Section section : sections) {
+      for (String name : section.getFreeNames()) {
+        if (JAVA_PAT.matcher(name).matches()) {
+          return SEALED;
+        }
+      }
+    }
+    return MINIMAL;
+  }
+}
@@ -14,19 +14,29 @@
 
 package com.google.jse4conf;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import org.mozilla.javascript.CompilerEnvirons;
-import org.mozilla.javascript.Parser;
-import org.mozilla.javascript.ast.AstRoot;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ast.AstNode;
 
 // All information in a config file section.
 public class Section {
@@ -34,18 +44,30 @@ public class Section {
   static final String ID_REGEX = "[^\\]\\s,]+";
   static final String SPACE = "\\s*";
   static final Pattern ID_PAT = Pattern.compile(",?\\s*(" + ID_REGEX + ")");
-  static final Pattern LIST_OF_ID_PAT =
-      Pattern.compile("\\[(" + ID_REGEX + ")(," + SPACE + ID_REGEX + ")*\\]");
-
+  // Builtins with different results for the same bindings, in a parsed value.
+  static final Pattern IMPURE_PAT = Pattern.compile("\\bDate\\b|\\bMath\\s*\\.\\s*random\\b");
+  // A name, closing parenthesis, or bracket followed by a call or keyword parenthesis.
+  static final Pattern CALL_PAT = Pattern.compile("([\\w$]+|[)\\]])\\s*\\(");
+  // Keywords followed by a parenthesis that is not a call.
+  static final Set<String> NOT_CALLS =
+      new HashSet<>(
+          Arrays.asList(
+              "catch", "for", "function", "if", "in", "instanceof", "of", "return", "switch",
+              "typeof", "void", "while", "with"));
+
+  private final String name; // section name or combined section-subsection name
   private final String jsName; // section name converted for JavaScript
-  private final Map<String, String> keyValues; // original section key -> value
+  private Map<String, String> keyValues; // original section key -> value
   private Set<String> jsKeys; // JS.toJSName(k) of k in keyValues.keySet().
   private List<String> sortedKeys; // sorted jsKeys
 
   // from Rhino parser AST, set in findUsedNames:
   private Map<String, String> parsedValues; // parsed AST dump
   private Map<String, Set<String>> keyUseSet; // key -> used names
-  private Set<String> visited; // set when searching for used names
+  private Set<String> freeNames; // used names that are not keys, like other section names
+  private Map<String, Set<String>> keyUsedNames; // key -> all used names, keys or not
+  private Map<String, String> analyzedValues; // parsedValues before validate changes them
+  private KeyGraph graph; // keyUseSet with integer key ids, by compile
 
   // Valid JS key-value pairs can have only dependency cycles:
   // (1) Direct recursive calls to a key in its own function body.
@@ -56,7 +78,7 @@ public class Section {
   // tells Section.compile to emit key2, key5, and key1 in order, to break
   // any cyclic dependencies among those 3 keys. Note that other keys
   // that used by key2 will still be emitted before key2.
-  private List<List<String>> cycles; // detected by findCycles
+  private List<List<String>> cycles; // one per strongly connected component, by findCycles
 
   private List<String> dependencyList; // empty or user provided.
   private Set<String> dependencySet; // keys in dependencyList
@@ -69,8 +91,17 @@ public class Section {
   private List<String> jsKeyList; // key names in JS-code order
 
   private List<String> errors; // parse errors
+  private Map<String, String> keyErrors; // key -> evaluation error, by validate
+  private boolean validated; // true if values were evaluated by validate
+  private Section base; // compiled section of a parent config, from analyze to validate
+  private Set<String> changedSections = Collections.emptySet(); // JS names, until validate
+  private boolean frozen; // true after freeze, until compiled again
 
   private final Logger logger; // to dump debug/trace messages
+  private boolean batchParse; // parse all values in one combined parse
+  private MetricsListener metrics = MetricsListener.NONE; // receives compile metrics
+  private long compileStart; // start time of analyze
+  private long validationStart; // end time of analyze
 
   /** Create a combined name for the given section and subsection names. */
   public static String nameOf(String section, String subsection) {
@@ -79,12 +110,12 @@ public class Section {
 
   /** Create a Section of the given section and subsection names. */
   public Section(String section, String subsection) {
-    this(nameOf(section, subsection), new Logger(false, false));
+    this(nameOf(section, subsection), Logger.OFF);
   }
 
   /** Create a Section of the given section name or combined section-subsection name. */
   public Section(String name) {
-    this(name, new Logger(false, false));
+    this(name, Logger.OFF);
   }
 
   /**
@@ -92,12 +123,30 @@ public class Section {
    * debug/trace messages through the logger.
    */
   public Section(String name, Logger logger) {
+    this.name = name;
     this.jsName = JS.toJSName(name);
     this.logger = logger;
     this.keyValues = new HashMap<>();
     // Other fields are initialized in compile().
   }
 
+  /**
+   * Parse all key values of this section in one combined parse, instead of one parse per key. Keys
+   * that cannot be split out of the combined parse are still parsed one by one. It is off by
+   * default: in ParseBenchmark it is faster only for small sections, about 10 keys, and several
+   * times slower for 100000 keys.
+   */
+  public Section setBatchParse(boolean newValue) {
+    batchParse = newValue;
+    return this;
+  }
+
+  /** Report compile phase times and counts of this section to the listener. */
+  public Section setMetricsListener(MetricsListener newValue) {
+    metrics = newValue;
+    return this;
+  }
+
   /** Add a pair of original config file's key and value. */
   public void addKeyValue(String key, String value) {
     this.keyValues.put(key, value);
@@ -108,21 +157,50 @@ public class Section {
     return keyValues.keySet();
   }
 
+  /** Return the original value of a key, or null. */
+  public String getKeyValue(String key) {
+    return keyValues.get(key);
+  }
+
   /** Return all JS keys defined in this section. */
   public Set<String> getJSKeys() {
     return jsKeys;
   }
 
+  /** Return the section name or combined section-subsection name. */
+  public String getName() {
+    return name;
+  }
+
   /** Return the JS variable name for this section. */
   public String getJSName() {
     return jsName;
   }
 
+  /**
+   * Return names used by values of this section that are not keys of this section, like names
+   * defined by the JS init code or other sections. Available after compile or analyze.
+   */
+  public Set<String> getFreeNames() {
+    return freeNames;
+  }
+
   /** Return true if key has parsed JavaScript value. */
   public boolean hasParsedKey(String key) {
     return parsedValues.get(key) != null;
   }
 
+  // Return the parsed JavaScript source of key, or null.
+  String getParsedValue(String key) {
+    return (parsedValues == null) ? null : parsedValues.get(key);
+  }
+
+  // Return all names used by the value of key, keys or not, or null if not known, like after
+  // freeze.
+  Set<String> getUsedNames(String key) {
+    return (keyUsedNames == null) ? null : keyUsedNames.get(key);
+  }
+
   // Check if given value string is a "dependency list".
   private void findDependencyList(String value) {
     // scan parsed value for the pattern of "[id{, id}]"
@@ -132,116 +210,94 @@ public class Section {
         || value.charAt(value.length() - 1) != ']') {
       return; // too short to be a valid list
     }
-    Matcher m = LIST_OF_ID_PAT.matcher(value);
-    if (m.matches()) {
-      List<String> list = new ArrayList<>();
-      logger.trace("# Check potential dependency list: " + value);
-      // Extract one key at a time, because the Matcher returns only one last
-      // key in the group for (...)*.
-      int start = 1;
-      m = ID_PAT.matcher(value);
-      while (start < value.length() && m.find(start)) {
-        String id = m.group(1);
-        if (!jsKeys.contains(id)) {
-          return; // not a valid key
-        } else {
-          list.add(id);
-        }
-        start = m.end();
+    logger.trace("# Check potential dependency list: %s", value);
+    // Match one id at a time; a regex of the whole list would recurse once per id, and overflow
+    // the stack for long lists.
+    List<String> list = new ArrayList<>();
+    Matcher m = ID_PAT.matcher(value);
+    int end = value.length() - 1;
+    for (int start = 1; start < end; start = m.end()) {
+      m.region(start, end);
+      if (!m.lookingAt()
+          || (list.isEmpty() ? m.start(1) != start : value.charAt(start) != ',')
+          || !jsKeys.contains(m.group(1))) {
+        return; // not a list of keys
       }
-      dependencyList = !list.isEmpty() ? list : dependencyList;
-      logger.trace("## New dependencyList = " + dependencyList);
+      list.add(m.group(1));
     }
+    dependencyList = !list.isEmpty() ? list : dependencyList;
+    logger.trace("## New dependencyList = %s", dependencyList);
+  }
+
+  // Return true if the value of key k was parsed in base and is not changed.
+  private boolean sameAsBase(String k) {
+    return base != null
+        && base.analyzedValues.containsKey(k)
+        && Objects.equals(keyValues.get(k), base.keyValues.get(k));
   }
 
   private void findUsedNames() {
     parsedValues = new HashMap<>();
     keyUseSet = new HashMap<>();
-    visited = new HashSet<>();
+    keyUsedNames = new HashMap<>();
+    freeNames = new HashSet<>();
     dependencyList = new ArrayList<>();
     dependencySet = new HashSet<>();
+    List<String> keysToParse = new ArrayList<>();
+    for (String k : sortedKeys) {
+      if (!sameAsBase(k)) {
+        keysToParse.add(k);
+      }
+    }
+    Map<String, AstNode> batchValues =
+        batchParse ? ValueParser.parseAll(jsName, keysToParse, keyValues) : new HashMap<>();
     for (String k : sortedKeys) {
-      String value = keyValues.get(k);
-      // Parse a key's value like an expression.
-      Parser parser = new Parser(CompilerEnvirons.ideEnvirons());
-      AstRoot root = parser.parse(value, "valueOf(" + k + ")", 1);
-      // Null is returned if parse failed, then k is not added into parsedValues.
-      if (root != null) {
+      String parsedValue;
+      Set<String> usedNames;
+      if (sameAsBase(k)) {
+        // Reuse the parse result of the parent config's section.
+        parsedValue = base.analyzedValues.get(k);
+        usedNames = base.keyUsedNames.get(k);
+      } else {
+        String value = keyValues.get(k);
+        // Parse a key's value like an expression.
+        AstNode root = batchValues.get(k);
+        if (root == null) {
+          root = ValueParser.parse(value, "valueOf(" + k + ")");
+        }
+        // Null is returned if parse failed, then k is not added into parsedValues.
+        if (root == null) {
+          continue;
+        }
         logger.traceAST(value, root);
-        String parsedValue = removeExtraLF(root.toSource());
-        parsedValues.put(k, parsedValue);
-        findDependencyList(parsedValue);
-        logger.debugKeyParsedValue(k, parsedValue);
-
+        parsedValue = removeExtraLF(ValueParser.toSource(root));
         NameVisitor visitor = new NameVisitor(k, logger);
         root.visit(visitor);
-        // Ignore used names that are not keys of this section.
-        Set<String> usedKeys = new HashSet<>(visitor.usedNames);
-        usedKeys.retainAll(sortedKeys);
-        if (!usedKeys.isEmpty()) {
-          keyUseSet.put(k, usedKeys);
-          logger.debugUsedKeys(k, usedKeys);
-        }
+        usedNames = visitor.usedNames;
       }
-    }
-  }
-
-  // Add one detected cycle into the list of all cycles.
-  private void addCycle(List<String> cycle) {
-    // Sequential search is slow only if there are many cycles.
-    // Correct input should not have any cycle.
-    for (List<String> x : cycles) {
-      if (x.equals(cycle)) {
-        return;
-      }
-    }
-    cycles.add(cycle);
-  }
-
-  private void findCycles(ArrayDeque<String> stack, Set<String> useSet) {
-    if (useSet == null) {
-      return;
-    }
-    List<String> useList = new ArrayList<>(useSet);
-    Collections.sort(useList);
-    for (String name : useList) {
-      if (stack.contains(name)) {
-        List<String> c = new ArrayList<>();
-        int foundInDependencySet = 0;
-        boolean inCycle = false;
-        for (String k : stack) {
-          if (!inCycle) {
-            inCycle = k.equals(name);
-          }
-          if (inCycle) {
-            c.add(k);
-            foundInDependencySet += dependencySet.contains(k) ? 1 : 0;
-          }
+      parsedValues.put(k, parsedValue);
+      keyUsedNames.put(k, usedNames);
+      findDependencyList(parsedValue);
+      logger.debugKeyParsedValue(k, parsedValue);
+      // Ignore used names that are not keys of this section.
+      Set<String> usedKeys = new HashSet<>(usedNames);
+      usedKeys.retainAll(jsKeys);
+      for (String name : usedNames) {
+        if (!jsKeys.contains(name)) {
+          freeNames.add(name);
         }
-        // Ignore this cycle if 2 or more keys in the cycle have their
-        // ordering specified in a dependency list. In that case, trust
-        // user's dependency list to break/ignore this cyclic reference
-        // by emitting the keys in dependency list first.
-        if (foundInDependencySet < 2) {
-          addCycle(c);
-        }
-      } else {
-        stack.add(name);
-        findCycles(stack, keyUseSet.get(name));
-        stack.remove(name);
+      }
+      if (!usedKeys.isEmpty()) {
+        keyUseSet.put(k, usedKeys);
+        logger.debugUsedKeys(k, usedKeys);
       }
     }
   }
 
-  // Detect and collect all cycles in the useSet of every key.
+  // Detect one cycle in every strongly connected component of the used keys.
   private void findCycles() {
-    cycles = new ArrayList<>();
     dependencySet = new HashSet<>(dependencyList);
-    for (String k : sortedKeys) {
-      ArrayDeque<String> stack = new ArrayDeque<>();
-      stack.add(k);
-      findCycles(stack, keyUseSet.get(k));
-    }
+    cycles = new CycleFinder(graph, dependencySet).findCycles();
   }
 
   private static String removeExtraLF(String str) {
@@ -250,67 +306,192 @@ public class Section {
     return str.replaceAll(" *\n *", " ").replaceAll(";? *$", "");
   }
 
-  private boolean needToDumpUsedKey(String key) {
-    // The given key is used by some other key.
-    // The used key is dumped before the other key, only if
-    // it has valid parsed value, not visited yet, and not in the dependencySet.
-    // Keys in the dependencySet should be dumped by the order in the dependencySet.
-    return hasParsedKey(key) && !visited.contains(key) && !dependencySet.contains(key);
-  }
+  // Emit keys of a compile call in the order of a depth-first search:
+  // a key is emitted after all keys it uses, in sorted order, except
+  // keys in the dependencySet, which are emitted in their list order.
+  // The search uses explicit stacks, so a long chain of used keys
+  // does not overflow the Java stack.
+  private class KeyEmitter {
+    private final boolean[] visited; // key id -> true if checked
+    private final boolean[] inDependencySet; // key id -> true if in dependencySet
+    private final int[] pathKeys; // key ids on the search path
+    private final int[] pathEdges; // next used key index of each key on the search path
+
+    KeyEmitter() {
+      int n = graph.size();
+      visited = new boolean[n];
+      inDependencySet = new boolean[n];
+      pathKeys = new int[n];
+      pathEdges = new int[n];
+      for (String k : dependencySet) {
+        inDependencySet[graph.id(k)] = true;
+      }
+    }
 
-  private void compileKey(String key, String indent) {
-    if (visited.contains(key)) {
-      logger.traceKey(indent, "Skip", key);
-      return;
+    private boolean needToDumpUsedKey(int id) {
+      // The given key is used by some other key.
+      // The used key is dumped before the other key, only if
+      // it has valid parsed value, not visited yet, and not in the dependencySet.
+      // Keys in the dependencySet should be dumped by the order in the dependencySet.
+      return !visited[id] && !inDependencySet[id] && hasParsedKey(graph.key(id));
     }
-    logger.traceKey(indent, "Check", key);
-    visited.add(key);
-    String value = parsedValues.get(key);
-    if (value == null) {
-      errors.add(JS.keyMissingValue(key));
-      return;
+
+    // Mark key id visited; return true if it has a parsed value and is pushed to the path.
+    private boolean push(int id, int depth) {
+      String key = graph.key(id);
+      logger.traceKey(depth, "Check", key);
+      visited[id] = true;
+      if (!hasParsedKey(key)) {
+        errors.add(JS.keyMissingValue(key));
+        return false;
+      }
+      pathKeys[depth] = id;
+      pathEdges[depth] = graph.useStart(id);
+      return true;
     }
-    // Must sort usedKeys to dump them in deterministic order.
-    if (keyUseSet.get(key) != null) { // need to dump used keys first
-      List<String> sortedUsedKeys = new ArrayList<>(keyUseSet.get(key));
-      Collections.sort(sortedUsedKeys);
-      for (String k : sortedUsedKeys) {
-        if (needToDumpUsedKey(k)) {
-          logger.traceKey(indent, "Check used", k);
-          compileKey(k, indent + "  ");
+
+    void compileKey(String key) {
+      int root = graph.id(key);
+      if (visited[root]) {
+        logger.traceKey(0, "Skip", key);
+        return;
+      }
+      int pathSize = push(root, 0) ? 1 : 0;
+      while (pathSize > 0) {
+        int depth = pathSize - 1;
+        int v = pathKeys[depth];
+        if (pathEdges[depth] < graph.useEnd(v)) {
+          int w = graph.usedKey(pathEdges[depth]++);
+          if (needToDumpUsedKey(w)) {
+            logger.traceKey(depth, "Check used", graph.key(w));
+            pathSize += push(w, pathSize) ? 1 : 0;
+          }
+          continue;
         }
+        logger.debugKey(depth, "Dump", graph.key(v));
+        jsKeyList.add(graph.key(v));
+        pathSize--;
       }
     }
-    logger.debugKey(indent, "Dump", key);
-    jsKeyList.add(key);
   }
 
-  // When JS environment js is available, evaluate all parsed JS strings.
+  // Return value as a single-quoted JS string literal.
+  static String quoted(String value) {
+    StringBuilder out = new StringBuilder("'");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\'':
+        case '\\':
+          out.append('\\').append(c);
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        case '\u2028':
+        case '\u2029':
+          out.append(String.format("\\u%04x", (int) c));
+          break;
+        default:
+          out.append(c);
+      }
+    }
+    return out.append('\'').toString();
+  }
+
+  // Evaluate all parsed JS strings in the JS environment js.
   // If a parsed string has evaluation error, add single-quote characters
   // around the string to make it a default valid JS string.
   // This makes string values in old config files easily accepted as
   // JavaScript strings of a JSEConfig file.
+  // Keys not changed from base are not evaluated again; they take the validated values and errors
+  // of base, and are defined in js only if a changed key uses them.
   private void makeDefaultStrings(JS js) {
-    if (js == null) {
-      return; // no way to test parsed JS code.
-    }
-    js = new JS(js); // use only initCode of js, do not change original state
+    boolean timeKeys = FlightEvents.keyEvaluatedEnabled();
+    Set<String> changedKeys = (base == null) ? null : changedKeys();
+    Set<String> usedByChangedKeys = (base == null) ? null : usedClosure(changedKeys);
     for (String k : jsKeyList) {
       String value = parsedValues.get(k);
-      if (value == null) {
+      if (changedKeys != null && !changedKeys.contains(k)) {
+        value = base.parsedValues.get(k);
+        parsedValues.put(k, value);
+        String error = base.keyErrors.get(k);
+        if (error != null) {
+          errors.add(error);
+          keyErrors.put(k, error);
+        }
+        if (usedByChangedKeys.contains(k)) {
+          js.eval("const " + k + "=" + value + ";", k);
+        }
+      } else if (value == null) {
         logger.debugMissingValue(k);
         parsedValues.put(k, "''");
       } else {
+        long start = timeKeys ? System.nanoTime() : 0;
         Object obj = js.eval("const " + k + "=" + value + ";", k); // use key name as fake file name
+        if (timeKeys) {
+          FlightEvents.keyEvaluated(
+              jsName,
+              k,
+              System.nanoTime() - start,
+              (obj instanceof Throwable) ? obj.toString() : FlightEvents.OK);
+        }
         if (obj instanceof Throwable) {
           // Maybe it is good to output an error message here,
           // but not if this could flood a server's error log files.
           logger.debugKeyValue(k, value);
-          errors.add(JS.keyValueException(k, value, obj.toString()));
-          parsedValues.put(k, "'" + value + "'");
+          String error = JS.keyValueException(k, value, obj.toString());
+          errors.add(error);
+          keyErrors.put(k, error);
+          parsedValues.put(k, quoted(value));
+        }
+      }
+    }
+  }
+
+  // Return keys with values or used keys different from base, keys using changed sections, and all
+  // keys using them.
+  private Set<String> changedKeys() {
+    Set<String> changed = new HashSet<>();
+    Map<String, List<String>> users = new HashMap<>();
+    for (String k : jsKeyList) {
+      if (!sameAsBase(k)
+          || !base.parsedValues.containsKey(k)
+          || !Objects.equals(keyUseSet.get(k), base.keyUseSet.get(k))
+          || !Collections.disjoint(
+              keyUsedNames.getOrDefault(k, Collections.emptySet()), changedSections)) {
+        changed.add(k);
+      }
+      for (String used : keyUseSet.getOrDefault(k, Collections.emptySet())) {
+        users.computeIfAbsent(used, x -> new ArrayList<>()).add(k);
+      }
+    }
+    Deque<String> queue = new ArrayDeque<>(changed);
+    while (!queue.isEmpty()) {
+      for (String user : users.getOrDefault(queue.pop(), Collections.emptyList())) {
+        if (changed.add(user)) {
+          queue.push(user);
         }
       }
     }
+    return changed;
+  }
+
+  // Return the given keys and all keys used by them directly or indirectly.
+  private Set<String> usedClosure(Set<String> keys) {
+    Set<String> closure = new HashSet<>(keys);
+    Deque<String> queue = new ArrayDeque<>(keys);
+    while (!queue.isEmpty()) {
+      for (String used : keyUseSet.getOrDefault(queue.pop(), Collections.emptySet())) {
+        if (closure.add(used)) {
+          queue.push(used);
+        }
+      }
+    }
+    return closure;
   }
 
   /** Compile value strings without any JS environment. */
@@ -320,6 +501,39 @@ public class Section {
 
   /** Compile value strings with the given JS environment. */
   public void compile(JS js) {
+    analyze();
+    if (js == null) {
+      validate(null); // no way to test parsed JS code.
+      return;
+    }
+    JS copy = new JS(js); // use only initCode of js, do not change original state
+    try {
+      validate(copy);
+    } finally {
+      copy.exit();
+    }
+  }
+
+  /**
+   * The first part of compile: parse values, find used names and cycles, and order the keys. After
+   * analyze, getFreeNames returns names used from outside this section.
+   */
+  void analyze() {
+    analyze(null);
+  }
+
+  /**
+   * Analyze like analyze(), but reuse the parse results of parent, a compiled section of the same
+   * name in a parent config, for keys with the same values. Then validate evaluates only keys that
+   * are changed from parent or use changed keys. The parent section must have been validated in the
+   * same JS code; otherwise it is not used.
+   */
+  void analyze(Section parent) {
+    base = (parent != null && parent.validated && parent.analyzedValues != null) ? parent : null;
+    if (frozen) {
+      keyValues = new HashMap<>(keyValues);
+      frozen = false;
+    }
     jsKeys = new HashSet<>();
     Set<String> invalidKeys = new HashSet<>(); // not valid JS var name
     for (String k : keyValues.keySet()) {
@@ -335,33 +549,157 @@ public class Section {
     }
     sortedKeys = new ArrayList<>(jsKeys);
     Collections.sort(sortedKeys);
+    compileStart = System.nanoTime();
+    long start = compileStart;
     findUsedNames(); // set up keyUseSet
+    start = phaseDone(MetricsListener.Phase.PARSE, start);
+    graph = new KeyGraph(sortedKeys, keyUseSet);
+    long graphNanos = System.nanoTime() - start; // part of DEPENDENCY_ANALYSIS
+    start += graphNanos;
     findCycles(); // set up cycles
+    start = phaseDone(MetricsListener.Phase.CYCLE_DETECTION, start);
+    FlightEvents.cyclesDetected(jsName, cycles);
     jsKeyList = new ArrayList<>();
     errors = new ArrayList<>();
+    KeyEmitter emitter = new KeyEmitter();
     for (String k : dependencyList) {
       logger.traceKey("dependency", k);
-      compileKey(k, "");
+      emitter.compileKey(k);
     }
     for (String k : sortedKeys) {
       logger.traceKey("sorted", k);
-      compileKey(k, "");
+      emitter.compileKey(k);
     }
+    analyzedValues = new HashMap<>(parsedValues);
+    validationStart = phaseDone(MetricsListener.Phase.DEPENDENCY_ANALYSIS, start - graphNanos);
+  }
+
+  /**
+   * Set the JS names of other sections that differ between this config and the parent config of
+   * the base section given to analyze, like changed, added, or removed sections. Keys using them
+   * are evaluated again by validate, instead of taking the validated values of base.
+   */
+  void setChangedSections(Set<String> jsNames) {
+    changedSections = jsNames;
+  }
+
+  /**
+   * The second part of compile, after analyze: evaluate all parsed values in js, if it is not null,
+   * and replace values with errors by strings. Definitions of the values are added to the scope of
+   * js, so js should be a new environment or a child scope of a shared environment.
+   */
+  void validate(JS js) {
     // Now all value strings are parsed as JavaScript expressions.
-    makeDefaultStrings(js);
+    keyErrors = new HashMap<>();
+    if (js != null) {
+      makeDefaultStrings(js);
+      phaseDone(MetricsListener.Phase.VALIDATION, validationStart);
+    }
+    validated = (js != null);
+    base = null;
+    changedSections = Collections.emptySet();
+    metrics.sectionCompiled(jsName, sortedKeys.size(), errors.size(), cycles.size());
+    FlightEvents.compileErrors(jsName, errors);
+    FlightEvents.sectionCompiled(
+        jsName, sortedKeys.size(), errors.size(), cycles.size(), System.nanoTime() - compileStart);
+  }
+
+  /**
+   * Drop the structures used only to compile this section, like the used-key graph, and keep keys
+   * and values in compact sorted arrays, with interned key names and short values. A frozen section
+   * is dumped and queried like before, but its key values cannot be changed, and it is not reused
+   * to analyze the same section of a child config. Compiling it again makes it not frozen.
+   */
+  public Section freeze() {
+    if (frozen || jsKeyList == null) {
+      return this; // already frozen or not compiled
+    }
+    String[] keys = Compact.sorted(jsKeys);
+    jsKeys = Compact.set(keys);
+    sortedKeys = Collections.unmodifiableList(Arrays.asList(keys));
+    keyValues = Compact.map(keyValues, keys);
+    parsedValues = Compact.map(parsedValues, keys);
+    String[] order = new String[jsKeyList.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = jsKeyList.get(i).intern();
+    }
+    jsKeyList = Collections.unmodifiableList(Arrays.asList(order));
+    freeNames =
+        freeNames.isEmpty() ? Collections.emptySet() : Compact.set(Compact.sorted(freeNames));
+    errors = errors.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(errors);
+    cycles = cycles.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(cycles);
+    keyUseSet = null;
+    keyUsedNames = null;
+    analyzedValues = null;
+    keyErrors = null;
+    graph = null;
+    dependencyList = null;
+    dependencySet = null;
+    base = null;
+    frozen = true;
+    return this;
+  }
+
+  /** Return true if this section is frozen. */
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  // Report the time of a phase since start; return the current time.
+  private long phaseDone(MetricsListener.Phase phase, long start) {
+    long now = System.nanoTime();
+    metrics.phaseTime(jsName, phase, now - start);
+    return now;
   }
 
-  // Return lines to report all detected cyclic used-names.
-  private String dumpCycles() {
-    StringBuilder output = new StringBuilder();
+  // Append lines to report all detected cyclic used-names.
+  private void dumpCycles(Appendable out) throws IOException {
     for (List<String> c : cycles) {
-      output.append("  // cycle:");
+      out.append("  // cycle:");
       for (String k : c) {
-        output.append(" ").append(k).append(" =>");
+        out.append(" ").append(k).append(" =>");
       }
-      output.append(" ").append(c.get(0)).append("\n");
+      out.append(" ").append(c.get(0)).append("\n");
+    }
+  }
+
+  /**
+   * Write the compiled state of this section to a snapshot: key values, parsed values, JS key
+   * order, free names, errors, and cycles. Parse trees and the key graph are not written; they are
+   * not used after compile.
+   */
+  void writeCompiled(DataOutputStream out) throws IOException {
+    Snapshot.writeStringMap(out, keyValues);
+    Snapshot.writeStringMap(out, parsedValues);
+    Snapshot.writeStrings(out, jsKeyList);
+    Snapshot.writeStrings(out, new ArrayList<>(freeNames));
+    Snapshot.writeStrings(out, errors);
+    out.writeInt(cycles.size());
+    for (List<String> c : cycles) {
+      Snapshot.writeStrings(out, c);
+    }
+  }
+
+  /** Read a compiled section of the given combined name, written by writeCompiled. */
+  static Section readCompiled(String name, DataInputStream in) throws IOException {
+    Section section = new Section(name);
+    section.keyValues.putAll(Snapshot.readStringMap(in));
+    section.parsedValues = Snapshot.readStringMap(in);
+    section.jsKeyList = Snapshot.readStrings(in);
+    section.freeNames = new HashSet<>(Snapshot.readStrings(in));
+    section.errors = Snapshot.readStrings(in);
+    int n = in.readInt();
+    section.cycles = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      section.cycles.add(Snapshot.readStrings(in));
+    }
+    section.jsKeys = new HashSet<>();
+    for (String k : section.keyValues.keySet()) {
+      section.jsKeys.add(JS.toJSName(k));
     }
-    return output.toString();
+    section.sortedKeys = new ArrayList<>(section.jsKeys);
+    Collections.sort(section.sortedKeys);
+    return section;
   }
 
   /** Return true if there was any syntax error. */
@@ -377,41 +715,270 @@ public class Section {
   /** Dump JavaScript code, with an object value for this section's key-value. */
   public String dumpJSCode(boolean needObjValue) {
     StringBuilder code = new StringBuilder();
-    code.append("var ").append(jsName).append(" = function() {\n");
+    try {
+      dumpJSCode(code, needObjValue);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // not thrown by StringBuilder
+    }
+    return code.toString();
+  }
+
+  /** Append JavaScript code, with an object value for this section's key-value, to out. */
+  public void dumpJSCode(Appendable out, boolean needObjValue) throws IOException {
+    out.append("var ").append(jsName).append(" = function() {\n");
     for (String key : jsKeyList) {
-      code.append("  const ").append(key).append(" = ").append(parsedValues.get(key)).append(";\n");
+      out.append("  const ").append(key).append(" = ").append(parsedValues.get(key)).append(";\n");
     }
     for (String e : errors) {
-      code.append(e);
+      out.append(e);
     }
     // Wrap "return {...};" statement to under 80 character lines.
     String line = "  return {";
     String space = "          ";
+    out.append(line);
+    int lineLength = line.length();
     for (String k : sortedKeys) {
-      String tmp = k + ":" + k + ",";
-      if (line.length() + tmp.length() >= 80) {
-        code.append(line).append("\n");
-        line = space + tmp;
-      } else {
-        line += tmp;
+      int length = 2 * k.length() + 2; // length of k + ":" + k + ","
+      if (lineLength + length >= 80) {
+        out.append("\n").append(space);
+        lineLength = space.length();
       }
+      out.append(k).append(":").append(k).append(",");
+      lineLength += length;
     }
-    code.append(line).append("};\n");
+    out.append("};\n");
     if (cycles != null) {
-      code.append(dumpCycles());
+      dumpCycles(out);
     }
-    code.append("}();\n");
+    out.append("}();\n");
     if (needObjValue) {
-      code.append(jsName).append(";\n");
+      out.append(jsName).append(";\n");
     }
-    return code.toString();
+  }
+
+  /**
+   * Evaluate this compiled section once for every binding in the JS environment js, and return the
+   * values of all keys in columns, one row per binding. A binding maps names, like CL, to values
+   * converted by {@link JS#toJS}. Bound names are seen only by the code of this section, where they
+   * hide the same names of js while its row is evaluated. Functions of the JS code or of other
+   * sections resolve names in the scope of js, so a function of js using CL sees the CL of js, not
+   * the bound CL; pass bound values to such functions as arguments.
+   *
+   * <p>The section code is compiled once into a function. All rows are evaluated in the context of
+   * js, in one scope of the bound names over the scope of js, and store their key values into one
+   * reused JS array, so no context, scope, or section object is created per binding. Other names
+   * of js, like other sections, are not evaluated again for each binding.
+   */
+  public BatchResult evaluateBatch(JS js, List<? extends Map<String, ?>> bindings) {
+    return evaluateBatch(js, bindings, null);
+  }
+
+  /**
+   * Like {@link #evaluateBatch(JS, List)}, but take key values from the cache if it is not null,
+   * and save evaluated key values into it. A binding is not evaluated if the values of all keys
+   * are cached; see {@link EvaluationCache}. Cached JS objects are shared by all their rows.
+   */
+  public BatchResult evaluateBatch(
+      JS js, List<? extends Map<String, ?>> bindings, EvaluationCache cache) {
+    return evaluateBatch(js, bindings, cache, jsName);
+  }
+
+  // Evaluate a batch like evaluateBatch(js, bindings, cache), with cached values of this section
+  // named by cacheName.
+  BatchResult evaluateBatch(
+      JS js, List<? extends Map<String, ?>> bindings, EvaluationCache cache, String cacheName) {
+    int columns = sortedKeys.size();
+    BatchResult result = new BatchResult(new ArrayList<>(sortedKeys), bindings.size());
+    Set<String> callingKeys = new HashSet<>();
+    Map<String, Set<String>> usedFreeNames =
+        (cache == null) ? null : freeNamesOfKeys(callingKeys);
+    Context cx = js.getContext();
+    Scriptable scope = cx.newObject(js.getScope());
+    scope.setPrototype(js.getScope());
+    scope.setParentScope(null);
+    Function function;
+    try {
+      function = cx.compileFunction(scope, batchFunctionCode(), jsName, 1, null);
+    } catch (RuntimeException e) {
+      // The section code does not compile, so every row has the same error.
+      for (int row = 0; row < bindings.size(); row++) {
+        result.setError(row, e.toString());
+      }
+      return result;
+    }
+    NativeArray out = js.newArray(columns);
+    Object[] args = {out};
+    Set<String> bound = new HashSet<>(); // names bound in scope
+    String[] cacheKeys = new String[columns];
+    for (int row = 0; row < bindings.size(); row++) {
+      Map<String, ?> binding = bindings.get(row);
+      boolean cacheable =
+          cache != null
+              && cacheKeys(cache, cacheName, usedFreeNames, callingKeys, binding, cacheKeys);
+      Object[] cached = cacheable ? cache.getAll(cacheKeys) : null;
+      if (cached != null) {
+        for (int column = 0; column < columns; column++) {
+          result.set(row, column, cached[column]);
+        }
+        continue;
+      }
+      for (String name : bound) {
+        if (!binding.containsKey(name)) {
+          scope.delete(name); // a name bound only by previous rows
+        }
+      }
+      bound.retainAll(binding.keySet());
+      for (Map.Entry<String, ?> e : binding.entrySet()) {
+        scope.put(e.getKey(), scope, js.toJS(e.getValue()));
+        bound.add(e.getKey());
+      }
+      try {
+        function.call(cx, scope, scope, args);
+        Object[] values = new Object[columns];
+        for (int column = 0; column < columns; column++) {
+          values[column] = out.get(column, out);
+          result.set(row, column, values[column]);
+        }
+        if (cacheable) {
+          cache.putAll(cacheKeys, values);
+        }
+      } catch (RuntimeException e) {
+        result.setError(row, e.toString()); // like the error objects returned by JS.eval
+      }
+    }
+    return result;
+  }
+
+  // Set the cache keys of all keys for a binding; return false if a key cannot be cached.
+  private boolean cacheKeys(
+      EvaluationCache cache,
+      String cacheName,
+      Map<String, Set<String>> usedFreeNames,
+      Set<String> callingKeys,
+      Map<String, ?> binding,
+      String[] cacheKeys) {
+    Map<String, String> fingerprints = new HashMap<>();
+    for (int column = 0; column < cacheKeys.length; column++) {
+      String key = sortedKeys.get(column);
+      Set<String> names = usedFreeNames.get(key);
+      if (names == null) {
+        cache.bypass(); // an impure key
+        return false;
+      }
+      cacheKeys[column] =
+          cache.cacheKey(cacheName, key, names, callingKeys.contains(key), binding, fingerprints);
+      if (cacheKeys[column] == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Return the names that are not keys used by each key, directly or through other keys, and add
+  // the keys that call functions, directly or through other keys, to callingKeys. Keys using the
+  // impure builtins Date or Math.random have no names. A frozen section does not know the used
+  // names of each key; then every key uses all free names, no key has names if one key is impure,
+  // and all keys call functions if one key does.
+  Map<String, Set<String>> freeNamesOfKeys(Set<String> callingKeys) {
+    Map<String, Set<String>> result = new HashMap<>();
+    if (keyUsedNames == null) {
+      boolean calls = false;
+      for (String key : sortedKeys) {
+        if (isImpure(key)) {
+          return result;
+        }
+        calls = calls || callsFunction(key);
+      }
+      Set<String> names = new TreeSet<>(freeNames);
+      for (String key : sortedKeys) {
+        result.put(key, names);
+        if (calls) {
+          callingKeys.add(key);
+        }
+      }
+      return result;
+    }
+    for (String key : sortedKeys) {
+      Set<String> names = new TreeSet<>();
+      Set<String> visited = new HashSet<>();
+      Deque<String> todo = new ArrayDeque<>();
+      visited.add(key);
+      todo.add(key);
+      boolean pure = true;
+      boolean calls = false;
+      while (pure && !todo.isEmpty()) {
+        String k = todo.remove();
+        pure = !isImpure(k);
+        calls = calls || callsFunction(k);
+        for (String name : keyUsedNames.getOrDefault(k, Collections.emptySet())) {
+          if (!jsKeys.contains(name)) {
+            names.add(name);
+          } else if (visited.add(name)) {
+            todo.add(name);
+          }
+        }
+      }
+      if (pure) {
+        result.put(key, names);
+        if (calls) {
+          callingKeys.add(key);
+        }
+      }
+    }
+    return result;
+  }
+
+  // Return true if the parsed value of key uses Date or Math.random.
+  private boolean isImpure(String key) {
+    String value = parsedValues.get(key);
+    return value != null && IMPURE_PAT.matcher(value).find();
+  }
+
+  // Return true if the parsed value of key could call a function.
+  private boolean callsFunction(String key) {
+    String value = parsedValues.get(key);
+    if (value == null) {
+      return false;
+    }
+    Matcher m = CALL_PAT.matcher(value);
+    while (m.find()) {
+      if (!NOT_CALLS.contains(m.group(1))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Return a function of the compiled section code that stores key values into its array
+  // parameter, in sortedKeys order, instead of returning a new section object.
+  private String batchFunctionCode() {
+    StringBuilder code = new StringBuilder("function ").append(jsName).append("Batch(out) {\n");
+    for (String key : jsKeyList) {
+      code.append("  const ").append(key).append(" = ").append(parsedValues.get(key)).append(";\n");
+    }
+    for (int i = 0; i < sortedKeys.size(); i++) {
+      code.append("  out[").append(i).append("] = ").append(sortedKeys.get(i)).append(";\n");
+    }
+    return code.append("}\n").toString();
   }
 
   /** Dump compiled JS code and that JS code value with given initCode. */
   public String dumpJSKeyValues(String initCode) {
+    StringBuilder code = new StringBuilder();
+    try {
+      dumpJSKeyValues(initCode, code);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // not thrown by StringBuilder
+    }
+    return code.toString();
+  }
+
+  /** Append compiled JS code and that JS code value with given initCode to out. */
+  public void dumpJSKeyValues(String initCode, Appendable out) throws IOException {
     String sectionCode = dumpJSCode();
     JS js = new JS(initCode);
     js.eval(sectionCode);
-    return "/*\n" + sectionCode + "*/\n" + js.dumpSource(getJSName(), false);
+    out.append("/*\n").append(sectionCode).append("*/\n");
+    js.dumpSource(getJSName(), false, out);
   }
 }
@@ -0,0 +1,133 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe cache of compiled sections and their values, keyed by a hash of the JS init code,
+ * section name, and key values.
+ *
+ * <p>Configs with identical sections, like copied policy blocks in many project configs, share one
+ * compiled Section and one values map, which must not be changed. Only sections that do not refer
+ * to other sections of their config are cached, because their values depend only on the key values
+ * and init code. A cached section is weakly referenced, and is removed after no JSEConfig uses it.
+ *
+ * <p>Concurrent compiles of the same new section may both miss and compile it; the last one is
+ * cached. Use {@link #shared} for one process-wide cache, or a new SectionCache for a smaller
+ * scope.
+ */
+public final class SectionCache {
+  private static final SectionCache SHARED = new SectionCache();
+
+  /** A weak reference to a cached Section, with a strong reference to its values. */
+  private static final class Entry extends WeakReference<Section> {
+    final String key;
+    final Map<String, Object> values;
+
+    Entry(String key, Section section, Map<String, Object> values, ReferenceQueue<Section> queue) {
+      super(section, queue);
+      this.key = key;
+      this.values = values;
+    }
+  }
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final ReferenceQueue<Section> queue = new ReferenceQueue<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /** Return the process-wide cache. */
+  public static SectionCache shared() {
+    return SHARED;
+  }
+
+  /** Return the cache key of a section with key values but not compiled yet, and the JS code. */
+  static String key(String jsCode, Section section) {
+    List<String> parts = new ArrayList<>();
+    parts.add(jsCode);
+    parts.add(section.getName());
+    List<String> keys = new ArrayList<>(section.getKeys());
+    keys.sort(null);
+    for (String k : keys) {
+      parts.add(k);
+      parts.add(section.getKeyValue(k));
+    }
+    return Snapshot.hash(parts);
+  }
+
+  /**
+   * Return the cached Section of key and its values, or null if it is not cached or it uses any of
+   * the given section names; count a hit or miss.
+   */
+  Map.Entry<Section, Map<String, Object>> get(String key, Set<String> sectionNames) {
+    expunge();
+    Entry entry = entries.get(key);
+    Section section = (entry == null) ? null : entry.get();
+    if (section == null || !Collections.disjoint(section.getFreeNames(), sectionNames)) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return new AbstractMap.SimpleImmutableEntry<>(section, entry.values);
+  }
+
+  /** Cache a compiled section and its values by key. */
+  void put(String key, Section section, Map<String, Object> values) {
+    expunge();
+    entries.put(key, new Entry(key, section, values, queue));
+  }
+
+  // Remove entries of sections that are no longer used.
+  private void expunge() {
+    for (Reference<? extends Section> r = queue.poll(); r != null; r = queue.poll()) {
+      Entry entry = (Entry) r;
+      entries.remove(entry.key, entry);
+    }
+  }
+
+  /** Return the number of cached sections, including some that are no longer used. */
+  public int size() {
+    expunge();
+    return entries.size();
+  }
+
+  /** Return the number of lookups that found a cached section. */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /** Return the number of lookups that did not find a cached section. */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /** Remove all cached sections and reset the counters. */
+  public void clear() {
+    entries.clear();
+    hits.reset();
+    misses.reset();
+  }
+}
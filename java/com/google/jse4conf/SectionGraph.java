@@ -0,0 +1,93 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * References between analyzed sections.
+ *
+ * <p>A section refers to another section when a value uses the other section's JS name, like
+ * {@code Common.isSuperUser(CL.Author)} refers to section Common. Such names are free names of a
+ * section, found by NameVisitor and not shadowed by a key of the same section. A section is
+ * evaluated after all sections it refers to, so every section is evaluated once in a shared scope.
+ * A cyclic reference between sections cannot be ordered; it is broken at the section that is
+ * reached again, and that reference is an undefined name during evaluation.
+ */
+final class SectionGraph {
+  private final Map<String, Section> sections; // JS name -> Section, in the given order
+
+  SectionGraph(Collection<Section> sectionList) {
+    sections = new LinkedHashMap<>();
+    for (Section s : sectionList) {
+      sections.put(s.getJSName(), s);
+    }
+  }
+
+  /** Return the sections referred to by values of section s, in sorted name order. */
+  List<Section> references(Section s) {
+    List<String> names = new ArrayList<>();
+    for (String name : s.getFreeNames()) {
+      if (!name.equals(s.getJSName()) && sections.containsKey(name)) {
+        names.add(name);
+      }
+    }
+    names.sort(null);
+    List<Section> result = new ArrayList<>();
+    for (String name : names) {
+      result.add(sections.get(name));
+    }
+    return result;
+  }
+
+  /** Return all sections, each after the sections it refers to; otherwise in the given order. */
+  List<Section> evaluationOrder() {
+    List<Section> order = new ArrayList<>();
+    Set<String> visited = new HashSet<>();
+    for (Section s : sections.values()) {
+      addAfterReferences(s, visited, order);
+    }
+    return order;
+  }
+
+  /** Return sections referred to by s, directly or indirectly, in evaluation order, without s. */
+  List<Section> referencedClosure(Section s) {
+    List<Section> order = new ArrayList<>();
+    Set<String> visited = new HashSet<>();
+    visited.add(s.getJSName());
+    for (Section r : references(s)) {
+      addAfterReferences(r, visited, order);
+    }
+    return order;
+  }
+
+  // Append s to order after its referred sections, unless it is visited.
+  // Sections are few, so a recursive search is good enough.
+  private void addAfterReferences(Section s, Set<String> visited, List<Section> order) {
+    if (!visited.add(s.getJSName())) {
+      return;
+    }
+    for (Section r : references(s)) {
+      addAfterReferences(r, visited, order);
+    }
+    order.add(s);
+  }
+}
@@ -0,0 +1,377 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only store of compiled primitive and string values in a memory-mapped file, shared by all
+ * processes on a host that read the same file.
+ *
+ * <p>A JSEConfig publishes its values with {@link JSEConfig#publishValues}. Readers open the file
+ * with {@link #open} and read typed values directly from the mapped buffer, so the values take no
+ * Java heap space, and numbers and booleans are read without any copy. Values that are not
+ * booleans, numbers, or strings, like functions, arrays, and objects, are not stored.
+ *
+ * <p>A new generation of a store is written to a temporary file in the same directory and renamed
+ * atomically to the store path. A reader keeps its mapping of the old file until it calls {@link
+ * #reopenIfChanged}, so it always sees one consistent generation.
+ *
+ * <p>File layout, all numbers in big-endian order:
+ *
+ * <pre>
+ *   header:  int magic, int version, long generation, int entryCount, int poolOffset
+ *   entries: entryCount * (int nameOffset, int nameLength, int type, int unused, long value)
+ *   pool:    UTF-8 bytes of names and string values
+ * </pre>
+ *
+ * Entries are sorted by the bytes of their names, which are a combined section name, a zero byte,
+ * and a key name. The value of a string is its pool offset in the high 32 bits and its length in
+ * the low 32 bits; the value of a double is its raw long bits.
+ */
+public final class SharedValueStore {
+  static final int MAGIC = 0x4a534556; // "JSEV"
+  static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 24;
+  private static final int ENTRY_SIZE = 24;
+
+  // Entry value types.
+  private static final int BOOLEAN = 1;
+  private static final int INT = 2;
+  private static final int LONG = 3;
+  private static final int DOUBLE = 4;
+  private static final int STRING = 5;
+
+  private final Path path;
+  private final Object fileKey; // file identity of the mapped generation
+  private final ByteBuffer buffer; // read-only mapped file
+  private final long generation;
+  private final int entryCount;
+
+  private SharedValueStore(Path path, Object fileKey, ByteBuffer buffer) throws IOException {
+    this.path = path;
+    this.fileKey = fileKey;
+    this.buffer = buffer;
+    if (buffer.capacity() < HEADER_SIZE
+        || buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != VERSION) {
+      throw new IOException("Not a jse4conf value store: " + path);
+    }
+    generation = buffer.getLong(8);
+    entryCount = buffer.getInt(16);
+    if (HEADER_SIZE + (long) entryCount * ENTRY_SIZE > buffer.getInt(20)
+        || buffer.getInt(20) > buffer.capacity()) {
+      throw new IOException("Corrupted jse4conf value store: " + path);
+    }
+  }
+
+  /** Map the value store file read-only. */
+  public static SharedValueStore open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      Object fileKey = fileKey(path);
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new SharedValueStore(path, fileKey, buffer.order(ByteOrder.BIG_ENDIAN));
+    }
+  }
+
+  // Return an identity of the file at path, which changes when a new file is renamed to path.
+  private static Object fileKey(Path path) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    Object key = attributes.fileKey();
+    return (key != null) ? key : Arrays.asList(attributes.lastModifiedTime(), attributes.size());
+  }
+
+  /** Return this store if its file was not replaced, or else a store of the new file. */
+  public SharedValueStore reopenIfChanged() throws IOException {
+    return fileKey.equals(fileKey(path)) ? this : open(path);
+  }
+
+  /** Return the generation number, incremented by every publish to the same path. */
+  public long getGeneration() {
+    return generation;
+  }
+
+  /** Return the number of stored values. */
+  public int size() {
+    return entryCount;
+  }
+
+  /**
+   * Write all boolean, number, and string values to a new generation of the store at path. The
+   * values map is from a combined section name to a map of key to JS values.
+   */
+  static void publish(Path path, Map<String, Map<String, Object>> values) throws IOException {
+    long generation = 1;
+    if (Files.exists(path)) {
+      try {
+        generation = open(path).getGeneration() + 1;
+      } catch (IOException e) {
+        // Replace a corrupted or unknown file with generation 1.
+      }
+    }
+    List<byte[]> names = new ArrayList<>();
+    List<Object> typedValues = new ArrayList<>();
+    for (Map.Entry<String, Map<String, Object>> section : values.entrySet()) {
+      for (Map.Entry<String, Object> e : section.getValue().entrySet()) {
+        Object value = e.getValue();
+        if (value instanceof CharSequence) {
+          value = value.toString();
+        }
+        if (typeOf(value) != 0) {
+          names.add(entryName(section.getKey(), e.getKey()));
+          typedValues.add(value);
+        }
+      }
+    }
+    Integer[] order = new Integer[names.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> compare(names.get(a), names.get(b)));
+
+    int poolOffset = HEADER_SIZE + order.length * ENTRY_SIZE;
+    ByteBuffer entries = ByteBuffer.allocate(poolOffset);
+    ByteBuffer pool = ByteBuffer.allocate(1024);
+    entries.putInt(MAGIC).putInt(VERSION).putLong(generation).putInt(order.length);
+    entries.putInt(poolOffset);
+    for (int i : order) {
+      byte[] name = names.get(i);
+      pool = ensureCapacity(pool, name.length);
+      int nameOffset = poolOffset + pool.position();
+      pool.put(name);
+      Object value = typedValues.get(i);
+      int type = typeOf(value);
+      long bits;
+      if (type == STRING) {
+        byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+        pool = ensureCapacity(pool, bytes.length);
+        bits = ((long) (poolOffset + pool.position()) << 32) | bytes.length;
+        pool.put(bytes);
+      } else if (type == DOUBLE) {
+        bits = Double.doubleToRawLongBits((Double) value);
+      } else if (type == BOOLEAN) {
+        bits = ((Boolean) value) ? 1 : 0;
+      } else {
+        bits = ((Number) value).longValue();
+      }
+      entries.putInt(nameOffset).putInt(name.length).putInt(type).putInt(0).putLong(bits);
+    }
+    if ((long) poolOffset + pool.position() > Integer.MAX_VALUE) {
+      throw new IOException("Too many values for a jse4conf value store");
+    }
+    // Cast to Buffer, so class files built by JDK 9+ still run on Java 8.
+    ((Buffer) entries).flip();
+    ((Buffer) pool).flip();
+
+    Path dir = path.toAbsolutePath().getParent();
+    Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+        while (entries.hasRemaining()) {
+          channel.write(entries);
+        }
+        while (pool.hasRemaining()) {
+          channel.write(pool);
+        }
+        channel.force(true);
+      }
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static ByteBuffer ensureCapacity(ByteBuffer buffer, int more) {
+    if (buffer.remaining() >= more) {
+      return buffer;
+    }
+    int capacity = Math.max(2 * buffer.capacity(), buffer.position() + more);
+    ByteBuffer larger = ByteBuffer.allocate(capacity);
+    ((Buffer) buffer).flip();
+    return larger.put(buffer);
+  }
+
+  private static int typeOf(Object value) {
+    if (value instanceof Boolean) {
+      return BOOLEAN;
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return INT;
+    } else if (value instanceof Long) {
+      return LONG;
+    } else if (value instanceof Double || value instanceof Float) {
+      return DOUBLE;
+    } else if (value instanceof String) {
+      return STRING;
+    }
+    return 0; // not stored
+  }
+
+  private static byte[] entryName(String section, String key) {
+    return (section + '\0' + key).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int compare(byte[] a, byte[] b) {
+    int n = Math.min(a.length, b.length);
+    for (int i = 0; i < n; i++) {
+      int d = (a[i] & 0xff) - (b[i] & 0xff);
+      if (d != 0) {
+        return d;
+      }
+    }
+    return a.length - b.length;
+  }
+
+  // Compare the name of entry i with the given name bytes.
+  private int compareEntry(int i, byte[] name) {
+    int entry = HEADER_SIZE + i * ENTRY_SIZE;
+    int offset = buffer.getInt(entry);
+    int length = buffer.getInt(entry + 4);
+    int n = Math.min(length, name.length);
+    for (int j = 0; j < n; j++) {
+      int d = (buffer.get(offset + j) & 0xff) - (name[j] & 0xff);
+      if (d != 0) {
+        return d;
+      }
+    }
+    return length - name.length;
+  }
+
+  // Return the byte offset of the entry of section.name, or -1.
+  private int find(String section, String subsection, String name) {
+    byte[] key = entryName(Section.nameOf(section, subsection), name);
+    int low = 0;
+    int high = entryCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int c = compareEntry(mid, key);
+      if (c < 0) {
+        low = mid + 1;
+      } else if (c > 0) {
+        high = mid - 1;
+      } else {
+        return HEADER_SIZE + mid * ENTRY_SIZE;
+      }
+    }
+    return -1;
+  }
+
+  /** Return true if the store has a value of section.subsection.name; subsection could be null. */
+  public boolean contains(String section, String subsection, String name) {
+    return find(section, subsection, name) >= 0;
+  }
+
+  /** Return a number value as int, or the default value. */
+  public int getInt(String section, String subsection, String name, int defaultValue) {
+    int entry = find(section, subsection, name);
+    if (!isNumber(entry)) {
+      return defaultValue;
+    }
+    long bits = buffer.getLong(entry + 16);
+    return (buffer.getInt(entry + 8) == DOUBLE) ? (int) Double.longBitsToDouble(bits) : (int) bits;
+  }
+
+  /** Return a number value as long, or the default value. */
+  public long getLong(String section, String subsection, String name, long defaultValue) {
+    int entry = find(section, subsection, name);
+    if (!isNumber(entry)) {
+      return defaultValue;
+    }
+    long bits = buffer.getLong(entry + 16);
+    return (buffer.getInt(entry + 8) == DOUBLE) ? (long) Double.longBitsToDouble(bits) : bits;
+  }
+
+  /** Return a number value as double, or the default value. */
+  public double getDouble(String section, String subsection, String name, double defaultValue) {
+    int entry = find(section, subsection, name);
+    if (!isNumber(entry)) {
+      return defaultValue;
+    }
+    long bits = buffer.getLong(entry + 16);
+    return (buffer.getInt(entry + 8) == DOUBLE) ? Double.longBitsToDouble(bits) : bits;
+  }
+
+  /** Return a boolean value, or the default value. */
+  public boolean getBoolean(
+      String section, String subsection, String name, boolean defaultValue) {
+    int entry = find(section, subsection, name);
+    return (entry >= 0 && buffer.getInt(entry + 8) == BOOLEAN)
+        ? buffer.getLong(entry + 16) != 0
+        : defaultValue;
+  }
+
+  /**
+   * Return a value as String like JSEConfig.getJSString, or null. Numbers and booleans are
+   * converted like their Java toString.
+   */
+  public String getString(String section, String subsection, String name) {
+    int entry = find(section, subsection, name);
+    if (entry < 0) {
+      return null;
+    }
+    long bits = buffer.getLong(entry + 16);
+    switch (buffer.getInt(entry + 8)) {
+      case BOOLEAN:
+        return Boolean.toString(bits != 0);
+      case INT:
+        return Integer.toString((int) bits);
+      case LONG:
+        return Long.toString(bits);
+      case DOUBLE:
+        return Double.toString(Double.longBitsToDouble(bits));
+      default:
+        ByteBuffer bytes = stringBytes(bits);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+  }
+
+  /** Return the UTF-8 bytes of a string value in the mapped file without a copy, or null. */
+  public ByteBuffer getStringBytes(String section, String subsection, String name) {
+    int entry = find(section, subsection, name);
+    return (entry >= 0 && buffer.getInt(entry + 8) == STRING)
+        ? stringBytes(buffer.getLong(entry + 16))
+        : null;
+  }
+
+  private ByteBuffer stringBytes(long bits) {
+    ByteBuffer bytes = buffer.duplicate();
+    int offset = (int) (bits >>> 32);
+    ((Buffer) bytes).position(offset).limit(offset + (int) bits);
+    return bytes.slice().asReadOnlyBuffer();
+  }
+
+  private boolean isNumber(int entry) {
+    if (entry < 0) {
+      return false;
+    }
+    int type = buffer.getInt(entry + 8);
+    return type == INT || type == LONG || type == DOUBLE;
+  }
+}
@@ -0,0 +1,298 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.Undefined;
+
+/**
+ * Binary encoding of compiled config state, used by JSEConfig.exportSnapshot and importSnapshot.
+ *
+ * <p>A snapshot starts with a magic number, a format version, and a hash of the config source and
+ * JS code. Then every compiled (sub)section has its names, and either its compiled Section state
+ * and evaluated values, or only a flag to compile it again when it is first used. Values are
+ * written only if they are JSON-like: null, undefined, booleans, numbers, strings, and arrays and
+ * objects of such values. A section with any other value, like a function, is compiled again.
+ *
+ * <p>Strings are written as a length and UTF-8 bytes, so huge literals are not limited to the 64KB
+ * of DataOutput.writeUTF. Restored arrays and objects are plain NativeArray and NativeObject
+ * values, without a prototype or parent scope, because no JS environment is created on import.
+ */
+final class Snapshot {
+  static final int MAGIC = 0x4a534543; // "JSEC"
+  static final int VERSION = 1;
+  private static final int MAX_DEPTH = 100; // deeper values are not written
+
+  // Value type tags.
+  private static final byte NULL = 0;
+  private static final byte UNDEFINED = 1;
+  private static final byte FALSE = 2;
+  private static final byte TRUE = 3;
+  private static final byte INTEGER = 4;
+  private static final byte LONG = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte STRING = 7;
+  private static final byte ARRAY = 8;
+  private static final byte OBJECT = 9;
+
+  private Snapshot() {}
+
+  /** Return a hex SHA-256 hash of the parts, each part prefixed by its length. */
+  static String hash(List<String> parts) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e); // every Java platform has SHA-256
+    }
+    for (String part : parts) {
+      byte[] bytes = (part == null ? "" : part).getBytes(StandardCharsets.UTF_8);
+      int n = (part == null) ? -1 : bytes.length;
+      digest.update(new byte[] {(byte) (n >>> 24), (byte) (n >>> 16), (byte) (n >>> 8), (byte) n});
+      digest.update(bytes);
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /** Write a string that could be null. */
+  static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  /** Read a string written by writeString. */
+  static String readString(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    if (n < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[n];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static void writeStrings(DataOutputStream out, List<String> list) throws IOException {
+    out.writeInt(list.size());
+    for (String s : list) {
+      writeString(out, s);
+    }
+  }
+
+  static List<String> readStrings(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    List<String> list = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      list.add(readString(in));
+    }
+    return list;
+  }
+
+  static void writeStringMap(DataOutputStream out, Map<String, String> map) throws IOException {
+    out.writeInt(map.size());
+    for (Map.Entry<String, String> e : map.entrySet()) {
+      writeString(out, e.getKey());
+      writeString(out, e.getValue());
+    }
+  }
+
+  static Map<String, String> readStringMap(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    Map<String, String> map = new HashMap<>();
+    for (int i = 0; i < n; i++) {
+      String key = readString(in);
+      map.put(key, readString(in));
+    }
+    return map;
+  }
+
+  /**
+   * Return true if all values can be written by writeValues. Values nested deeper than MAX_DEPTH,
+   * and arrays or objects reached twice, like cyclic values, are not written, since a read would
+   * not restore them.
+   */
+  static boolean canWrite(Map<String, Object> values) {
+    Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Object value : values.values()) {
+      if (!canWrite(value, visited, 0)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean canWrite(Object value, Set<Object> visited, int depth) {
+    if (value == null
+        || value == Undefined.instance
+        || value instanceof Boolean
+        || value instanceof Integer
+        || value instanceof Long
+        || value instanceof Double
+        || value instanceof CharSequence) {
+      return true;
+    }
+    if (depth >= MAX_DEPTH || !visited.add(value)) {
+      return false; // too deep, or shared or cyclic
+    }
+    if (value.getClass() == NativeArray.class) {
+      NativeArray array = (NativeArray) value;
+      long length = array.getLength();
+      if (length > Integer.MAX_VALUE) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        Object element = array.get(i, array);
+        if (element == Scriptable.NOT_FOUND || !canWrite(element, visited, depth + 1)) {
+          return false; // a hole or a non-JSON element
+        }
+      }
+      return true;
+    }
+    if (value.getClass() == NativeObject.class) {
+      NativeObject object = (NativeObject) value;
+      for (Object id : object.getIds()) {
+        if (!(id instanceof String)
+            || !canWrite(object.get((String) id, object), visited, depth + 1)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false; // functions, dates, regular expressions, and other objects
+  }
+
+  /** Write values accepted by canWrite. */
+  static void writeValues(DataOutputStream out, Map<String, Object> values) throws IOException {
+    out.writeInt(values.size());
+    for (Map.Entry<String, Object> e : values.entrySet()) {
+      writeString(out, e.getKey());
+      writeValue(out, e.getValue());
+    }
+  }
+
+  static Map<String, Object> readValues(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    Map<String, Object> values = new HashMap<>();
+    for (int i = 0; i < n; i++) {
+      String key = readString(in);
+      values.put(key, readValue(in));
+    }
+    return values;
+  }
+
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(NULL);
+    } else if (value == Undefined.instance) {
+      out.writeByte(UNDEFINED);
+    } else if (value instanceof Boolean) {
+      out.writeByte((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Integer) {
+      out.writeByte(INTEGER);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (value instanceof CharSequence) {
+      out.writeByte(STRING);
+      writeString(out, value.toString());
+    } else if (value instanceof NativeArray) {
+      NativeArray array = (NativeArray) value;
+      int length = (int) array.getLength();
+      out.writeByte(ARRAY);
+      out.writeInt(length);
+      for (int i = 0; i < length; i++) {
+        writeValue(out, array.get(i, array));
+      }
+    } else {
+      NativeObject object = (NativeObject) value;
+      Object[] ids = object.getIds();
+      out.writeByte(OBJECT);
+      out.writeInt(ids.length);
+      for (Object id : ids) {
+        writeString(out, (String) id);
+        writeValue(out, object.get((String) id, object));
+      }
+    }
+  }
+
+  private static Object readValue(DataInputStream in) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case UNDEFINED:
+        return Undefined.instance;
+      case FALSE:
+        return Boolean.FALSE;
+      case TRUE:
+        return Boolean.TRUE;
+      case INTEGER:
+        return in.readInt();
+      case LONG:
+        return in.readLong();
+      case DOUBLE:
+        return in.readDouble();
+      case STRING:
+        return readString(in);
+      case ARRAY:
+        {
+          Object[] elements = new Object[in.readInt()];
+          for (int i = 0; i < elements.length; i++) {
+            elements[i] = readValue(in);
+          }
+          return new NativeArray(elements);
+        }
+      case OBJECT:
+        {
+          int n = in.readInt();
+          NativeObject object = new NativeObject();
+          for (int i = 0; i < n; i++) {
+            String id = readString(in);
+            object.put(id, object, readValue(in));
+          }
+          return object;
+        }
+      default:
+        throw new IOException("Unknown snapshot value tag: " + tag);
+    }
+  }
+}
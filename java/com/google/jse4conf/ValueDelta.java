@@ -0,0 +1,220 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Undefined;
+
+/**
+ * Changed keys between two compiled states of sections.
+ *
+ * <p>JSON-like values, i.e. undefined, null, booleans, numbers, strings, arrays and objects of
+ * them, are compared by deep equality. Functions and other objects are new JS objects after every
+ * evaluation and cannot be compared, so such a value is changed only if its parsed source changed,
+ * or if it uses a changed key of its section or a section with changed keys. When a section was
+ * frozen and its used names are unknown, such a value is changed with any other change of its
+ * section or the sections it refers to.
+ */
+final class ValueDelta {
+  private static final int MAX_DEPTH = 100; // deeper values are compared like functions
+
+  private ValueDelta() {}
+
+  /**
+   * Return the changed keys, by combined section name, from the old sections and values to the new
+   * ones. Keys of added and removed sections, and of sections without old values, are all changed.
+   */
+  static Map<String, Set<String>> changes(
+      Map<String, Section> oldSections,
+      Map<String, Map<String, Object>> oldValues,
+      Map<String, Section> newSections,
+      Map<String, Map<String, Object>> newValues) {
+    Map<String, Set<String>> changed = new HashMap<>();
+    Map<String, Set<String>> opaque = new HashMap<>(); // keys that depend on used names
+    Set<String> names = new HashSet<>(oldValues.keySet());
+    names.addAll(newValues.keySet());
+    names.addAll(oldSections.keySet());
+    names.addAll(newSections.keySet());
+    for (String name : names) {
+      Map<String, Object> before = oldValues.get(name);
+      Map<String, Object> after = newValues.get(name);
+      if (before == after) {
+        continue; // the same shared values, or no values at all
+      }
+      Set<String> keys = new TreeSet<>();
+      Set<String> unknown = new HashSet<>();
+      if (before == null || after == null) {
+        keys.addAll((before == null) ? after.keySet() : before.keySet());
+      } else {
+        Set<String> all = new HashSet<>(before.keySet());
+        all.addAll(after.keySet());
+        Section oldSection = oldSections.get(name);
+        Section newSection = newSections.get(name);
+        for (String key : all) {
+          if (!before.containsKey(key) || !after.containsKey(key)) {
+            keys.add(key);
+            continue;
+          }
+          Boolean equal = jsEquals(before.get(key), after.get(key), 0);
+          if (equal == null) {
+            if (oldSection == null
+                || newSection == null
+                || !equalSources(oldSection.getParsedValue(key), newSection.getParsedValue(key))) {
+              keys.add(key);
+            } else {
+              unknown.add(key);
+            }
+          } else if (!equal) {
+            keys.add(key);
+          }
+        }
+      }
+      if (!keys.isEmpty()) {
+        changed.put(name, keys);
+      }
+      if (!unknown.isEmpty()) {
+        opaque.put(name, unknown);
+      }
+    }
+    // Follow used names until no more opaque values are changed.
+    Map<String, String> sectionOfJSName = new HashMap<>();
+    for (String name : newSections.keySet()) {
+      sectionOfJSName.put(JS.toJSName(name), name);
+    }
+    boolean more = true;
+    while (more) {
+      more = false;
+      for (Map.Entry<String, Set<String>> e : opaque.entrySet()) {
+        String name = e.getKey();
+        Section section = newSections.get(name);
+        for (String key : new HashSet<>(e.getValue())) {
+          if (usesChanged(section, key, name, changed, sectionOfJSName)) {
+            e.getValue().remove(key);
+            changed.computeIfAbsent(name, n -> new TreeSet<>()).add(key);
+            more = true;
+          }
+        }
+      }
+    }
+    return changed;
+  }
+
+  // Return true if the value of key in section uses a changed key of section or a section with
+  // changed keys.
+  private static boolean usesChanged(
+      Section section,
+      String key,
+      String name,
+      Map<String, Set<String>> changed,
+      Map<String, String> sectionOfJSName) {
+    Set<String> used = section.getUsedNames(key);
+    Set<String> changedKeys = changed.get(name);
+    if (used == null) {
+      // Frozen section; any change of the section or the sections it refers to.
+      if (changedKeys != null) {
+        return true;
+      }
+      used = section.getFreeNames();
+    }
+    for (String usedName : used) {
+      if (changedKeys != null && changedKeys.contains(usedName)) {
+        return true;
+      }
+      String other = sectionOfJSName.get(usedName);
+      if (other != null && !other.equals(name) && changed.containsKey(other)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean equalSources(String a, String b) {
+    return a != null && a.equals(b);
+  }
+
+  private static boolean isJSONLeaf(Object value) {
+    return value == null
+        || value == Undefined.instance
+        || value instanceof Boolean
+        || value instanceof Number
+        || value instanceof CharSequence;
+  }
+
+  /**
+   * Return true or false if JS values a and b are deep-equal or not, or null if that is not known
+   * because they are functions or other objects that are not JSON-like.
+   */
+  static Boolean jsEquals(Object a, Object b, int depth) {
+    if (a == b) {
+      return true;
+    }
+    if (depth > MAX_DEPTH) {
+      return null;
+    }
+    if (isJSONLeaf(a) || isJSONLeaf(b)) {
+      if (a instanceof Number && b instanceof Number) {
+        return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue()) == 0;
+      }
+      if (a instanceof CharSequence && b instanceof CharSequence) {
+        return a.toString().equals(b.toString());
+      }
+      return a != null && a.equals(b);
+    }
+    if (a.getClass() == NativeArray.class && b.getClass() == NativeArray.class) {
+      NativeArray x = (NativeArray) a;
+      NativeArray y = (NativeArray) b;
+      long length = x.getLength();
+      if (length != y.getLength()) {
+        return false;
+      }
+      Boolean result = true;
+      for (int i = 0; i < length; i++) {
+        Boolean equal = jsEquals(x.get(i, x), y.get(i, y), depth + 1);
+        if (equal == null) {
+          result = null; // unknown, unless a later element is different
+        } else if (!equal) {
+          return false;
+        }
+      }
+      return result;
+    }
+    if (a.getClass() == NativeObject.class && b.getClass() == NativeObject.class) {
+      Map<?, ?> x = (Map<?, ?>) a;
+      Map<?, ?> y = (Map<?, ?>) b;
+      if (!x.keySet().equals(y.keySet())) {
+        return false;
+      }
+      Boolean result = true;
+      for (Object id : x.keySet()) {
+        Boolean equal = jsEquals(x.get(id), y.get(id), depth + 1);
+        if (equal == null) {
+          result = null;
+        } else if (!equal) {
+          return false;
+        }
+      }
+      return result;
+    }
+    boolean aIsData = a.getClass() == NativeArray.class || a.getClass() == NativeObject.class;
+    boolean bIsData = b.getClass() == NativeArray.class || b.getClass() == NativeObject.class;
+    return (aIsData || bIsData) ? (Boolean) false : null;
+  }
+}
@@ -0,0 +1,156 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Node;
+import org.mozilla.javascript.Parser;
+import org.mozilla.javascript.Token;
+import org.mozilla.javascript.ast.AstNode;
+import org.mozilla.javascript.ast.AstRoot;
+import org.mozilla.javascript.ast.IdeErrorReporter;
+import org.mozilla.javascript.ast.LabeledStatement;
+
+/**
+ * Parse key values with a reusable Rhino parser setup.
+ *
+ * <p>A Rhino Parser can parse only once, but its CompilerEnvirons can be reused. Every thread keeps
+ * one CompilerEnvirons, set up like {@code CompilerEnvirons.ideEnvirons()} but with an error
+ * reporter that only counts errors, instead of collecting all error messages.
+ *
+ * <p>All values of a section can also be parsed in one combined parse. Each value is wrapped as a
+ * labeled block like {@code key: {\nvalue\n}}, and the statements of each block are split back
+ * out per key. A key is taken from the combined parse only if its block starts and ends exactly
+ * where its value was placed. The whole combined parse is dropped, if there is any syntax error,
+ * comment, or top-level declaration, because those could make a value's AST different from a
+ * separate parse of that value.
+ */
+final class ValueParser {
+  // Count errors and ignore warnings; parse errors are found later by evaluating parsed values.
+  private static class ErrorCounter implements IdeErrorReporter {
+    int errors;
+
+    @Override
+    public void warning(String message, String sourceName, int offset, int length) {}
+
+    @Override
+    public void error(String message, String sourceName, int offset, int length) {
+      errors++;
+    }
+
+    @Override
+    public void warning(
+        String message, String sourceName, int line, String lineSource, int lineOffset) {}
+
+    @Override
+    public void error(
+        String message, String sourceName, int line, String lineSource, int lineOffset) {
+      errors++;
+    }
+
+    @Override
+    public EvaluatorException runtimeError(
+        String message, String sourceName, int line, String lineSource, int lineOffset) {
+      return new EvaluatorException(message, sourceName, line, lineSource, lineOffset);
+    }
+  }
+
+  private static final ThreadLocal<CompilerEnvirons> ENVIRONS =
+      ThreadLocal.withInitial(
+          () -> {
+            CompilerEnvirons env = CompilerEnvirons.ideEnvirons();
+            env.setErrorReporter(new ErrorCounter());
+            return env;
+          });
+
+  private ValueParser() {}
+
+  // Return a new Parser with this thread's CompilerEnvirons and a reset error count.
+  private static Parser newParser() {
+    CompilerEnvirons env = ENVIRONS.get();
+    ((ErrorCounter) env.getErrorReporter()).errors = 0;
+    return new Parser(env);
+  }
+
+  private static int errorCount() {
+    return ((ErrorCounter) ENVIRONS.get().getErrorReporter()).errors;
+  }
+
+  /** Parse one key value like a script; return null if the parser failed. */
+  static AstRoot parse(String value, String sourceName) {
+    return newParser().parse(value, sourceName, 1);
+  }
+
+  /** Return the source of all statements in a parsed value, like AstRoot.toSource(). */
+  static String toSource(AstNode value) {
+    StringBuilder source = new StringBuilder();
+    for (Node node : value) {
+      source.append(((AstNode) node).toSource(0));
+      if (node.getType() == Token.COMMENT) {
+        source.append("\n");
+      }
+    }
+    return source.toString();
+  }
+
+  /**
+   * Parse all values of keys in one combined parse, and return a map from key to a parsed block of
+   * the key's statements. Keys that cannot be split out of the combined parse are not in the map,
+   * and an empty map is returned when the combined parse cannot be used at all.
+   */
+  static Map<String, AstNode> parseAll(
+      String sourceName, List<String> keys, Map<String, String> values) {
+    StringBuilder text = new StringBuilder();
+    int[] starts = new int[keys.size()]; // start position of each labeled block
+    int[] ends = new int[keys.size()]; // end position of each labeled block
+    for (int i = 0; i < keys.size(); i++) {
+      starts[i] = text.length();
+      text.append(keys.get(i)).append(": {\n").append(values.get(keys.get(i))).append("\n}");
+      ends[i] = text.length();
+      text.append("\n");
+    }
+    Map<String, AstNode> parsed = new HashMap<>();
+    AstRoot root = newParser().parse(text.toString(), sourceName, 1);
+    if (root == null
+        || errorCount() > 0
+        || (root.getComments() != null && !root.getComments().isEmpty())
+        || (root.getSymbolTable() != null && !root.getSymbolTable().isEmpty())) {
+      return parsed;
+    }
+    int i = 0;
+    for (Node node : root) {
+      if (i >= keys.size() || !(node instanceof LabeledStatement)) {
+        return new HashMap<>(); // values were not split as expected
+      }
+      LabeledStatement statement = (LabeledStatement) node;
+      AstNode block = statement.getStatement();
+      int start = statement.getAbsolutePosition();
+      int end = block.getAbsolutePosition() + block.getLength();
+      if (start == starts[i]
+          && end == ends[i]
+          && statement.getLabels().size() == 1
+          && keys.get(i).equals(statement.getLabels().get(0).getName())
+          && block.getType() == Token.BLOCK) {
+        parsed.put(keys.get(i), block);
+      }
+      i++;
+    }
+    return (i == keys.size()) ? parsed : new HashMap<>();
+  }
+}
@@ -0,0 +1,188 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.List;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event types of jse4conf.
+ *
+ * <p>This class is built for JDK 11+ apart from the other sources, which are built for Java 8. It
+ * is used only through method handles of {@link FlightEvents}, which does not load it on a JVM
+ * without the jdk.jfr module. Events are created only if their type is enabled in the running
+ * recording.
+ */
+final class JfrEvents {
+  private static final String CATEGORY = "jse4conf";
+
+  private JfrEvents() {}
+
+  @Name("com.google.jse4conf.SectionCompiled")
+  @Label("Section Compiled")
+  @Description("A config (sub)section was compiled to JavaScript")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static class SectionCompiled extends Event {
+    @Label("Section")
+    String section;
+
+    @Label("Keys")
+    int keyCount;
+
+    @Label("Errors")
+    int errorCount;
+
+    @Label("Cycles")
+    int cycleCount;
+
+    @Label("Compile Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long compileTime;
+
+    @Label("Outcome")
+    String outcome;
+  }
+
+  @Name("com.google.jse4conf.KeyEvaluated")
+  @Label("Key Evaluated")
+  @Description("A key value was test evaluated while compiling a section")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static class KeyEvaluated extends Event {
+    @Label("Section")
+    String section;
+
+    @Label("Key")
+    String key;
+
+    @Label("Evaluation Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long evaluationTime;
+
+    @Label("Outcome")
+    String outcome;
+  }
+
+  @Name("com.google.jse4conf.CycleDetected")
+  @Label("Cycle Detected")
+  @Description("Keys of a section use each other in a cycle")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static class CycleDetected extends Event {
+    @Label("Section")
+    String section;
+
+    @Label("Keys")
+    int keyCount;
+
+    @Label("Cycle")
+    String cycle;
+  }
+
+  @Name("com.google.jse4conf.CompileError")
+  @Label("Compile Error")
+  @Description("A config file or key value could not be compiled")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static class CompileError extends Event {
+    @Label("Section")
+    String section;
+
+    @Label("Message")
+    String message;
+  }
+
+  @Name("com.google.jse4conf.PreludeInitialized")
+  @Label("Prelude Initialized")
+  @Description("A JS environment evaluated its init code")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static class PreludeInitialized extends Event {
+    @Label("Code Length")
+    int codeLength;
+
+    @Label("Initialization Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long initTime;
+
+    @Label("Outcome")
+    String outcome;
+  }
+
+  static boolean keyEvaluatedEnabled() {
+    return new KeyEvaluated().isEnabled();
+  }
+
+  static void sectionCompiled(
+      String section, int keys, int errors, int cycles, long nanos, String outcome) {
+    SectionCompiled e = new SectionCompiled();
+    if (e.isEnabled()) {
+      e.section = section;
+      e.keyCount = keys;
+      e.errorCount = errors;
+      e.cycleCount = cycles;
+      e.compileTime = nanos;
+      e.outcome = outcome;
+      e.commit();
+    }
+  }
+
+  static void keyEvaluated(String section, String key, long nanos, String outcome) {
+    KeyEvaluated e = new KeyEvaluated();
+    if (e.isEnabled()) {
+      e.section = section;
+      e.key = key;
+      e.evaluationTime = nanos;
+      e.outcome = outcome;
+      e.commit();
+    }
+  }
+
+  static void cycleDetected(String section, List<String> cycle) {
+    CycleDetected e = new CycleDetected();
+    if (e.isEnabled()) {
+      e.section = section;
+      e.keyCount = cycle.size();
+      e.cycle = String.join(" => ", cycle) + " => " + cycle.get(0);
+      e.commit();
+    }
+  }
+
+  static void compileError(String section, String message) {
+    CompileError e = new CompileError();
+    if (e.isEnabled()) {
+      e.section = section;
+      e.message = message.trim();
+      e.commit();
+    }
+  }
+
+  static void preludeInitialized(int codeLength, long nanos, String outcome) {
+    PreludeInitialized e = new PreludeInitialized();
+    if (e.isEnabled()) {
+      e.codeLength = codeLength;
+      e.initTime = nanos;
+      e.outcome = outcome;
+      e.commit();
+    }
+  }
+}
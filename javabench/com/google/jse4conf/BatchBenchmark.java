@@ -0,0 +1,120 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of evaluating one rule section for many changes, one change per JS scope like before
+ * evaluateBatch, or all changes in one batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class BatchBenchmark {
+  private static final String RULES =
+      "[rules]\nuseJSE=true\nSuperUsers=[101, 105, 110]\n"
+          + "authorIsSuperUser=SuperUsers.indexOf(CL.Author.Id) >= 0\n"
+          + "optOut=['refs/heads/exp', 'refs/beta'].indexOf(CL.Branch) >= 0\n"
+          + "needReview=!authorIsSuperUser && !optOut\nmaxFiles=10\n"
+          + "tooLarge=CL.Files.length > maxFiles\nlabel=CL.Branch + ':' + CL.Files.length\n";
+  private static final String INIT_CODE =
+      "var CL = {Author: {Id: 0}, Branch: 'refs/heads/master', Files: []};\n";
+
+  @Param({"10", "300"})
+  public int changes;
+
+  private JSEConfig config;
+  private List<Map<String, Object>> bindings;
+  private JS js; // JS environment of INIT_CODE for single evaluations
+  private String sectionCode; // compiled section code returning its section object
+
+  @Setup
+  public void setUp() throws ConfigInvalidException {
+    Config text = new Config();
+    text.fromText(RULES);
+    config = new JSEConfig(text, INIT_CODE);
+    bindings = new ArrayList<>();
+    String[] branches = {"refs/heads/master", "refs/beta", "refs/heads/exp"};
+    for (int i = 0; i < changes; i++) {
+      Map<String, Object> cl = new HashMap<>();
+      cl.put("Author", Collections.singletonMap("Id", 100 + i % 12));
+      cl.put("Branch", branches[i % branches.length]);
+      cl.put("Files", Collections.nCopies(i % 20, "f"));
+      bindings.add(Collections.singletonMap("CL", cl));
+    }
+    js = new JS(INIT_CODE);
+    sectionCode = config.dumpJSSource("rules") + "rules;\n";
+    // Validate that both ways agree on the first change.
+    Object single = evaluateOne(bindings.get(0));
+    Object batch = config.evaluateBatch("rules", null, bindings).getValue(0, "label");
+    if (!((Map<?, ?>) single).get("label").toString().equals(String.valueOf(batch))) {
+      throw new IllegalStateException("different results: " + single + ", " + batch);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    js.exit();
+  }
+
+  // Evaluate the section code for one binding in a new child scope, with a new section object.
+  private Object evaluateOne(Map<String, Object> binding) {
+    JS child = js.newChildScope();
+    try {
+      for (Map.Entry<String, Object> e : binding.entrySet()) {
+        child.getScope().put(e.getKey(), child.getScope(), child.toJS(e.getValue()));
+      }
+      return child.eval(sectionCode, "rules");
+    } finally {
+      child.exit();
+    }
+  }
+
+  @Benchmark
+  public void singleEvaluations(Blackhole bh) {
+    for (Map<String, Object> binding : bindings) {
+      bh.consume(evaluateOne(binding));
+    }
+  }
+
+  @Benchmark
+  public BatchResult evaluateBatch() {
+    return config.evaluateBatch("rules", null, bindings);
+  }
+}
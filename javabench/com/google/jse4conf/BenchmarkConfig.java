@@ -0,0 +1,78 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A generated config shared by all benchmarks, parameterized by section count, keys per section,
+ * and dependency depth; see {@link ConfigGenerator}.
+ *
+ * <p>The state is per benchmark thread, because a Rhino Context is bound to the thread that enters
+ * it, and JMH calls Setup of a Thread state in its benchmark thread.
+ */
+@State(Scope.Thread)
+public class BenchmarkConfig {
+  /** Prelude code evaluated before compiled sections, like a small gerrit.js.in. */
+  static final String INIT_CODE =
+      "var CL = {branch: 'refs/heads/master', project: 'p/q', size: 100};\n";
+
+  @Param({"1", "10"})
+  public int sections;
+
+  @Param({"10", "1000"})
+  public int keysPerSection;
+
+  @Param({"1", "10"})
+  public int depth;
+
+  String text; // generated config file text
+  Section[] sectionObjects; // generated sections, compiled again by every benchmark call
+  Config config; // text parsed by JGit Config
+  JSEConfig jseConfig; // config with all sections compiled
+  JS js; // JS environment of INIT_CODE
+  String jsCode; // compiled JS code of all sections, for a large init code
+
+  @Setup(Level.Trial)
+  public void setUp() throws ConfigInvalidException {
+    text = ConfigGenerator.generate(sections, keysPerSection, depth);
+    sectionObjects = new Section[sections];
+    for (int i = 0; i < sections; i++) {
+      sectionObjects[i] = ConfigGenerator.section(i, keysPerSection, depth);
+    }
+    config = new Config();
+    config.fromText(text);
+    jseConfig = new JSEConfig(config, INIT_CODE);
+    js = new JS(INIT_CODE);
+    jsCode = INIT_CODE + new Conf2JS().compileConfString(text);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    js.exit();
+  }
+
+  /** Return the combined name of the i-th generated section. */
+  static String sectionName(int i) {
+    return Section.nameOf(ConfigGenerator.SECTION, ConfigGenerator.subsection(i));
+  }
+}
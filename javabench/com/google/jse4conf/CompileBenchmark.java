@@ -0,0 +1,88 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Benchmarks of compiling sections and config files. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CompileBenchmark {
+
+  @Benchmark
+  public void sectionCompile(BenchmarkConfig c, Blackhole bh) {
+    for (Section s : c.sectionObjects) {
+      s.compile();
+      bh.consume(s);
+    }
+  }
+
+  @Benchmark
+  public void sectionCompileWithJS(BenchmarkConfig c, Blackhole bh) {
+    for (Section s : c.sectionObjects) {
+      s.compile(c.js);
+      bh.consume(s);
+    }
+  }
+
+  @Benchmark
+  public String conf2jsCompileConfString(BenchmarkConfig c) {
+    return new Conf2JS(c.js, BenchmarkConfig.INIT_CODE).compileConfString(c.text);
+  }
+
+  @Benchmark
+  public boolean jseConfigCompileJS(BenchmarkConfig c) {
+    return c.jseConfig.compileJS();
+  }
+
+  /**
+   * Cycle detection of keysPerSection keys, each using the next (depth + 1) keys in a ring. Every
+   * key is on many cycles, which used to take exponential time.
+   */
+  @Benchmark
+  public List<List<String>> findCycles(CycleGraph g) {
+    return new CycleFinder(g.graph, new HashSet<>()).findCycles();
+  }
+
+  /** A ring graph for findCycles, built once per trial. */
+  @State(Scope.Thread)
+  public static class CycleGraph {
+    KeyGraph graph;
+
+    @Setup
+    public void setUp(BenchmarkConfig c) {
+      int n = Math.max(2, c.keysPerSection * c.sections);
+      graph =
+          new KeyGraph(
+              ConfigGenerator.keys(n), ConfigGenerator.ringOfKeys(n, Math.min(n - 1, c.depth + 1)));
+    }
+  }
+}
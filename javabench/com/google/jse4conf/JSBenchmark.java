@@ -0,0 +1,78 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the JS environment: new scopes of each {@link ScopeProfile}, reset with a large
+ * init code, and source dumps.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class JSBenchmark {
+  @Param({"STANDARD", "SEALED", "MINIMAL"})
+  public String profile;
+
+  private JS compiled; // JS environment with all generated sections evaluated
+  private JS scoped; // JS environment of the profile
+  private String sectionVar; // JS variable name of the last generated section
+
+  @Setup
+  public void setUp(BenchmarkConfig c) {
+    compiled = new JS(c.jsCode);
+    scoped = new JS(null, ScopeProfile.valueOf(profile));
+    sectionVar = JS.toJSName(BenchmarkConfig.sectionName(c.sections - 1));
+  }
+
+  @TearDown
+  public void tearDown() {
+    compiled.exit();
+    scoped.exit();
+  }
+
+  /** Reset to a new scope without init code, like a JS environment of a section. */
+  @Benchmark
+  public Object newScope() {
+    return scoped.reset(null);
+  }
+
+  /** Reset to a new scope and evaluate the compiled code of all sections as init code. */
+  @Benchmark
+  public Object resetLargeInitCode(BenchmarkConfig c) {
+    return scoped.reset(c.jsCode);
+  }
+
+  @Benchmark
+  public String dumpSource() {
+    return compiled.dumpSource(sectionVar, false);
+  }
+}
@@ -0,0 +1,273 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * An end-to-end load test of rule evaluation with random CL bindings.
+ *
+ * <p>A config of generated rule sections, like SampleCL in README.md, is compiled by JSEConfig with
+ * a prelude JS file like javatests/data/gerrit.js.in. Then each worker thread repeatedly binds a
+ * random CL and evaluates a random rule section in its own JS environment, like an application
+ * evaluating rules of incoming changes. The harness reports throughput, latency percentiles, GC
+ * counts and time, and allocation rate, ending with one summary line for before/after scripts.
+ *
+ * <p>Usage: {@code load_harness [-js preludeFile] [-s sections] [-j threads] [-w warmupOps] [-n
+ * ops] [-seed seed]}; ops are counted per thread.
+ */
+public final class LoadHarness {
+  private final String prelude; // JS code evaluated before any section
+  private final String[] sectionCode; // compiled JS code of each rule section
+  private final String[] sectionVar; // JS variable name of each rule section
+  private final long seed;
+
+  LoadHarness(String prelude, int sections, long seed) throws ConfigInvalidException {
+    this.prelude = prelude;
+    this.seed = seed;
+    Config config = new Config();
+    config.fromText(ConfigGenerator.rules(sections));
+    JSEConfig jseConfig = new JSEConfig(config, prelude);
+    sectionCode = new String[sections];
+    sectionVar = new String[sections];
+    for (int i = 0; i < sections; i++) {
+      String sub = ConfigGenerator.subsection(i);
+      sectionVar[i] = JS.toJSName(Section.nameOf(ConfigGenerator.RULES, sub));
+      sectionCode[i] =
+          jseConfig.dumpJSSource(ConfigGenerator.RULES, sub) + sectionVar[i] + ";\n";
+    }
+  }
+
+  /** Return JS code to bind a random CL, overriding the CL fields of gerrit.js.in. */
+  static String randomCL(Random random) {
+    int author = 100 + random.nextInt(30);
+    int uploader = random.nextBoolean() ? author : 100 + random.nextInt(30);
+    StringBuilder code = new StringBuilder();
+    code.append("CL.Author = CL.user('u").append(author).append("@g.com', ").append(author);
+    code.append(", 'User ").append(author).append("');\n");
+    code.append("CL.Uploader = CL.user('u").append(uploader).append("@g.com', ");
+    code.append(uploader).append(", 'User ").append(uploader).append("');\n");
+    code.append("CL.Branch = '").append(random.nextInt(4) == 0 ? "refs/beta" : "refs/heads/master");
+    code.append("';\nCL.Files = [");
+    int files = 1 + random.nextInt(20);
+    for (int f = 0; f < files; f++) {
+      code.append(f == 0 ? "'" : ", '").append(random.nextInt(8) == 0 ? "d/OWNERS" : "d/f" + f);
+      code.append("'");
+    }
+    code.append("];\nCL.Labels = [CL.label('Code-Review', ").append(random.nextInt(3) - 1);
+    code.append(", ").append(author).append(")");
+    if (random.nextInt(10) == 0) {
+      code.append(", CL.label('Build-Cop-Override', 1, ").append(uploader).append(")");
+    }
+    return code.append("];\n").toString();
+  }
+
+  /** A worker thread evaluating rules, and its measured results. */
+  private static final class Worker extends Thread {
+    private final LoadHarness harness;
+    private final int index;
+    private final int warmupOps;
+    private final long[] latencies; // nanoseconds of each measured operation
+    private final CountDownLatch warmedUp;
+    private final CountDownLatch start;
+    private long allocatedBytes; // allocated bytes in the measured operations, or -1
+    private int trueValues; // count of true needOwnerReview values, to use all results
+    private Throwable error;
+
+    Worker(
+        LoadHarness harness,
+        int index,
+        int warmupOps,
+        int ops,
+        CountDownLatch warmedUp,
+        CountDownLatch start) {
+      super("load-" + index);
+      this.harness = harness;
+      this.index = index;
+      this.warmupOps = warmupOps;
+      this.latencies = new long[ops];
+      this.warmedUp = warmedUp;
+      this.start = start;
+    }
+
+    @Override
+    public void run() {
+      JS js = new JS(harness.prelude);
+      try {
+        Random random = new Random(harness.seed + index);
+        for (int i = 0; i < warmupOps; i++) {
+          evaluate(js, random);
+        }
+        warmedUp.countDown();
+        start.await();
+        long startBytes = allocatedBytes();
+        for (int i = 0; i < latencies.length; i++) {
+          long t = System.nanoTime();
+          evaluate(js, random);
+          latencies[i] = System.nanoTime() - t;
+        }
+        long endBytes = allocatedBytes();
+        allocatedBytes = (startBytes < 0) ? -1 : endBytes - startBytes;
+      } catch (Throwable e) {
+        error = e;
+        warmedUp.countDown();
+      } finally {
+        js.exit();
+      }
+    }
+
+    private void evaluate(JS js, Random random) {
+      int s = random.nextInt(harness.sectionCode.length);
+      js.eval(randomCL(random), "<CL>");
+      Object result = js.eval(harness.sectionCode[s], harness.sectionVar[s]);
+      if (!(result instanceof Map)) {
+        throw new IllegalStateException(harness.sectionVar[s] + ": " + result);
+      }
+      if (Boolean.TRUE.equals(((Map<?, ?>) result).get("needOwnerReview"))) {
+        trueValues++;
+      }
+    }
+  }
+
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+      if (sunThreads.isThreadAllocatedMemorySupported()
+          && sunThreads.isThreadAllocatedMemoryEnabled()) {
+        return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  private static long[] gcCountAndMillis() {
+    long[] result = new long[2];
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      result[0] += Math.max(0, gc.getCollectionCount());
+      result[1] += Math.max(0, gc.getCollectionTime());
+    }
+    return result;
+  }
+
+  /** Return the q-quantile of sorted values in microseconds. */
+  static double percentileMicros(long[] sorted, double q) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int i = (int) Math.ceil(q * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1000.0;
+  }
+
+  /** Run the load test and print a report; return false if any worker failed. */
+  boolean run(int threads, int warmupOps, int ops) throws InterruptedException {
+    CountDownLatch warmedUp = new CountDownLatch(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    Worker[] workers = new Worker[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Worker(this, i, warmupOps, ops, warmedUp, start);
+      workers[i].start();
+    }
+    warmedUp.await();
+    System.gc();
+    long[] gcStart = gcCountAndMillis();
+    long startNanos = System.nanoTime();
+    start.countDown();
+    for (Worker w : workers) {
+      w.join();
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+    long[] gcEnd = gcCountAndMillis();
+
+    long[] all = new long[threads * ops];
+    long allocated = 0;
+    int trueValues = 0;
+    for (int i = 0; i < threads; i++) {
+      Worker w = workers[i];
+      if (w.error != null) {
+        System.out.println("Worker " + i + " failed: " + w.error);
+        return false;
+      }
+      System.arraycopy(w.latencies, 0, all, i * ops, ops);
+      allocated = (allocated < 0 || w.allocatedBytes < 0) ? -1 : allocated + w.allocatedBytes;
+      trueValues += w.trueValues;
+    }
+    Arrays.sort(all);
+    double seconds = elapsedNanos / 1e9;
+    System.out.printf(
+        "sections=%d threads=%d ops=%d seconds=%.3f needOwnerReview=%d%n",
+        sectionCode.length, threads, all.length, seconds, trueValues);
+    System.out.printf(
+        "load: opsPerSec=%.1f p50us=%.1f p99us=%.1f p999us=%.1f maxus=%.1f"
+            + " gcCount=%d gcMs=%d allocMBPerSec=%.1f%n",
+        all.length / seconds,
+        percentileMicros(all, 0.5),
+        percentileMicros(all, 0.99),
+        percentileMicros(all, 0.999),
+        percentileMicros(all, 1.0),
+        gcEnd[0] - gcStart[0],
+        gcEnd[1] - gcStart[1],
+        (allocated < 0) ? -1.0 : allocated / seconds / (1024 * 1024));
+    return true;
+  }
+
+  private static String nextArg(String[] args, int i, String flag, String what) {
+    if (i >= args.length) {
+      System.out.println("Need " + what + " after " + flag + " flag.");
+      System.exit(1);
+    }
+    return args[i];
+  }
+
+  public static void main(String[] args)
+      throws IOException, InterruptedException, ConfigInvalidException {
+    String jsFile = "javatests/data/gerrit.js.in";
+    int sections = 20;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int warmupOps = 2000;
+    int ops = 10000;
+    long seed = 1;
+    for (int i = 0; i < args.length; ++i) {
+      String arg = args[i];
+      if (arg.equals("-js")) {
+        jsFile = nextArg(args, ++i, arg, "JS file");
+      } else if (arg.equals("-s")) {
+        sections = Integer.parseInt(nextArg(args, ++i, arg, "number of sections"));
+      } else if (arg.equals("-j")) {
+        threads = Integer.parseInt(nextArg(args, ++i, arg, "number of threads"));
+      } else if (arg.equals("-w")) {
+        warmupOps = Integer.parseInt(nextArg(args, ++i, arg, "number of warmup ops"));
+      } else if (arg.equals("-n")) {
+        ops = Integer.parseInt(nextArg(args, ++i, arg, "number of ops"));
+      } else if (arg.equals("-seed")) {
+        seed = Long.parseLong(nextArg(args, ++i, arg, "random seed"));
+      } else {
+        System.out.println("Unknown argument: " + arg);
+        System.exit(1);
+      }
+    }
+    LoadHarness harness = new LoadHarness(Conf2JS.readAllBytes(jsFile), sections, seed);
+    System.exit(harness.run(threads, warmupOps, ops) ? 0 : 1);
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of typed value lookups from a compiled JSEConfig. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class LookupBenchmark {
+  /** Values of the generated "size" key. */
+  public enum Size {
+    SMALL,
+    LARGE
+  }
+
+  private String subsection;
+
+  @Setup
+  public void setUp(BenchmarkConfig c) {
+    subsection = ConfigGenerator.subsection(c.sections - 1);
+    c.jseConfig.compileJS();
+  }
+
+  @Benchmark
+  public int getJSInt(BenchmarkConfig c) {
+    return c.jseConfig.getJSInt(ConfigGenerator.SECTION, subsection, ConfigGenerator.key(0), 0);
+  }
+
+  @Benchmark
+  public String getJSString(BenchmarkConfig c) {
+    return c.jseConfig.getJSString(ConfigGenerator.SECTION, subsection, "name");
+  }
+
+  @Benchmark
+  public Size getJSEnum(BenchmarkConfig c) {
+    return c.jseConfig.getJSEnum(ConfigGenerator.SECTION, subsection, "size", Size.SMALL);
+  }
+}
@@ -0,0 +1,75 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of parsing the values of a section of keys, each using the next key in an
+ * expression, one parse per value or one combined parse of all values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+  @Param({"10", "1000", "100000"})
+  public int keys;
+
+  private List<String> keyList;
+  private Map<String, String> keyValues;
+
+  @Setup
+  public void setUp() {
+    keyList = new ArrayList<>();
+    keyValues = new HashMap<>();
+    for (int i = 0; i < keys; i++) {
+      String key = ConfigGenerator.key(i);
+      keyList.add(key);
+      String next = ConfigGenerator.key((i + 1) % keys);
+      keyValues.put(key, String.format("%s + '/' + [%d, %d].length", next, i, i + 1));
+    }
+  }
+
+  @Benchmark
+  public void separateParse(Blackhole bh) {
+    for (String key : keyList) {
+      bh.consume(ValueParser.parse(keyValues.get(key), key));
+    }
+  }
+
+  @Benchmark
+  public Object batchParse() {
+    return ValueParser.parseAll("gen", keyList, keyValues);
+  }
+}
@@ -16,8 +16,19 @@ package com.google.jse4conf;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -25,6 +36,8 @@ import org.junit.runners.JUnit4;
 public class Conf2JSTest extends ConfTestBase {
   // NOTE: to skip a test, replace @Test with @Ignore.
 
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
   @Test
   public void comments() {
     // # comments are removed, "key=jse" => "const key=exp;" in a closure.
@@ -173,4 +186,79 @@ public class Conf2JSTest extends ConfTestBase {
             + "var s4 = function() {\n  const k4 = 4;\n  return {k4:k4,};\n}();\n";
     assertEquals(output, compileConf(input));
   }
+
+  @Test
+  public void streamingOutput() throws Exception {
+    // Appendable output is the same as String output, including wrapped return lines.
+    String input = "[s1]\nk1=1\n[s2]\n";
+    for (int i = 0; i < 12; i++) {
+      input += "longKeyName" + i + "=" + i + "\n";
+    }
+    StringWriter out = new StringWriter();
+    new Conf2JS().compileConfString(input, true, out);
+    assertEquals(compileConf(input), out.toString());
+    assertThat(out.toString()).contains("\n          longKeyName");
+  }
+
+  private static void writeFile(File dir, String name, String content) throws IOException {
+    Conf2JS.writeToFile(new File(dir, name).getPath(), content);
+  }
+
+  @Test
+  public void batchCompile() throws Exception {
+    // A directory input takes only *.conf and *.config files, in sorted order.
+    File inDir = tmp.newFolder("in");
+    File outDir = tmp.newFolder("out");
+    writeFile(inDir, "a.conf", "[s1]\nk1=1\nuseJSE=true\n");
+    writeFile(inDir, "b.config", "[s2]\nuseJSE=true\nk2=k1+1\nk1=2\n");
+    writeFile(inDir, "c.conf", "[s3]\ne1={3\\;5}\n");
+    writeFile(inDir, "d.txt", "[s4]\nk4=4\n");
+    List<Path> inputs = Conf2JSBatch.findInputs(Arrays.asList(inDir.getPath()));
+    assertThat(inputs).hasSize(3);
+    List<Conf2JSBatch.Result> results =
+        new Conf2JSBatch(false, false, null, 2).compileAll(inputs, outDir.toPath());
+    assertThat(results).hasSize(3);
+    assertFalse(results.get(0).hasError());
+    assertFalse(results.get(1).hasError());
+    assertTrue(results.get(2).hasError()); // bad escape in c.conf
+    assertFalse(Conf2JSBatch.printSummary(results));
+    // Batch output is the same as compiling one file at a time.
+    for (Conf2JSBatch.Result r : results) {
+      String input = readFile(r.getInput().toString());
+      assertEquals(compileConf(input, false), readFile(r.getOutput().toString()));
+    }
+    // Glob patterns are expanded relative to the current directory or an absolute prefix.
+    inputs = Conf2JSBatch.findInputs(Arrays.asList(inDir.getPath() + "/*.conf"));
+    assertThat(inputs).hasSize(2);
+  }
+
+  @Test
+  public void batchOutputPaths() throws Exception {
+    File inDir = tmp.newFolder("configs");
+    File outDir = tmp.newFolder("out");
+    new File(inDir, "a").mkdir();
+    new File(inDir, "b").mkdir();
+    writeFile(inDir, "a/x.conf", "[s1]\nk1=1\nuseJSE=true\n");
+    writeFile(inDir, "b/x.conf", "[s1]\nk1=2\nuseJSE=true\n");
+    // Inputs of the same name keep their directories relative to the common directory.
+    List<Path> inputs = Conf2JSBatch.findInputs(Arrays.asList(inDir.getPath() + "/**/*.conf"));
+    assertThat(inputs).hasSize(2);
+    List<Conf2JSBatch.Result> results =
+        new Conf2JSBatch(false, false, null, 2).compileAll(inputs, outDir.toPath());
+    assertTrue(Conf2JSBatch.printSummary(results));
+    assertEquals(outDir.toPath().resolve("a/x.conf.js.out"), results.get(0).getOutput());
+    assertEquals(outDir.toPath().resolve("b/x.conf.js.out"), results.get(1).getOutput());
+    for (Conf2JSBatch.Result r : results) {
+      String input = readFile(r.getInput().toString());
+      assertEquals(compileConf(input, false), readFile(r.getOutput().toString()));
+    }
+    // An input given twice would be compiled twice into one output.
+    inputs.add(inputs.get(0));
+    try {
+      Conf2JSBatch.outputPaths(inputs, outDir.toPath());
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).contains("same output");
+    }
+  }
 }
@@ -0,0 +1,151 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ConfParserTest extends ConfTestBase {
+  static final String DATA_DIR = System.getProperty("data.dir");
+
+  // Dump (sub)section names, keys, and values parsed by JGit Config.
+  private static String dumpJGit(String text) {
+    Config cfg = new Config();
+    try {
+      cfg.fromText(text);
+    } catch (Exception e) {
+      return "ERROR: " + e.getMessage();
+    }
+    List<String> result = new ArrayList<>();
+    for (String s : cfg.getSections()) {
+      for (String sub : subsectionsOf(cfg, s)) {
+        String name = Section.nameOf(s, sub);
+        Section section = new Section(name);
+        for (String k : cfg.getNames(s, sub)) {
+          String value = cfg.getString(s, sub, k);
+          section.addKeyValue(k, value == null ? "" : value);
+        }
+        result.add(dumpSection(name, section, cfg.getBoolean(s, sub, "useJSE", false)));
+      }
+    }
+    return result.toString();
+  }
+
+  private static List<String> subsectionsOf(Config cfg, String section) {
+    List<String> result = new ArrayList<>();
+    result.add(null);
+    result.addAll(cfg.getSubsections(section));
+    return result;
+  }
+
+  // Dump (sub)section names, keys, and values parsed by ConfParser.
+  private static String dumpConfParser(String text) {
+    ConfParser parser = new ConfParser();
+    try {
+      parser.parse(text);
+    } catch (ParseException e) {
+      return "ERROR: " + e.getMessage();
+    }
+    List<String> result = new ArrayList<>();
+    for (String name : parser.getSectionNames()) {
+      result.add(dumpSection(name, parser.getSection(name), parser.useJSE(name)));
+    }
+    return result.toString();
+  }
+
+  private static String dumpSection(String name, Section section, boolean useJSE) {
+    section.compile();
+    return name + (useJSE ? "(useJSE)" : "") + ":" + section.dumpJSCode();
+  }
+
+  private static void checkSameAsJGit(String text) {
+    String expected = dumpJGit(text);
+    String result = dumpConfParser(text);
+    if (expected.startsWith("ERROR:")) {
+      // Error messages are different in JGit versions; just check that there is an error.
+      assertThat(result).startsWith("ERROR:");
+    } else {
+      assertEquals(text, expected, result);
+    }
+  }
+
+  @Test
+  public void sameAsJGit() {
+    String[] inputs = {
+      "[s]\nk\n",
+      "[s]\nk = \"  a b  \"  # c\n",
+      "[s]\nk = a  \"  b\" c  \n",
+      "[S]\nK=1\n[s]\nk=2\n[s \"Sub\"]\nx=1\n[s \"sub\"]\ny=2\n",
+      "[s]\nk=1\nk=2\n",
+      "[s.t]\nk=1\n",
+      "[s]  k=1 \n",
+      "[s \"a\\\"b\\\\c\\d\"]\nk=1\n",
+      "[s]\n  # comment\n  ; c2\n\n k = 1 ; c\n",
+      "[s]\nk = \"a \\\" b\"\n",
+      "[s]\nuseJSE\n[t]\nuseJSE=\n[u]\nUSEJSE=yes\n[v]\nusejse = false\n",
+      "[s]\nk = a \\\n  b \n",
+      "[s]\nk=\"a;b\" ; c\n",
+      "[a]\n[b \"x\"]\n[a \"y\"]\nk=1\n[B]\nk=2\n",
+      "[s]\nk\t=\t1\t\n",
+      "[s]\nk=a\\tb\\nc\\\\d\n",
+      // errors
+      "k=1\n",
+      "[s]\nk_x=2\n",
+      "[s]\nk=\"a\nb\"\n",
+      "[s]\nk=1\\",
+      "[s]\nk=a\\qb\n",
+      "[s\"x\"]\nk=1\n",
+      "[s \"x\" ]\nk=1\n",
+    };
+    for (String text : inputs) {
+      checkSameAsJGit(text);
+    }
+  }
+
+  @Test
+  public void sameAsJGitFiles() throws Exception {
+    checkSameAsJGit(readFile(DATA_DIR + "project.config"));
+  }
+
+  @Test
+  public void dosLineEnds() throws Exception {
+    // "\r\n" is read like "\n", also after a line continuation backslash.
+    String text = readFile(DATA_DIR + "project.config") + "[s]\nk = a \\\n  b\n";
+    assertEquals(dumpJGit(text), dumpConfParser(text.replace("\n", "\r\n")));
+  }
+
+  @Test
+  public void useJSESections() throws Exception {
+    String text = "[a]\nuseJSE=true\n[a \"x\"]\nk=1\n[b \"y\"]\nuseJSE\n[c]\nuseJSE=false\n";
+    ConfParser parser = new ConfParser().parse(text);
+    assertThat(parser.getSectionNames()).containsExactly("a", "a-x", "b", "b-y", "c").inOrder();
+    assertThat(parser.getJSESectionNames()).containsExactly("a", "b-y").inOrder();
+    assertTrue(parser.useJSE("a"));
+    assertFalse(parser.useJSE("a-x"));
+    assertFalse(parser.useJSE("unknown"));
+    assertThat(parser.getSection("a-x").getKeys()).containsExactly("k");
+  }
+}
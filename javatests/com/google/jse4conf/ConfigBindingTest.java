@@ -0,0 +1,119 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ConfigBindingTest extends ConfTestBase {
+  enum Size {
+    SMALL,
+    LARGE
+  }
+
+  interface Rules {
+    int maxFiles();
+
+    long maxBytes();
+
+    boolean tooLarge();
+
+    double ratio();
+
+    String branch();
+
+    Size size();
+
+    Object superUsers();
+  }
+
+  interface PlainRules {
+    int maxFiles();
+
+    boolean enabled();
+
+    Size size();
+
+    Integer missing();
+  }
+
+  private static final String RULES =
+      "[SampleCL]\nuseJSE=true\nmaxFiles=5\nmaxBytes=maxFiles * 1e9\ntooLarge=CL.Files > maxFiles\n"
+          + "ratio=CL.Files / maxFiles\nbranch='refs/heads/' + CL.Branch\n"
+          + "size=tooLarge ? 'LARGE' : 'SMALL'\nsuperUsers=[101, 107]\n";
+
+  private static final String INIT_JS = "var CL = {Files: 7, Branch: 'master'};";
+
+  @Test
+  public void bindTypedValues() throws Exception {
+    Config config = new Config();
+    config.fromText(RULES);
+    JSEConfig jseConfig = new JSEConfig(config, INIT_JS);
+    Rules rules = jseConfig.bind(Rules.class, "SampleCL");
+    assertEquals(5, rules.maxFiles());
+    assertEquals(5000000000L, rules.maxBytes());
+    assertTrue(rules.tooLarge());
+    assertEquals(1.4, rules.ratio(), 1e-9);
+    assertEquals("refs/heads/master", rules.branch());
+    assertEquals(Size.LARGE, rules.size());
+    assertThat(rules.superUsers()).isInstanceOf(List.class);
+    assertEquals("Rules(SampleCL)", rules.toString());
+    // Values are converted again after the config is compiled again.
+    config.setString("SampleCL", null, "maxFiles", "10");
+    assertTrue(jseConfig.compileJS());
+    assertEquals(10, rules.maxFiles());
+    assertFalse(rules.tooLarge());
+    assertEquals(Size.SMALL, rules.size());
+  }
+
+  @Test
+  public void bindPlainValues() throws Exception {
+    Config config = new Config();
+    config.fromText("[s \"sub\"]\nmaxFiles=5\nenabled=yes\nsize=large\nmissing=3\n");
+    JSEConfig jseConfig = new JSEConfig(config);
+    PlainRules rules = jseConfig.bind(PlainRules.class, "s", "sub");
+    assertEquals(5, rules.maxFiles());
+    assertTrue(rules.enabled());
+    assertEquals(Size.LARGE, rules.size());
+    assertEquals(Integer.valueOf(3), rules.missing());
+  }
+
+  @Test
+  public void bindErrors() throws Exception {
+    Config config = new Config();
+    config.fromText("[s]\nuseJSE=true\nmaxFiles='five'\nenabled=1\nsize='MEDIUM'\n");
+    JSEConfig jseConfig = new JSEConfig(config, null);
+    try {
+      jseConfig.bind(PlainRules.class, "s");
+      fail("bind should have thrown exception.");
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).startsWith("Cannot bind " + PlainRules.class.getName() + ":\n");
+      assertThat(e.getMessage()).contains("  s.maxFiles: not a valid int: five");
+      assertThat(e.getMessage()).contains("  s.enabled: not a valid boolean: ");
+      assertThat(e.getMessage()).contains("  s.size: ");
+      assertThat(e.getMessage()).contains("  s.missing: no such key");
+    }
+  }
+}
@@ -0,0 +1,206 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generate synthetic config files and key graphs for benchmarks and scalability tests.
+ *
+ * <p>A generated section "gen-sNNNN" has useJSE=true, keysPerSection numbered keys, and a few
+ * typed keys. Numbered keys form chains of the given dependency depth: key k(i) uses k(i+1), except
+ * the last key of each chain, which is a number. The typed keys use the first numbered key:
+ *
+ * <pre>
+ * [gen "s0000"]
+ *   useJSE = true
+ *   k000000 = k000001 + 1
+ *   k000001 = 2
+ *   name = 's0000/' + k000000
+ *   enabled = k000000 > 1
+ *   size = k000000 > 10 ? 'LARGE' : 'SMALL'
+ * </pre>
+ */
+public final class ConfigGenerator {
+  /** Section name of all generated sections. */
+  public static final String SECTION = "gen";
+
+  private ConfigGenerator() {}
+
+  /** Return the subsection name of the i-th generated section. */
+  public static String subsection(int i) {
+    return String.format("s%04d", i);
+  }
+
+  /** Return the name of the i-th numbered key. */
+  public static String key(int i) {
+    return String.format("k%06d", i);
+  }
+
+  /** Append one generated section to text. */
+  public static void appendSection(StringBuilder text, int i, int keysPerSection, int depth) {
+    depth = Math.max(1, depth);
+    text.append("[").append(SECTION).append(" \"").append(subsection(i)).append("\"]\n");
+    text.append("  useJSE = true\n");
+    for (int k = 0; k < keysPerSection; k++) {
+      text.append("  ").append(key(k)).append(" = ");
+      if (k % depth == depth - 1 || k == keysPerSection - 1) {
+        text.append(k + 1).append("\n");
+      } else {
+        text.append(key(k + 1)).append(" + 1\n");
+      }
+    }
+    String first = (keysPerSection > 0) ? key(0) : "0";
+    text.append("  name = '").append(subsection(i)).append("/' + ").append(first).append("\n");
+    text.append("  enabled = ").append(first).append(" > 1\n");
+    text.append("  size = ").append(first).append(" > 10 ? 'LARGE' : 'SMALL'\n");
+  }
+
+  /** Return a config file text of generated sections. */
+  public static String generate(int sections, int keysPerSection, int depth) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < sections; i++) {
+      appendSection(text, i, keysPerSection, depth);
+    }
+    return text.toString();
+  }
+
+  /** Return a Section of the i-th generated section, not compiled yet. */
+  public static Section section(int i, int keysPerSection, int depth) {
+    StringBuilder text = new StringBuilder();
+    appendSection(text, i, keysPerSection, depth);
+    try {
+      return new ConfParser().parse(text).getSection(Section.nameOf(SECTION, subsection(i)));
+    } catch (ParseException e) {
+      throw new IllegalStateException(e); // generated text is always valid
+    }
+  }
+
+  /** Section name of all generated rule sections. */
+  public static final String RULES = "rules";
+
+  /**
+   * Append the i-th rule section, like SampleCL in README.md and find-owners in
+   * javatests/examples/project.config. Its values depend on the CL object of gerrit.js.in.
+   */
+  public static void appendRuleSection(StringBuilder text, int i) {
+    text.append("[").append(RULES).append(" \"").append(subsection(i)).append("\"]\n");
+    text.append("  useJSE = true\n");
+    text.append("  authorIsSuperUser = isSuperUser(CL.Author)\n");
+    text.append("  uploaderIsSuperUser = isSuperUser(CL.Uploader)\n");
+    text.append("  isSuperUser = (x) => SuperUsers.indexOf(x.Id) >= 0\n");
+    text.append("  SuperUsers = [").append(100 + i % 10).append(", ").append(105 + i % 10);
+    text.append(", ").append(110 + i % 20).append("]\n");
+    text.append("  needOwnerReview = !isExemptFromReviews && !optOutFindOwners\n");
+    text.append("  isExemptFromReviews = uploaderIsSuperUser || hasBuildCopOverride\n");
+    text.append("  optOutFindOwners = NoOwnersReviewBranches.indexOf(CL.Branch) >= 0\n");
+    text.append("  hasBuildCopOverride = CL.Labels.some(isBCOLabel)\n");
+    text.append("  isBCOLabel = (x) => x.Name == 'Build-Cop-Override' && x.Value > 0\n");
+    text.append("  NoOwnersReviewBranches = ['refs/heads/exp").append(i).append("', 'refs/beta']\n");
+    text.append("  touchesOwners = CL.commitDelta(/OWNERS$/)\n");
+    text.append("  maxFiles = ").append(5 + i % 10).append("\n");
+    text.append("  tooLarge = CL.Files.length > maxFiles\n");
+  }
+
+  /** Return a config file text of generated rule sections. */
+  public static String rules(int sections) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < sections; i++) {
+      appendRuleSection(text, i);
+    }
+    return text.toString();
+  }
+
+  /** Return a section of a chain of n keys; each key uses the next key. */
+  public static String deepChain(int n) {
+    StringBuilder text = new StringBuilder("[chain]\n");
+    for (int i = 0; i < n - 1; i++) {
+      text.append(key(i)).append(" = ").append(key(i + 1)).append(" + 1\n");
+    }
+    return text.append(key(n - 1)).append(" = 1\n").toString();
+  }
+
+  /** Return a section of n keys using one base key, and one key using all the n keys. */
+  public static String wideFanIn(int n) {
+    StringBuilder text = new StringBuilder("[fan]\nbase = 1\n");
+    StringBuilder all = new StringBuilder("all = [");
+    for (int i = 0; i < n; i++) {
+      text.append(key(i)).append(" = base + ").append(i).append("\n");
+      all.append(i == 0 ? "" : ", ").append(key(i));
+    }
+    return text.append(all).append("]\n").toString();
+  }
+
+  /**
+   * Return a section of n keys, each using the next m keys in a ring, like {@link #ringOfKeys}. All
+   * keys are in one cycle error.
+   */
+  public static String denseCycles(int n, int m) {
+    StringBuilder text = new StringBuilder("[ring]\n");
+    for (int i = 0; i < n; i++) {
+      text.append(key(i)).append(" = 0");
+      for (int j = 1; j <= m; j++) {
+        text.append(" + ").append(key((i + j) % n));
+      }
+      text.append("\n");
+    }
+    return text.toString();
+  }
+
+  /** Return a section of a string literal and an array literal, both about length characters. */
+  public static String hugeLiterals(int length) {
+    StringBuilder text = new StringBuilder("[huge]\nstr = '");
+    for (int i = 0; i < length; i++) {
+      text.append((char) ('a' + i % 26));
+    }
+    text.append("'\nlist = [0");
+    for (int i = 1; text.length() < 2 * length; i++) {
+      text.append(", ").append(i);
+    }
+    return text.append("]\n").toString();
+  }
+
+  /** Return sorted names of n numbered keys. */
+  public static List<String> keys(int n) {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      keys.add(key(i));
+    }
+    return keys;
+  }
+
+  /**
+   * Return a used-key map of n keys, each using the next m keys in a ring. All keys are in one
+   * strongly connected component with many cycles, which is the worst case of cycle detection.
+   */
+  public static Map<String, Set<String>> ringOfKeys(int n, int m) {
+    List<String> keys = keys(n);
+    Map<String, Set<String>> keyUseSet = new HashMap<>();
+    for (int i = 0; i < n; i++) {
+      Set<String> used = new HashSet<>();
+      for (int j = 1; j <= m; j++) {
+        used.add(keys.get((i + j) % n));
+      }
+      keyUseSet.put(keys.get(i), used);
+    }
+    return keyUseSet;
+  }
+}
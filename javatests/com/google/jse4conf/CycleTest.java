@@ -14,8 +14,12 @@
 
 package com.google.jse4conf;
 
+import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -66,6 +70,7 @@ public class CycleTest extends ConfTestBase {
   @Test
   public void twoCycles() {
     // Two big cycles detected, without user input dependency list.
+    // One cycle is reported for every strongly connected component.
     String input =
         "[twoCycles]\nz3=3+z7\nz4=4+z5+z9\nz5=5+z6\nz6=6+z7\nz7=7+z8\n"
             + "z8=8+z5\nz9=9+z1\nz1=1+z4\n";
@@ -74,13 +79,8 @@ public class CycleTest extends ConfTestBase {
             + "  const z6 = 6 + z7;\n  const z5 = 5 + z6;\n  const z9 = 9 + z1;\n"
             + "  const z4 = 4 + z5 + z9;\n  const z1 = 1 + z4;\n  const z3 = 3 + z7;\n"
             + "  return {z1:z1,z3:z3,z4:z4,z5:z5,z6:z6,z7:z7,z8:z8,z9:z9,};\n"
-            + "  // cycle: z5 => z6 => z7 => z8 => z5\n"
             + "  // cycle: z1 => z4 => z9 => z1\n"
-            + "  // cycle: z7 => z8 => z5 => z6 => z7\n"
-            + "  // cycle: z4 => z9 => z1 => z4\n"
-            + "  // cycle: z6 => z7 => z8 => z5 => z6\n"
-            + "  // cycle: z8 => z5 => z6 => z7 => z8\n"
-            + "  // cycle: z9 => z1 => z4 => z9\n}();\n";
+            + "  // cycle: z5 => z6 => z7 => z8 => z5\n}();\n";
     assertEquals(output, compileConf(input));
     assertEquals(output, compileConf(input)); // Repeated compilation is okay.
     // When compileConf without a JS environment, there is no test eval of key values,
@@ -101,15 +101,29 @@ public class CycleTest extends ConfTestBase {
             + JS.undefinedError("z6", "6 + z7", "z7")
             + JS.undefinedError("z9", "9 + z1", "z1")
             + "  return {z1:z1,z3:z3,z4:z4,z5:z5,z6:z6,z7:z7,z8:z8,z9:z9,zz:zz,};\n"
-            + "  // cycle: z1 => z4 => z9 => z1\n"
-            + "  // cycle: z4 => z9 => z1 => z4\n"
-            + "  // cycle: z9 => z1 => z4 => z9\n}();\n";
+            + "  // cycle: z1 => z4 => z9 => z1\n}();\n";
     assertEquals(output, compileConf(input, true));
     assertEquals(output, compileConf(input, true));
     // When compileConf with JS environment, test eval of key values will convert cyclic references
     // like "z6 = 6 + z7" to strings "z6 = '6 + z7'".
   }
 
+  @Test
+  public void longDependencyList() {
+    // A ring of keys resolved by a list of all keys; a list regex overflowed the Java stack.
+    int n = 20000;
+    StringBuilder input = new StringBuilder("[ring]\n");
+    StringBuilder list = new StringBuilder("all=[");
+    for (int i = 0; i < n; i++) {
+      input.append(String.format("k%05d=k%05d+1\n", i, (i + 1) % n));
+      list.append(i == 0 ? "" : ", ").append(String.format("k%05d", i));
+    }
+    input.append(list).append("]\n");
+    String output = compileConf(input.toString());
+    assertThat(output).contains("  const all = [k00000, k00001, k00002,");
+    assertThat(output).doesNotContain("// cycle:");
+  }
+
   @Test
   public void dependencyList2() {
     // Two cycles detected, both resolved by dependency list zz.
@@ -127,4 +141,59 @@ public class CycleTest extends ConfTestBase {
     assertEquals(output, compileConf(input, true));
     assertEquals(output, compileConf(input, true)); // Repeated compilation is okay.
   }
+
+  @Test
+  public void denseCycles() {
+    // Every key uses every other key; only one cycle is reported.
+    String input = "[dense]\n";
+    for (int i = 0; i < 8; i++) {
+      input += "k" + i + "=0";
+      for (int j = 0; j < 8; j++) {
+        input += (i == j) ? "" : ("+k" + j);
+      }
+      input += "\n";
+    }
+    String output = compileConf(input);
+    assertThat(output).contains("  // cycle: k0 => k1 => k0\n}();\n");
+    assertEquals(1, output.split("// cycle:").length - 1);
+  }
+
+  // Return a cycle finder of n keys, each using the next m keys in a ring.
+  private static CycleFinder ringOfKeys(int n, int m, Set<String> dependencySet) {
+    return new CycleFinder(
+        new KeyGraph(ConfigGenerator.keys(n), ConfigGenerator.ringOfKeys(n, m)), dependencySet);
+  }
+
+  @Test
+  public void dependencySetInCycles() {
+    // A cycle with 2 keys in the dependency list is resolved.
+    Set<String> dependencySet = new HashSet<>(Arrays.asList("k000000", "k000002"));
+    assertThat(ringOfKeys(4, 1, dependencySet).findCycles()).isEmpty();
+    // A cycle with 1 key in the dependency list is reported.
+    dependencySet = new HashSet<>(Arrays.asList("k000001"));
+    assertEquals(
+        "[[k000001, k000002, k000003, k000000]]",
+        ringOfKeys(4, 1, dependencySet).findCycles().toString());
+    // A cycle that avoids dependency list keys is reported first.
+    dependencySet = new HashSet<>(Arrays.asList("k000000", "k000002"));
+    assertEquals(
+        "[[k000001, k000003, k000005]]",
+        ringOfKeys(6, 2, dependencySet).findCycles().toString());
+  }
+
+  @Test
+  public void deepChain() {
+    // Each key uses the next key; the last key is emitted first.
+    // Such a long chain used to overflow the Java stack.
+    int n = 20000;
+    StringBuilder input = new StringBuilder("[deep]\n");
+    for (int i = 0; i < n - 1; i++) {
+      input.append(String.format("k%05d=k%05d+1\n", i, i + 1));
+    }
+    input.append(String.format("k%05d=1\n", n - 1));
+    String output = compileConf(input.toString());
+    assertThat(output).startsWith("var deep = function() {\n  const k19999 = 1;\n");
+    assertThat(output).contains("  const k00001 = k00002 + 1;\n  const k00000 = k00001 + 1;\n");
+    assertThat(output).doesNotContain("// cycle:");
+  }
 }
@@ -0,0 +1,127 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class EvaluationCacheTest extends ConfTestBase {
+
+  private static String fingerprint(Object value) {
+    return EvaluationCache.CONTENTS.fingerprint("CL", value);
+  }
+
+  @Test
+  public void contentsFingerprints() {
+    Map<String, Object> a = new LinkedHashMap<>();
+    a.put("Id", 101);
+    a.put("Branch", "master");
+    Map<String, Object> b = new LinkedHashMap<>();
+    b.put("Branch", "master");
+    b.put("Id", 101.0);
+    assertEquals(fingerprint(a), fingerprint(b));
+    assertFalse(fingerprint(a).equals(fingerprint(Collections.singletonMap("Id", 101))));
+    assertEquals(fingerprint(Arrays.asList(1, "x")), fingerprint(new Object[] {1, "x"}));
+    assertFalse(fingerprint("1").equals(fingerprint(1)));
+    assertFalse(
+        fingerprint(Arrays.asList("ab", "c")).equals(fingerprint(Arrays.asList("a", "bc"))));
+    assertNull(fingerprint(new Object()));
+    assertNull(fingerprint(Collections.singletonMap("x", new Object())));
+  }
+
+  // Return the cache keys of keys k1 and k2 in section s for a binding.
+  private static String[] cacheKeys(
+      EvaluationCache cache, Map<String, ?> binding, List<String> names) {
+    Map<String, String> fingerprints = new HashMap<>();
+    return new String[] {
+      cache.cacheKey("s", "k1", names, false, binding, fingerprints),
+      cache.cacheKey("s", "k2", Collections.emptyList(), false, binding, fingerprints)
+    };
+  }
+
+  @Test
+  public void cachedValues() throws Exception {
+    EvaluationCache cache = new EvaluationCache();
+    List<String> usesCL = Collections.singletonList("CL");
+    String[] keys1 = cacheKeys(cache, Collections.singletonMap("CL", 1), usesCL);
+    String[] keys2 = cacheKeys(cache, Collections.singletonMap("CL", 2), usesCL);
+    String[] unbound = cacheKeys(cache, Collections.emptyMap(), usesCL);
+    assertFalse(keys1[0].equals(keys2[0]));
+    assertFalse(keys1[0].equals(unbound[0]));
+    assertEquals(keys1[1], keys2[1]); // k2 does not use CL
+    assertNull(cacheKeys(cache, Collections.singletonMap("CL", new Object()), usesCL)[0]);
+    assertEquals(1, cache.getBypassCount());
+
+    assertNull(cache.getAll(keys1));
+    cache.putAll(keys1, new Object[] {"a", null});
+    assertArrayEquals(new Object[] {"a", null}, cache.getAll(keys1));
+    assertNull(cache.getAll(keys2)); // k1 is not cached for CL=2
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(2, cache.size());
+    cache.invalidateAll();
+    assertNull(cache.getAll(keys1));
+  }
+
+  @Test
+  public void callingKeys() {
+    EvaluationCache cache = new EvaluationCache();
+    Map<String, ?> binding = Collections.singletonMap("CL", 1);
+    Map<String, String> fingerprints = new HashMap<>();
+    List<String> usesFunction = Arrays.asList("CL", "isWeekend");
+    assertNotNull(cache.cacheKey("s", "k", usesFunction, false, binding, fingerprints));
+    // A calling key could call the unbound isWeekend.
+    assertNull(cache.cacheKey("s", "k", usesFunction, true, binding, fingerprints));
+    assertEquals(1, cache.getBypassCount());
+    // Standard functions and bound names can be called.
+    List<String> usesMath = Arrays.asList("CL", "Math");
+    assertNotNull(cache.cacheKey("s", "k", usesMath, true, binding, fingerprints));
+    cache.setPureNames(Collections.singletonList("isWeekend"));
+    assertNotNull(cache.cacheKey("s", "k", usesFunction, true, binding, fingerprints));
+    assertEquals(1, cache.getBypassCount());
+  }
+
+  @Test
+  public void eviction() throws Exception {
+    EvaluationCache cache = new EvaluationCache().setMaxEntries(2).setSoftValues(true);
+    List<String> usesCL = Collections.singletonList("CL");
+    String[] keys1 = cacheKeys(cache, Collections.singletonMap("CL", 1), usesCL);
+    String[] keys2 = cacheKeys(cache, Collections.singletonMap("CL", 2), usesCL);
+    cache.putAll(keys1, new Object[] {1, 0});
+    cache.putAll(keys2, new Object[] {2, 0});
+    // k1 of CL=1 is the least recently used entry.
+    assertEquals(2, cache.size());
+    assertNull(cache.getAll(keys1));
+    assertNotNull(cache.getAll(keys2));
+    cache.setExpireAfter(1, TimeUnit.NANOSECONDS).putAll(keys1, new Object[] {1, 0});
+    Thread.sleep(1);
+    assertNull(cache.getAll(keys1));
+  }
+}
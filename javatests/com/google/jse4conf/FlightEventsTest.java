@@ -0,0 +1,110 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FlightEventsTest extends ConfTestBase {
+  private static final String PREFIX = "com.google.jse4conf.";
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  // Run the action in a recording of all jse4conf events; return the recorded events.
+  private List<RecordedEvent> record(Runnable action) throws Exception {
+    Path file = tmp.newFile("events.jfr").toPath();
+    try (Recording recording = new Recording()) {
+      for (String name :
+          Arrays.asList(
+              "SectionCompiled",
+              "KeyEvaluated",
+              "CycleDetected",
+              "CompileError",
+              "PreludeInitialized")) {
+        recording.enable(PREFIX + name).withoutThreshold();
+      }
+      recording.start();
+      action.run();
+      recording.stop();
+      recording.dump(file);
+    }
+    List<RecordedEvent> events = new ArrayList<>();
+    for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+      if (e.getEventType().getName().startsWith(PREFIX)) {
+        events.add(e);
+      }
+    }
+    return events;
+  }
+
+  private static List<RecordedEvent> eventsOf(List<RecordedEvent> events, String name) {
+    List<RecordedEvent> result = new ArrayList<>();
+    for (RecordedEvent e : events) {
+      if (e.getEventType().getName().equals(PREFIX + name)) {
+        result.add(e);
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void directEvents() throws Exception {
+    assertTrue(FlightEvents.AVAILABLE);
+    List<RecordedEvent> events =
+        record(
+            () -> {
+              FlightEvents.sectionCompiled("s", 3, 0, 1, 1000);
+              FlightEvents.cyclesDetected("s", Arrays.asList(Arrays.asList("a", "b")));
+              FlightEvents.compileError("s", "ERROR: bad\n");
+            });
+    RecordedEvent compiled = eventsOf(events, "SectionCompiled").get(0);
+    assertEquals("s", compiled.getString("section"));
+    assertEquals(3, compiled.getInt("keyCount"));
+    assertEquals(1, compiled.getInt("cycleCount"));
+    assertEquals("ok", compiled.getString("outcome"));
+    assertEquals("a => b => a", eventsOf(events, "CycleDetected").get(0).getString("cycle"));
+    assertEquals("ERROR: bad", eventsOf(events, "CompileError").get(0).getString("message"));
+  }
+
+  @Test
+  public void compileEvents() throws Exception {
+    List<RecordedEvent> events =
+        record(
+            () ->
+                new Conf2JS(new JS("var x = 1;"), "var x = 1;")
+                    .compileConfString("[s]\na=x+1\nb=c\nc=b\nd=a+\n", true));
+    assertThat(eventsOf(events, "PreludeInitialized")).isNotEmpty();
+    assertThat(eventsOf(events, "SectionCompiled")).hasSize(1);
+    assertThat(eventsOf(events, "CycleDetected")).hasSize(1);
+    assertThat(eventsOf(events, "KeyEvaluated")).hasSize(4);
+    assertThat(eventsOf(events, "CompileError")).isNotEmpty();
+    assertEquals("errors", eventsOf(events, "SectionCompiled").get(0).getString("outcome"));
+  }
+}
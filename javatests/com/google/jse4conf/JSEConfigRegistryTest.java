@@ -0,0 +1,195 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class JSEConfigRegistryTest extends ConfTestBase {
+  // Flaky() succeeds only once in a JS environment, so a section using it is validated but fails
+  // in its evaluation.
+  private static final String INIT_JS =
+      "var calls = 0;\nfunction Flaky() { if (++calls > 1) throw new Error('flaky'); return 1; }\n";
+
+  private final Map<String, String> texts = new HashMap<>(); // in-memory config sources
+
+  private JSEConfigRegistry newRegistry() {
+    return new JSEConfigRegistry(
+        (name) -> {
+          String text = texts.get(name);
+          if (text == null) {
+            return null;
+          }
+          Config config = new Config();
+          config.fromText(text);
+          return config;
+        },
+        INIT_JS);
+  }
+
+  private static String content(int k) {
+    return "[s]\nuseJSE=true\nk=" + k + "\n";
+  }
+
+  @Test
+  public void loadOnFirstUse() throws Exception {
+    texts.put("a", content(1));
+    JSEConfigRegistry registry = newRegistry();
+    assertFalse(registry.contains("a"));
+    JSEConfig a = registry.get("a");
+    assertEquals(1, a.getJSInt("s", "k", 0));
+    assertSame(a, registry.get("a"));
+    assertNull(registry.get("none"));
+    assertEquals(1, registry.getLoadCount());
+    assertEquals(1, registry.getHitCount());
+    registry.invalidate("a");
+    assertFalse(registry.contains("a"));
+    texts.put("a", content(2));
+    assertEquals(2, registry.get("a").getJSInt("s", "k", 0));
+  }
+
+  @Test
+  public void evictLeastRecentlyUsed() throws Exception {
+    for (String name : Arrays.asList("a", "b", "c")) {
+      texts.put(name, content(1));
+    }
+    JSEConfigRegistry registry = newRegistry().setMaxEntries(2);
+    registry.get("a");
+    registry.get("b");
+    registry.get("a");
+    registry.get("c");
+    assertTrue(registry.contains("a"));
+    assertFalse(registry.contains("b"));
+    assertTrue(registry.contains("c"));
+    assertEquals(1, registry.getEvictionCount());
+  }
+
+  @Test
+  public void evictByWeight() throws Exception {
+    for (String name : Arrays.asList("a", "b", "c")) {
+      texts.put(name, content(1));
+    }
+    StringBuilder large = new StringBuilder(content(1));
+    for (int i = 0; i < 10; i++) {
+      large.append("k").append(i).append("=").append(i).append("\n");
+    }
+    texts.put("large", large.toString());
+    JSEConfigRegistry registry = newRegistry();
+    registry.get("a");
+    long weight = registry.getWeight();
+    registry.setMaxWeight(2 * weight);
+    registry.get("b");
+    registry.get("c");
+    assertEquals(2, registry.size());
+    assertEquals(2 * weight, registry.getWeight());
+    assertFalse(registry.contains("a"));
+    // The newest config is kept, even if it alone is over the limit.
+    registry.get("large");
+    assertEquals(1, registry.size());
+    assertTrue(registry.contains("large"));
+  }
+
+  @Test
+  public void failedConfigIsRegistered() throws Exception {
+    texts.put("broken", "[p]\nv=plain\n[s]\nuseJSE=true\nk=Flaky()\n[t]\nuseJSE=true\nk=2\n");
+    JSEConfigRegistry registry = newRegistry();
+    JSEConfig broken = registry.get("broken");
+    assertNotNull(broken);
+    assertSame(broken, registry.get("broken"));
+    assertTrue(registry.hasFailed("broken"));
+    assertEquals("plain", broken.getString("p", null, "v"));
+    assertEquals(2, broken.getJSInt("t", "k", 0));
+    assertEquals(1, registry.getLoadCount());
+    assertEquals(1, registry.getFailedCount());
+    // A fixed config is compiled after invalidate.
+    texts.put("broken", content(3));
+    registry.invalidate("broken");
+    assertEquals(3, registry.get("broken").getJSInt("s", "k", 0));
+    assertFalse(registry.hasFailed("broken"));
+    assertEquals(2, registry.getLoadCount());
+  }
+
+  @Test
+  public void invalidateDuringLoad() throws Exception {
+    texts.put("a", content(1));
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    JSEConfigRegistry registry =
+        new JSEConfigRegistry(
+            (name) -> {
+              Config config = new Config();
+              config.fromText(texts.get(name));
+              started.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+              }
+              return config;
+            },
+            INIT_JS);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<JSEConfig> old = executor.submit(() -> registry.get("a"));
+      started.await();
+      texts.put("a", content(2));
+      registry.invalidate("a");
+      release.countDown();
+      assertEquals(1, old.get().getJSInt("s", "k", 0));
+    } finally {
+      executor.shutdown();
+    }
+    // The old load is not added, so the new text is loaded.
+    assertFalse(registry.contains("a"));
+    assertEquals(2, registry.get("a").getJSInt("s", "k", 0));
+  }
+
+  @Test
+  public void warmInParallel() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      texts.put("r" + i, content(i));
+    }
+    JSEConfigRegistry registry = newRegistry();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      registry.warm(texts.keySet(), executor).get();
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(20, registry.size());
+    assertEquals(20, registry.getLoadCount());
+    JSEConfig r7 = registry.get("r7");
+    assertNotNull(r7);
+    assertEquals(7, r7.getJSInt("s", "k", 0));
+    assertEquals(20, registry.getLoadCount());
+  }
+}
@@ -15,12 +15,24 @@
 package com.google.jse4conf;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.transport.RefSpec;
@@ -301,4 +313,449 @@ public final class JSEConfigTest extends ConfTestBase {
             + "  k2: \"P2:test\",\n  useJSE: true,\n};\n";
     assertEquals(t2Dump, myConfig.dumpJSValues("T1", null));
   }
+
+  // A listener that counts evaluated sections.
+  private static final class EvaluationCounter implements MetricsListener {
+    final List<String> evaluated = new ArrayList<>();
+
+    @Override
+    public void phaseTime(String section, Phase phase, long nanos) {
+      if (phase == Phase.EVALUATION) {
+        evaluated.add(section);
+      }
+    }
+  }
+
+  @Test
+  public void crossSectionReferences() throws Exception {
+    String content =
+        "[SampleCL]\nuseJSE=true\nauthorIsSuperUser=Common.isSuperUser(CL.Author)\n"
+            + "uploaderIsSuperUser=Common.isSuperUser(CL.Uploader)\n"
+            + "[Common]\nuseJSE=true\nisSuperUser=(x) => SuperUsers.indexOf(x.Id) >= 0\n"
+            + "SuperUsers=[101, 107]\n"
+            + "[Other \"s1\"]\nuseJSE=true\nn=Common.SuperUsers.length + SampleCL.k\n";
+    String initJS = "var CL = {Author: {Id: 101}, Uploader: {Id: 102}};";
+    Config config = new Config();
+    config.fromText(content);
+    JSEConfig myConfig = new JSEConfig(config);
+    EvaluationCounter counter = new EvaluationCounter();
+    assertTrue(myConfig.setJSCode(initJS).setMetricsListener(counter).compileJS());
+    // Common is evaluated once, before the sections that refer to it.
+    assertThat(counter.evaluated).containsExactly("Common", "SampleCL", "OtherS1").inOrder();
+    assertTrue(myConfig.getJSBoolean("SampleCL", "authorIsSuperUser", false));
+    assertFalse(myConfig.getJSBoolean("SampleCL", "uploaderIsSuperUser", true));
+    assertThat(myConfig.dumpJSSource("SampleCL"))
+        .contains("const authorIsSuperUser = Common.isSuperUser(CL.Author);\n");
+    // SampleCL.k is undefined, but the reference to Common is valid.
+    assertEquals("NaN", myConfig.getJSString("Other", "s1", "n"));
+    // A section compiled alone gets the values of other compiled sections it refers to, and the
+    // sections using it are evaluated again.
+    counter.evaluated.clear();
+    assertTrue(myConfig.compileJS("SampleCL"));
+    assertThat(counter.evaluated).containsExactly("SampleCL", "OtherS1").inOrder();
+    assertTrue(myConfig.getJSBoolean("SampleCL", "authorIsSuperUser", false));
+  }
+
+  @Test
+  public void keyShadowsSectionName() throws Exception {
+    String content =
+        "[A]\nuseJSE=true\nB=({x: 1})\ny=B.x\n[B]\nuseJSE=true\nx=2\n[C]\nuseJSE=true\n"
+            + "y=B.x + A.y\n";
+    Config config = new Config();
+    config.fromText(content);
+    JSEConfig myConfig = new JSEConfig(config, null);
+    assertEquals(1, myConfig.getJSInt("A", "y", 0));
+    assertEquals(3, myConfig.getJSInt("C", "y", 0));
+  }
+
+  @Test
+  public void cyclicSectionReferences() throws Exception {
+    String content = "[A]\nuseJSE=true\nx=B.y\nz=1\n[B]\nuseJSE=true\ny=A.z\n";
+    Config config = new Config();
+    config.fromText(content);
+    JSEConfig myConfig = new JSEConfig(config, null);
+    // B is evaluated first, when A is not defined yet; its y becomes a string.
+    assertEquals("A.z", myConfig.getJSString("B", "y"));
+    assertEquals("A.z", myConfig.getJSString("A", "x"));
+    assertEquals(1, myConfig.getJSInt("A", "z", 0));
+  }
+
+  @Test
+  public void inheritParentConfig() throws Exception {
+    String parentContent =
+        "[Common]\nuseJSE=true\nisSuperUser=(x) => SuperUsers.indexOf(x.Id) >= 0\n"
+            + "SuperUsers=[101, 107]\n"
+            + "[SampleCL]\nuseJSE=true\nmaxFiles=5\ntooLarge=CL.Files > maxFiles\n"
+            + "authorIsSuperUser=Common.isSuperUser(CL.Author)\nowner=noSuchName\n"
+            + "[Stats]\nuseJSE=true\nlimit=SampleCL.maxFiles * 2\n"
+            + "[Extra]\nuseJSE=true\nk=1\n";
+    String initJS = "var CL = {Author: {Id: 101}, Files: 7};";
+    Config parentConfig = new Config();
+    parentConfig.fromText(parentContent);
+    EvaluationCounter counter = new EvaluationCounter();
+    JSEConfig parent = new JSEConfig(parentConfig).setJSCode(initJS).setMetricsListener(counter);
+    assertTrue(parent.compileJS());
+    counter.evaluated.clear();
+    Config childConfig = new Config();
+    childConfig.fromText("[SampleCL]\nmaxFiles=10\n[Extra]\nj=k + 1\n");
+    JSEConfig child = JSEConfig.inherit(parent, childConfig);
+    assertThat(child.getParent()).isSameInstanceAs(parent);
+    // Common is shared with parent; Stats refers to the changed SampleCL.
+    assertThat(counter.evaluated).containsExactly("SampleCL", "Extra", "Stats");
+    assertThat(child.getNames("SampleCL", null))
+        .containsExactly("useJSE", "maxFiles", "tooLarge", "authorIsSuperUser", "owner");
+    assertThat(child.getJSValue("Common", "SuperUsers"))
+        .isSameInstanceAs(parent.getJSValue("Common", "SuperUsers"));
+    assertEquals(10, child.getJSInt("SampleCL", "maxFiles", 0));
+    assertFalse(child.getJSBoolean("SampleCL", "tooLarge", true));
+    assertTrue(child.getJSBoolean("SampleCL", "authorIsSuperUser", false));
+    assertEquals(20, child.getJSInt("Stats", "limit", 0));
+    assertEquals(2, child.getJSInt("Extra", "j", 0));
+    // Errors of unchanged keys are kept.
+    assertEquals("noSuchName", child.getJSString("SampleCL", "owner"));
+    assertThat(child.dumpJSSource("SampleCL")).contains("// ERROR: owner = noSuchName\n");
+    // Parent values are not changed.
+    assertEquals(5, parent.getJSInt("SampleCL", "maxFiles", 0));
+    assertTrue(parent.getJSBoolean("SampleCL", "tooLarge", false));
+    assertEquals(10, parent.getJSInt("Stats", "limit", 0));
+    assertFalse(parent.hasJSKey("Extra", "j"));
+  }
+
+  @Test
+  public void inheritChangedReferences() throws Exception {
+    String parentContent =
+        "[Common]\nuseJSE=true\nf=() => 1\nk=2\n"
+            + "[S]\nuseJSE=true\nx=Common.f()\ny=Common.k + 1\nz=3\n";
+    // A child changes the function Common.f to a number, or stops compiling Common.
+    String[][] changes = {{"f", "5", "3"}, {"useJSE", "false", "Common.k + 1"}};
+    for (String[] change : changes) {
+      Config parentConfig = new Config();
+      parentConfig.fromText(parentContent);
+      JSEConfig parent = new JSEConfig(parentConfig, null);
+      Config childConfig = new Config();
+      childConfig.setString("Common", null, change[0], change[1]);
+      JSEConfig child = JSEConfig.inherit(parent, childConfig);
+      Config combined = new Config();
+      combined.fromText(parentContent);
+      combined.setString("Common", null, change[0], change[1]);
+      JSEConfig fresh = new JSEConfig(combined, null);
+      // Unchanged keys of S using Common are evaluated again, like in a full compile.
+      for (String key : new String[] {"x", "y", "z"}) {
+        assertEquals(
+            change[0] + ": " + key,
+            String.valueOf(fresh.getJSValue("S", key)),
+            String.valueOf(child.getJSValue("S", key)));
+        assertEquals(fresh.getJSString("S", key), child.getJSString("S", key));
+      }
+      assertEquals("Common.f()", child.getJSValue("S", "x"));
+      Object y = child.getJSValue("S", "y");
+      assertEquals(change[2], (y instanceof Number) ? String.valueOf(JS.toJava(y, 0)) : y);
+      assertEquals(3, child.getJSInt("S", "z", 0));
+      assertEquals(1, parent.getJSInt("S", "x", 0));
+    }
+  }
+
+  @Test
+  public void freezeOnlyCreatedSections() throws Exception {
+    Config parentConfig = new Config();
+    parentConfig.fromText(
+        "[Common]\nuseJSE=true\nk=2\n"
+            + "[S]\nuseJSE=true\ny=Common.k + 1\n[T]\nuseJSE=true\nz=3\n");
+    JSEConfig parent = new JSEConfig(parentConfig, null);
+    Config childConfig = new Config();
+    childConfig.setString("Common", null, "k", "5");
+    JSEConfig child = JSEConfig.inherit(parent, childConfig).setFreezeSections(true);
+    assertTrue(child.compileJS());
+    assertEquals(6, child.getJSInt("S", "y", 0));
+    // Common is changed and S uses it, so the child compiles and freezes its own copies.
+    for (String name : new String[] {"Common", "S"}) {
+      assertTrue(name, child.compiledSection(name).isFrozen());
+      assertFalse(name, parent.compiledSection(name).isFrozen());
+    }
+    // T is shared with the parent and stays unfrozen.
+    assertTrue(parent.compiledSection("T") == child.compiledSection("T"));
+    assertFalse(child.compiledSection("T").isFrozen());
+    assertEquals(3, parent.getJSInt("S", "y", 0));
+    childConfig.setString("Common", null, "k", "7");
+    JSEConfig sibling = JSEConfig.inherit(parent, childConfig);
+    assertEquals(8, sibling.getJSInt("S", "y", 0));
+  }
+
+  @Test
+  public void compileSectionWithUsers() throws Exception {
+    String content =
+        "[A]\nuseJSE=true\nx=1\nf=() => 2\n"
+            + "[B]\nuseJSE=true\ny=A.x + 1\nv=A.f()\nw=3\n"
+            + "[C]\nuseJSE=true\nz=B.y * 10\n[D]\nuseJSE=true\nk=4\n";
+    Config config = new Config();
+    config.fromText(content);
+    EvaluationCounter counter = new EvaluationCounter();
+    JSEConfig myConfig = new JSEConfig(config).setMetricsListener(counter);
+    assertTrue(myConfig.compileJS());
+    counter.evaluated.clear();
+    config.setString("A", null, "x", "5");
+    config.setString("A", null, "f", "7");
+    assertTrue(myConfig.compileJS("A"));
+    // B and C use A, directly or through B, and are evaluated again; D is not.
+    assertThat(counter.evaluated).containsExactly("A", "B", "C").inOrder();
+    assertEquals(6, myConfig.getJSInt("B", "y", 0));
+    assertEquals(60, myConfig.getJSInt("C", "z", 0));
+    // A.f is not a function anymore, so v becomes a string, like in a full compile.
+    assertEquals("A.f()", myConfig.getJSValue("B", "v"));
+    assertEquals(3, myConfig.getJSInt("B", "w", 0));
+    assertEquals(4, myConfig.getJSInt("D", "k", 0));
+    JSEConfig fresh = new JSEConfig(config, null);
+    for (String key : new String[] {"y", "v", "w"}) {
+      assertEquals(fresh.getJSString("B", key), myConfig.getJSString("B", key));
+    }
+  }
+
+  // Run queued tasks, including tasks queued by them, in this thread.
+  private static void runAll(List<Runnable> tasks) {
+    while (!tasks.isEmpty()) {
+      tasks.remove(0).run();
+    }
+  }
+
+  @Test
+  public void compileAsync() throws Exception {
+    Config config = new Config();
+    config.fromText("[A]\nuseJSE=true\nx=1\n[B]\nuseJSE=true\ny=A.x + 1\n");
+    JSEConfig myConfig = new JSEConfig(config, null);
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      config.setString("A", null, "x", "2");
+      assertTrue(myConfig.compileJSAsync(pool).get());
+      assertEquals(3, myConfig.getJSInt("B", "y", 0));
+      config.setString("A", null, "x", "'z'");
+      assertTrue(myConfig.compileJSAsync(pool, "A", null).get());
+      assertEquals("z", myConfig.getJSString("A", "x"));
+      assertEquals("z1", myConfig.getJSString("B", "y")); // B uses A
+    } finally {
+      pool.shutdown();
+    }
+    // A cancelled compile keeps the old sections.
+    List<Runnable> tasks = new ArrayList<>();
+    Executor queue = tasks::add;
+    config.setString("A", null, "x", "5");
+    CompletableFuture<Boolean> cancelled = myConfig.compileJSAsync(queue);
+    assertFalse(cancelled.isDone());
+    cancelled.cancel(true);
+    runAll(tasks);
+    assertTrue(cancelled.isCancelled());
+    assertEquals("z", myConfig.getJSString("A", "x"));
+    // Compiles over the limit are rejected until pending compiles are done.
+    myConfig.setMaxPendingCompiles(1);
+    CompletableFuture<Boolean> pending = myConfig.compileJSAsync(queue);
+    CompletableFuture<Boolean> rejected = myConfig.compileJSAsync(queue, "B", null);
+    try {
+      rejected.get();
+      fail("expected rejection");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(RejectedExecutionException.class);
+    }
+    runAll(tasks);
+    assertTrue(pending.get());
+    assertEquals(5, myConfig.getJSInt("A", "x", 0));
+    assertEquals(6, myConfig.getJSInt("B", "y", 0));
+    CompletableFuture<Boolean> accepted = myConfig.compileJSAsync(queue, "B", null);
+    runAll(tasks);
+    assertTrue(accepted.get());
+  }
+
+  @Test
+  public void subscribeChangedKeys() throws Exception {
+    String content =
+        "[A]\nuseJSE=true\nx=1\ny=x > 0\nf=(v) => v + x\ng=(v) => v * 2\n"
+            + "[B]\nuseJSE=true\nz=A.x * 2\nh=() => A.g(1)\n[C]\nuseJSE=true\nw=3\n";
+    Config config = new Config();
+    config.fromText(content);
+    JSEConfig myConfig = new JSEConfig(config, null);
+    List<String> calls = new ArrayList<>();
+    ConfigChangeListener sectionA = (c, changed) -> calls.add("A:" + changed);
+    ConfigChangeListener keyY = (c, changed) -> calls.add("y:" + changed);
+    ConfigChangeListener prefixB = (c, changed) -> calls.add("B:" + changed);
+    myConfig
+        .subscribe("A", null, sectionA)
+        .subscribe("A", null, "y", keyY)
+        .subscribePrefix("B.", prefixB)
+        .subscribe("C", null, sectionA);
+    // Compiling the same config again changes nothing.
+    assertTrue(myConfig.compileJS());
+    assertThat(calls).isEmpty();
+    // y is still true and g is the same function; f uses x, and B uses A.
+    config.setString("A", null, "x", "2");
+    assertTrue(myConfig.compileJS());
+    assertThat(calls).containsExactly("A:{A=[f, x]}", "B:{B=[h, z]}").inOrder();
+    // Listeners can be called by an executor, and removed.
+    calls.clear();
+    List<Runnable> tasks = new ArrayList<>();
+    myConfig.setChangeExecutor(tasks::add).unsubscribe(prefixB);
+    config.setString("A", null, "x", "-1");
+    config.setString("C", null, "w", "4");
+    assertTrue(myConfig.compileJS());
+    assertThat(calls).isEmpty();
+    runAll(tasks);
+    assertThat(calls).containsExactly("A:{A=[f, x, y], C=[w]}", "y:{A=[y]}").inOrder();
+  }
+
+  // Return a binding of CL with an author id, number of files, and branch.
+  private static Map<String, Object> clBinding(int author, int files, String branch) {
+    Map<String, Object> cl = new HashMap<>();
+    cl.put("Author", Collections.singletonMap("Id", author));
+    cl.put("Files", Collections.nCopies(files, "f"));
+    cl.put("Branch", branch);
+    return Collections.singletonMap("CL", cl);
+  }
+
+  @Test
+  public void evaluateBatch() throws Exception {
+    String content =
+        "[Common]\nuseJSE=true\nSuperUsers=[101, 107]\n"
+            + "[SampleCL]\nuseJSE=true\nmaxFiles=5\n"
+            + "authorIsSuperUser=Common.SuperUsers.indexOf(CL.Author.Id) >= 0\n"
+            + "size=CL.Files.length\ntooLarge=size > maxFiles\nlabel=CL.Branch + ':' + size\n"
+            + "mixed=size > 3 ? 'many' : size\n";
+    String initJS = "var CL = {Author: {Id: 0}, Files: [], Branch: 'none'};";
+    Config config = new Config();
+    config.fromText(content);
+    JSEConfig myConfig = new JSEConfig(config, initJS);
+    List<Map<String, Object>> bindings = new ArrayList<>();
+    bindings.add(clBinding(101, 6, "refs/heads/master"));
+    bindings.add(clBinding(102, 1, "refs/beta"));
+    bindings.add(Collections.singletonMap("CL", Collections.singletonMap("Files", "x")));
+    bindings.add(Collections.emptyMap()); // CL of the JS code
+    BatchResult result = myConfig.evaluateBatch("SampleCL", null, bindings);
+    assertEquals(4, result.size());
+    assertThat(result.getKeys())
+        .containsExactly(
+            "authorIsSuperUser", "label", "maxFiles", "mixed", "size", "tooLarge", "useJSE")
+        .inOrder();
+    assertArrayEquals(
+        new boolean[] {true, false, false, false}, result.getBooleans("authorIsSuperUser"));
+    assertArrayEquals(new boolean[] {true, false, false, false}, result.getBooleans("tooLarge"));
+    assertArrayEquals(new double[] {6, 1, 0, 0}, result.getNumbers("size"), 0);
+    assertEquals("refs/beta:1", result.getStrings("label")[1]);
+    assertEquals("none:0", result.getValue(3, "label"));
+    // A column of mixed types has the JS values.
+    assertNull(result.getStrings("mixed"));
+    assertEquals("many", result.getValues("mixed")[0].toString());
+    assertEquals(1, JS.toJava(result.getValue(1, "mixed"), 0));
+    // CL.Author is undefined in the third binding.
+    assertEquals(1, result.getErrorCount());
+    assertThat(result.getError(2)).contains("TypeError");
+    assertNull(result.getValue(2, "size"));
+    assertNull(myConfig.evaluateBatch("NoSuchSection", null, bindings));
+  }
+
+  @Test
+  public void evaluateBatchQuotedStrings() throws Exception {
+    Config config = new Config();
+    config.setString("S", null, "useJSE", "true");
+    // An undefined name makes msg a string of its parsed value, which has quotes.
+    config.setString("S", null, "msg", "\"it's\" + undefinedName");
+    config.setString("S", null, "n", "1 + 2");
+    JSEConfig myConfig = new JSEConfig(config, "");
+    assertEquals("\"it's\" + undefinedName", myConfig.getJSString("S", "msg"));
+    List<Map<String, Object>> bindings = new ArrayList<>();
+    bindings.add(Collections.emptyMap());
+    BatchResult result = myConfig.evaluateBatch("S", null, bindings);
+    assertEquals(0, result.getErrorCount());
+    assertEquals("\"it's\" + undefinedName", result.getValue(0, "msg"));
+    assertEquals(3, ((Number) result.getValue(0, "n")).intValue());
+  }
+
+  @Test
+  public void evaluateBatchCached() throws Exception {
+    String content =
+        "[SampleCL]\nuseJSE=true\nsize=CL.Files.length\nlabel=CL.Branch + ':' + size\n"
+            + "[Stamped]\nuseJSE=true\nsize=CL.Files.length\nnow=Date.now()\n";
+    String initJS = "var CL = {Author: {Id: 0}, Files: [], Branch: 'none'};";
+    Config config = new Config();
+    config.fromText(content);
+    JSEConfig myConfig = new JSEConfig(config, initJS);
+    EvaluationCache cache = new EvaluationCache();
+    myConfig.setEvaluationCache(cache);
+    List<Map<String, Object>> bindings = new ArrayList<>();
+    bindings.add(clBinding(101, 6, "refs/heads/master"));
+    bindings.add(clBinding(102, 1, "refs/beta"));
+    bindings.add(clBinding(101, 6, "refs/heads/master")); // the same CL
+    BatchResult result = myConfig.evaluateBatch("SampleCL", null, bindings);
+    assertEquals(2, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+    assertArrayEquals(new double[] {6, 1, 6}, result.getNumbers("size"), 0);
+    assertEquals("refs/heads/master:6", result.getValue(2, "label"));
+    result = myConfig.evaluateBatch("SampleCL", null, bindings);
+    assertEquals(4, cache.getHitCount());
+    assertEquals("refs/beta:1", result.getValue(1, "label"));
+    // Keys using Date are not cached.
+    result = myConfig.evaluateBatch("Stamped", null, bindings);
+    assertEquals(3, cache.getBypassCount());
+    assertEquals(0, result.getErrorCount());
+    // Compiling again invalidates cached values.
+    config.setString("SampleCL", null, "label", "'new:' + size");
+    assertTrue(myConfig.compileJS());
+    assertEquals(0, cache.size());
+    result = myConfig.evaluateBatch("SampleCL", null, bindings);
+    assertEquals("new:1", result.getValue(1, "label"));
+    assertEquals(4, cache.getMissCount());
+  }
+
+  @Test
+  public void evaluateBatchCalls() throws Exception {
+    String content =
+        "[Common]\nuseJSE=true\nnext=() => tick()\n"
+            + "[S]\nuseJSE=true\nbranch=CL.Branch.toUpperCase()\n"
+            + "[T]\nuseJSE=true\nn=tick()\n[U]\nuseJSE=true\nm=Common.next() + size\n"
+            + "size=Math.max(CL.Files.length, 0)\n";
+    Config config = new Config();
+    config.fromText(content);
+    String jsCode =
+        "var CL = {Author: {Id: 0}, Files: [], Branch: 'none'};"
+            + "var count = 0; function tick() { return ++count; }";
+    JSEConfig myConfig = new JSEConfig(config, jsCode);
+    EvaluationCache cache = new EvaluationCache();
+    myConfig.setEvaluationCache(cache);
+    List<Map<String, Object>> bindings = new ArrayList<>();
+    bindings.add(clBinding(101, 6, "master"));
+    bindings.add(clBinding(101, 6, "master"));
+    // Calls of bound values and standard functions are cached.
+    BatchResult result = myConfig.evaluateBatch("S", null, bindings);
+    assertEquals(1, cache.getHitCount());
+    assertEquals("MASTER", result.getValue(1, "branch"));
+    // Calls of JS code and section functions are not cached.
+    result = myConfig.evaluateBatch("T", null, bindings);
+    assertArrayEquals(new double[] {1, 2}, result.getNumbers("n"), 0);
+    result = myConfig.evaluateBatch("U", null, bindings);
+    assertArrayEquals(new double[] {7, 8}, result.getNumbers("m"), 0);
+    assertEquals(4, cache.getBypassCount());
+    assertEquals(1, cache.getHitCount());
+    // Unless they are declared pure; each batch runs the JS code again.
+    cache.setPureNames(Collections.singletonList("tick"));
+    result = myConfig.evaluateBatch("T", null, bindings);
+    assertArrayEquals(new double[] {1, 1}, result.getNumbers("n"), 0);
+    assertEquals(2, cache.getHitCount());
+  }
+
+  @Test
+  public void scopeProfiles() throws Exception {
+    String content =
+        "[A]\nuseJSE=true\nx=[2, one].sort().join()\n"
+            + "[B]\nuseJSE=true\ny=A.x + ':' + java.lang.Math.abs(-2)\n";
+    Config config = new Config();
+    config.fromText(content);
+    JSEConfig myConfig = new JSEConfig(config, "var one = 1;");
+    assertEquals("1,2:2", myConfig.getJSValue("B", "y").toString());
+    // B uses java, so it is compiled in SEALED scopes instead of MINIMAL ones.
+    myConfig.setScopeProfile(ScopeProfile.MINIMAL);
+    assertTrue(myConfig.compileJS(true));
+    assertEquals("1,2", myConfig.getJSValue("A", "x").toString());
+    assertEquals("1,2:2", myConfig.getJSValue("B", "y").toString());
+    assertTrue(myConfig.compileJS("A"));
+    assertEquals("1,2", myConfig.getJSValue("A", "x").toString());
+    List<Section> none = Collections.emptyList();
+    assertEquals(ScopeProfile.MINIMAL, ScopeProfile.MINIMAL.forCode("var one = 1;", none));
+    assertEquals(ScopeProfile.SEALED, ScopeProfile.MINIMAL.forCode("java.lang", none));
+    assertEquals(ScopeProfile.SEALED, ScopeProfile.SEALED.forCode("", none));
+  }
 }
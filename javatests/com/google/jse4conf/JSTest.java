@@ -249,4 +249,37 @@ public class JSTest extends TestBase {
     assertEquals("5", js2.eval2String("c"));
     assertEquals(JS.rhinoUndefinedError("c", "<str>", 1), js1.eval2String("c"));
   }
+
+  @Test
+  public void scopeProfiles() {
+    String code = "a=[3, 1, 2].sort().join('-') + JSON.stringify({b: Math.max(1, 2)})";
+    for (ScopeProfile profile : ScopeProfile.values()) {
+      JS js1 = new JS(code, profile);
+      assertEquals(profile, js1.getScopeProfile());
+      assertEquals("1-2-3{\"b\":2}", js1.eval2String("a"));
+      assertEquals("2019", js1.eval2String("new Date(2019, 1, 1).getFullYear()"));
+      JS js2 = new JS(js1); // a new scope of the same profile
+      assertEquals(profile, js2.getScopeProfile());
+      js2.eval("a=1; var Math = 0; function f() { return Math; }");
+      assertEquals("0", js2.eval2String("f()"));
+      // Names defined in js2 do not change js1.
+      assertEquals("1-2-3{\"b\":2}", js1.eval2String("a"));
+      assertEquals("3", js1.eval2String("Math.max(1, 3)"));
+      // Only MINIMAL scopes have no Java packages.
+      String javaType = (profile == ScopeProfile.MINIMAL) ? "undefined" : "object";
+      assertEquals(javaType, js1.eval2String("typeof java"));
+      // Only STANDARD scopes can change their standard objects.
+      String changed = js1.eval2String("Array.prototype.x = 1");
+      if (profile == ScopeProfile.STANDARD) {
+        assertEquals("1", changed);
+        assertEquals("1", js1.eval2String("[].x"));
+      } else {
+        assertThat(changed).contains("sealed");
+        assertEquals("undefined", js1.eval2String("[].x"));
+      }
+      assertEquals("undefined", js2.eval2String("[].x"));
+      js1.exit();
+      js2.exit();
+    }
+  }
 }
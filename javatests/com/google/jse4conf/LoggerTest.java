@@ -0,0 +1,114 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LoggerTest extends ConfTestBase {
+
+  @Test
+  public void disabledMessages() {
+    Logger.RingBuffer buffer = new Logger.RingBuffer(10);
+    Logger logger = new Logger(false, false, buffer);
+    assertFalse(logger.isDebugEnabled());
+    assertFalse(logger.isTraceEnabled());
+    assertFalse(logger.debug("%s", "x"));
+    assertFalse(logger.trace("%s %s", "x", "y"));
+    assertFalse(
+        logger.debug(
+            () -> {
+              throw new AssertionError("supplier of a disabled message is called");
+            }));
+    assertThat(buffer.getLines()).isEmpty();
+  }
+
+  @Test
+  public void enabledMessages() {
+    Logger.RingBuffer buffer = new Logger.RingBuffer(10);
+    Logger logger = new Logger(true, false, buffer);
+    assertTrue(logger.isDebugEnabled());
+    assertFalse(logger.isTraceEnabled());
+    logger.debug("a=%s", 1);
+    logger.debug("%s to %s", "x", "y");
+    logger.debug(() -> "supplied");
+    logger.debug("line\n");
+    logger.trace("not traced");
+    logger.debugKey(1, "Dump", "k");
+    assertThat(buffer.getLines())
+        .containsExactly("a=1", "x to y", "supplied", "line", "#   Dump key: k")
+        .inOrder();
+  }
+
+  @Test
+  public void ringBuffer() {
+    Logger.RingBuffer buffer = new Logger.RingBuffer(2);
+    Logger logger = new Logger(true, true, buffer);
+    logger.trace("1");
+    logger.trace("2");
+    logger.trace("3");
+    assertThat(buffer.getLines()).containsExactly("2", "3").inOrder();
+    buffer.clear();
+    assertThat(buffer.getLines()).isEmpty();
+  }
+
+  @Test
+  public void julSink() {
+    List<String> records = new ArrayList<>();
+    java.util.logging.Logger jul = java.util.logging.Logger.getLogger("jse4conf.LoggerTest");
+    jul.setUseParentHandlers(false);
+    Handler handler =
+        new Handler() {
+          @Override
+          public void publish(LogRecord record) {
+            records.add(record.getLevel() + " " + record.getMessage());
+          }
+
+          @Override
+          public void flush() {}
+
+          @Override
+          public void close() {}
+        };
+    jul.addHandler(handler);
+    try {
+      new Logger(true, false, Logger.julSink(jul, Level.INFO)).debug("hello %s", "jul");
+    } finally {
+      jul.removeHandler(handler);
+    }
+    assertEquals("[INFO hello jul]", records.toString());
+  }
+
+  @Test
+  public void compileMessages() {
+    // Conf2JS and Section debug messages go to the given sink.
+    Logger.RingBuffer buffer = new Logger.RingBuffer(100);
+    new Conf2JS(new Logger(true, false, buffer), null, null).compileConfString("[s]\na=1\n", true);
+    assertThat(buffer.getLines()).contains("### compile Section: s");
+    assertThat(buffer.getLines()).contains("# Dump key: a");
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MetricsTest extends ConfTestBase {
+
+  @Test
+  public void compileCounts() {
+    Metrics metrics = new Metrics();
+    new Conf2JS()
+        .setMetricsListener(metrics)
+        .compileConfString("[s]\na=1\nb=a+1\n[t]\nx=y\ny=x\n", true);
+    assertEquals(2, metrics.getSectionsCompiled());
+    assertEquals(4, metrics.getKeysCompiled());
+    assertEquals(1, metrics.getCycles());
+    assertEquals(0, metrics.getCompileErrors());
+    assertEquals(2, (long) metrics.getPhaseCounts().get("PARSE"));
+    assertEquals(2, (long) metrics.getPhaseCounts().get("DEPENDENCY_ANALYSIS"));
+    assertEquals(2, (long) metrics.getPhaseCounts().get("CYCLE_DETECTION"));
+    assertEquals(0, (long) metrics.getPhaseCounts().get("VALIDATION"));
+    // With a JS environment, key values are validated and errors are counted.
+    metrics.reset();
+    new Conf2JS(new JS()).setMetricsListener(metrics).compileConfString("[s]\na=1\nb=a+\n", true);
+    assertEquals(1, metrics.getSectionsCompiled());
+    assertEquals(1, metrics.getCompileErrors());
+    assertEquals(1, (long) metrics.getPhaseCounts().get("VALIDATION"));
+  }
+
+  @Test
+  public void accessorCounts() throws Exception {
+    Config config = new Config();
+    config.fromText("[s]\nuseJSE=true\nk=1+1\n[t]\nk=2\n");
+    Metrics metrics = new Metrics();
+    JSEConfig myConfig = new JSEConfig(config).setMetricsListener(metrics);
+    metrics.reset();
+    assertEquals(2, myConfig.getJSInt("s", "k", 0)); // hit
+    assertEquals(2, myConfig.getJSInt("t", "k", 0)); // fallback
+    assertEquals("2", myConfig.getJSString("t", "k")); // fallback
+    assertEquals(1, metrics.getAccessorHits());
+    assertEquals(2, metrics.getAccessorFallbacks());
+    assertThat(myConfig.compileJS()).isTrue();
+    assertEquals(1, metrics.getSectionsCompiled());
+    assertEquals(1, (long) metrics.getPhaseCounts().get("EVALUATION"));
+  }
+
+  @Test
+  public void histogram() {
+    Metrics.Histogram h = new Metrics().getHistogram(MetricsListener.Phase.PARSE);
+    assertEquals(0, h.getPercentileNanos(50));
+    for (int i = 1; i <= 100; i++) {
+      h.record(i * 1000);
+    }
+    assertEquals(100, h.getCount());
+    assertEquals(5050000, h.getTotalNanos());
+    assertEquals(100000, h.getMaxNanos());
+    // A percentile is the upper bound of its power-of-two bucket.
+    assertEquals(65535, h.getPercentileNanos(50));
+    assertEquals(100000, h.getPercentileNanos(99));
+  }
+
+  @Test
+  public void jmx() throws Exception {
+    Metrics metrics = new Metrics();
+    metrics.sectionCompiled("s", 3, 1, 0);
+    ObjectName name = metrics.register("MetricsTest");
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      assertEquals(3L, server.getAttribute(name, "KeysCompiled"));
+      assertEquals(1L, server.getAttribute(name, "CompileErrors"));
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+}
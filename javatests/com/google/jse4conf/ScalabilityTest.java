@@ -0,0 +1,210 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Check that compile time and allocated bytes grow within declared bounds as generated inputs
+ * double in size, so a change from linear to quadratic cost fails a test.
+ *
+ * <p>Every input is compiled at sizes n, 2n, and 4n, a few rounds each; the minimum cost of each
+ * size is used to reduce noise from JIT compilation and GC. The cost ratio from n to 4n must not be
+ * larger than 4 to the power of the declared exponent, times a slack factor for time or bytes.
+ * These tests are slow, so they are in their own scalability_test target, not in conf_test.
+ */
+@RunWith(JUnit4.class)
+public class ScalabilityTest extends ConfTestBase {
+  private static final int ROUNDS = 5;
+  private static final double TIME_SLACK = 2.0;
+  private static final double BYTES_SLACK = 1.5;
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  /** Return allocated bytes of this thread, or -1 if not supported. */
+  private static long allocatedBytes() {
+    if (THREADS instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+      if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  /** Return CPU time of this thread, or wall clock time if not supported. */
+  private static long cpuNanos() {
+    return THREADS.isCurrentThreadCpuTimeSupported()
+        ? THREADS.getCurrentThreadCpuTime()
+        : System.nanoTime();
+  }
+
+  /**
+   * Compile generated inputs of sizes n, 2n, and 4n, and check that time and allocated bytes grow
+   * by at most 4^exponent times the slack factors.
+   */
+  private void checkGrowth(String name, int n, double exponent, IntFunction<String> generator) {
+    checkGrowth(
+        name,
+        n,
+        exponent,
+        generator,
+        (input) -> assertTrue(new Conf2JS().compileConfString(input, true).length() > 0));
+  }
+
+  /**
+   * Run compile on generated inputs of sizes n, 2n, and 4n, and check that time and allocated bytes
+   * grow by at most 4^exponent times the slack factors.
+   */
+  private <T> void checkGrowth(
+      String name, int n, double exponent, IntFunction<T> generator, Consumer<T> compile) {
+    int[] sizes = {n, 2 * n, 4 * n};
+    List<T> inputs = new ArrayList<>();
+    long[] nanos = new long[sizes.length];
+    long[] bytes = new long[sizes.length];
+    for (int i = 0; i < sizes.length; i++) {
+      inputs.add(generator.apply(sizes[i]));
+      nanos[i] = Long.MAX_VALUE;
+      bytes[i] = Long.MAX_VALUE;
+    }
+    for (int round = 0; round < ROUNDS; round++) {
+      for (int i = 0; i < sizes.length; i++) {
+        long startBytes = allocatedBytes();
+        long start = cpuNanos();
+        compile.accept(inputs.get(i));
+        nanos[i] = Math.min(nanos[i], cpuNanos() - start);
+        bytes[i] = Math.min(bytes[i], allocatedBytes() - startBytes);
+      }
+    }
+    double bound = Math.pow((double) sizes[2] / sizes[0], exponent);
+    double timeRatio = (double) nanos[2] / Math.max(1, nanos[0]);
+    double bytesRatio = (double) bytes[2] / Math.max(1, bytes[0]);
+    System.out.printf(
+        "%s: sizes %d,%d,%d; micros %d,%d,%d; KB %d,%d,%d;"
+            + " ratios time %.2f, bytes %.2f (bound %.1f)%n",
+        name,
+        sizes[0],
+        sizes[1],
+        sizes[2],
+        nanos[0] / 1000,
+        nanos[1] / 1000,
+        nanos[2] / 1000,
+        bytes[0] / 1024,
+        bytes[1] / 1024,
+        bytes[2] / 1024,
+        timeRatio,
+        bytesRatio,
+        bound);
+    assertTrue(name + " time ratio " + timeRatio, timeRatio <= bound * TIME_SLACK);
+    if (allocatedBytes() >= 0) {
+      assertTrue(name + " bytes ratio " + bytesRatio, bytesRatio <= bound * BYTES_SLACK);
+    }
+  }
+
+  @Test
+  public void manySections() {
+    checkGrowth("manySections", 200, 1, (n) -> ConfigGenerator.generate(n, 10, 3));
+  }
+
+  @Test
+  public void manyKeys() {
+    checkGrowth("manyKeys", 2000, 1, (n) -> ConfigGenerator.generate(1, n, 3));
+  }
+
+  @Test
+  public void deepChain() {
+    checkGrowth("deepChain", 2000, 1, ConfigGenerator::deepChain);
+  }
+
+  @Test
+  public void wideFanIn() {
+    checkGrowth("wideFanIn", 2000, 1, ConfigGenerator::wideFanIn);
+  }
+
+  @Test
+  public void denseCycles() {
+    checkGrowth("denseCycles", 1000, 1, (n) -> ConfigGenerator.denseCycles(n, 4));
+  }
+
+  @Test
+  public void hugeLiterals() {
+    checkGrowth("hugeLiterals", 100000, 1, ConfigGenerator::hugeLiterals);
+  }
+
+  @Test
+  public void cycleDetection() {
+    // An exhaustive path search would never finish on these densely connected keys.
+    checkGrowth(
+        "cycleDetection",
+        25000,
+        1,
+        (n) -> new KeyGraph(ConfigGenerator.keys(n), ConfigGenerator.ringOfKeys(n, 4)),
+        (graph) -> assertEquals(1, new CycleFinder(graph, new HashSet<>()).findCycles().size()));
+  }
+
+  // Return the values of n keys, each using the next key in an expression.
+  private static Map<String, String> generatedKeys(int n) {
+    Map<String, String> keyValues = new LinkedHashMap<>();
+    for (int i = 0; i < n; i++) {
+      keyValues.put(
+          ConfigGenerator.key(i),
+          String.format("%s + '/' + [%d, %d].length", ConfigGenerator.key((i + 1) % n), i, i + 1));
+    }
+    return keyValues;
+  }
+
+  // Compile a new section of keyValues; a compiled section would not be parsed again.
+  private static void compileSection(Map<String, String> keyValues, boolean batchParse) {
+    Section section = new Section("gen").setBatchParse(batchParse);
+    for (Map.Entry<String, String> entry : keyValues.entrySet()) {
+      section.addKeyValue(entry.getKey(), entry.getValue());
+    }
+    section.compile();
+  }
+
+  @Test
+  public void separateParse() {
+    checkGrowth(
+        "separateParse",
+        10000,
+        1,
+        ScalabilityTest::generatedKeys,
+        (keyValues) -> compileSection(keyValues, false));
+  }
+
+  @Test
+  public void batchParse() {
+    checkGrowth(
+        "batchParse",
+        10000,
+        1,
+        ScalabilityTest::generatedKeys,
+        (keyValues) -> compileSection(keyValues, true));
+  }
+}
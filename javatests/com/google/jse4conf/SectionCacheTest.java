@@ -0,0 +1,91 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SectionCacheTest extends ConfTestBase {
+  private static final String POLICY =
+      "[Policy]\nuseJSE=true\nSuperUsers=[101, 107]\n"
+          + "isSuperUser=(x) => SuperUsers.indexOf(x) >= 0\n";
+  private static final String INIT_JS = "var CL = {Author: 101};";
+
+  private static JSEConfig compile(SectionCache cache, String jsCode, String content)
+      throws Exception {
+    Config config = new Config();
+    config.fromText(content);
+    JSEConfig jseConfig = new JSEConfig(config).setJSCode(jsCode).setSectionCache(cache);
+    jseConfig.compileJS();
+    return jseConfig;
+  }
+
+  @Test
+  public void identicalSectionsAreShared() throws Exception {
+    SectionCache cache = new SectionCache();
+    Metrics metrics = new Metrics();
+    JSEConfig c1 = compile(cache, INIT_JS, POLICY + "[Own]\nuseJSE=true\nk=1\n");
+    Config config = new Config();
+    config.fromText(POLICY + "[Own]\nuseJSE=true\nk=2\n");
+    JSEConfig c2 = new JSEConfig(config).setJSCode(INIT_JS).setSectionCache(cache);
+    c2.setMetricsListener(metrics).compileJS();
+    assertEquals(1, cache.getHitCount());
+    assertEquals(3, cache.getMissCount());
+    assertEquals(3, cache.size());
+    assertEquals(1, metrics.getSectionCacheHits());
+    assertEquals(1, metrics.getSectionCacheMisses());
+    assertSame(c1.getJSValue("Policy", "SuperUsers"), c2.getJSValue("Policy", "SuperUsers"));
+    assertEquals(c1.dumpJSSource("Policy"), c2.dumpJSSource("Policy"));
+    assertEquals(1, c1.getJSInt("Own", "k", 0));
+    assertEquals(2, c2.getJSInt("Own", "k", 0));
+  }
+
+  @Test
+  public void differentInitCodeIsNotShared() throws Exception {
+    SectionCache cache = new SectionCache();
+    JSEConfig c1 = compile(cache, INIT_JS, POLICY);
+    JSEConfig c2 = compile(cache, "var CL = {Author: 107};", POLICY);
+    assertEquals(0, cache.getHitCount());
+    assertEquals(2, cache.size());
+    assertNotSame(c1.getJSValue("Policy", "SuperUsers"), c2.getJSValue("Policy", "SuperUsers"));
+  }
+
+  @Test
+  public void sectionsReferringToOtherSectionsAreNotCached() throws Exception {
+    SectionCache cache = new SectionCache();
+    String content =
+        POLICY + "[Rules]\nuseJSE=true\nauthorIsSuperUser=Policy.isSuperUser(CL.Author)\n";
+    JSEConfig c1 = compile(cache, INIT_JS, content);
+    JSEConfig c2 = compile(cache, INIT_JS, content);
+    assertEquals(1, cache.getHitCount()); // Policy only
+    assertEquals(1, cache.size());
+    assertTrue(c2.getJSBoolean("Rules", "authorIsSuperUser", false));
+    assertSame(c1.getJSValue("Policy", "SuperUsers"), c2.getJSValue("Policy", "SuperUsers"));
+    // A cached section is not used in a config with a section of a name it uses.
+    String usesOwn = "[Policy]\nuseJSE=true\nx=Own.k\n";
+    assertEquals("Own.k", compile(cache, INIT_JS, usesOwn).getJSString("Policy", "x"));
+    JSEConfig c3 = compile(cache, INIT_JS, usesOwn + "[Own]\nuseJSE=true\nk=1\n");
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, c3.getJSInt("Policy", "x", 0));
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SectionTest extends ConfTestBase {
+  private static Section compiledSection(String text, String name) throws Exception {
+    Section section = new ConfParser().parse(text).getSection(name);
+    section.compile();
+    return section;
+  }
+
+  @Test
+  public void freezeKeepsCompiledState() throws Exception {
+    String text = "[s]\na=b+1\nb=2\nbad-name=x\nc=[a, b]\nd=(\n";
+    Section section = new ConfParser().parse(text).getSection("s");
+    // Validate in a JS environment, so keys that fail to evaluate become strings with errors.
+    JS js = new JS("");
+    section.compile(js);
+    String code = section.dumpJSCode();
+    Set<String> keys = new HashSet<>(section.getKeys());
+    Set<String> jsKeys = new HashSet<>(section.getJSKeys());
+    Set<String> freeNames = new HashSet<>(section.getFreeNames());
+    assertFalse(section.isFrozen());
+    assertTrue(section.freeze().isFrozen());
+    assertEquals(code, section.dumpJSCode());
+    assertEquals(keys, section.getKeys());
+    assertEquals(jsKeys, section.getJSKeys());
+    assertEquals(freeNames, section.getFreeNames());
+    assertEquals("x", section.getKeyValue("bad-name"));
+    assertTrue(section.hasParsedKey("a"));
+    // Rhino recovers from the syntax error of d=( and parses it as ().
+    assertTrue(section.hasParsedKey("d"));
+    assertFalse(section.hasParsedKey("e"));
+    assertTrue(section.hasError());
+    // A frozen section can be compiled again.
+    section.compile(js);
+    js.exit();
+    assertFalse(section.isFrozen());
+    assertEquals(code, section.dumpJSCode());
+  }
+
+  @Test
+  public void frozenSectionsShareKeyNames() throws Exception {
+    Section s1 = compiledSection("[s1]\nmaxFiles=5\n", "s1").freeze();
+    Section s2 = compiledSection("[s2]\nmaxFiles=5\n", "s2").freeze();
+    assertSame(s1.getJSKeys().iterator().next(), s2.getJSKeys().iterator().next());
+    assertSame(s1.getKeyValue("maxFiles"), s2.getKeyValue("maxFiles"));
+  }
+
+  @Test
+  public void compactMap() {
+    Map<String, String> map = new HashMap<>();
+    map.put("b", "2");
+    map.put("a", "1");
+    map.put("c", null);
+    Map<String, String> compact = Compact.map(map, new String[] {"a", "b", "c"});
+    assertEquals(map, compact);
+    assertEquals(map.hashCode(), compact.hashCode());
+    assertThat(compact.keySet()).containsExactly("a", "b", "c").inOrder();
+    assertTrue(compact.containsKey("c"));
+    assertNull(compact.get("d"));
+    assertFalse(compact.containsKey(1));
+    // Other keys than the given array are sorted again.
+    assertThat(Compact.map(map, new String[] {"a"}).keySet())
+        .containsExactly("a", "b", "c")
+        .inOrder();
+    assertTrue(Compact.set(new String[] {"x", "y"}).contains("y"));
+    assertFalse(Compact.set(new String[] {"x", "y"}).contains("z"));
+  }
+}
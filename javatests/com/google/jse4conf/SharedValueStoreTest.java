@@ -0,0 +1,120 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SharedValueStoreTest extends ConfTestBase {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static Map<String, Map<String, Object>> values(Object... sectionKeyValues) {
+    Map<String, Map<String, Object>> values = new HashMap<>();
+    for (int i = 0; i < sectionKeyValues.length; i += 3) {
+      values
+          .computeIfAbsent((String) sectionKeyValues[i], (k) -> new HashMap<>())
+          .put((String) sectionKeyValues[i + 1], sectionKeyValues[i + 2]);
+    }
+    return values;
+  }
+
+  @Test
+  public void typedValues() throws Exception {
+    Path path = tmp.getRoot().toPath().resolve("values");
+    SharedValueStore.publish(
+        path,
+        values(
+            "s", "i", 42, "s", "l", 1L << 40, "s", "d", 2.5, "s", "b", true, "s-sub", "str",
+            "h\u00e9llo", "s", "f", new Object()));
+    SharedValueStore store = SharedValueStore.open(path);
+    assertEquals(1, store.getGeneration());
+    assertEquals(5, store.size()); // f is not stored
+    assertEquals(42, store.getInt("s", null, "i", 0));
+    assertEquals(1L << 40, store.getLong("s", null, "l", 0));
+    assertEquals(2.5, store.getDouble("s", null, "d", 0), 0);
+    assertEquals(2, store.getInt("s", null, "d", 0));
+    assertTrue(store.getBoolean("s", null, "b", false));
+    assertEquals("h\u00e9llo", store.getString("s", "sub", "str"));
+    assertEquals("42", store.getString("s", null, "i"));
+    assertEquals("2.5", store.getString("s", null, "d"));
+    ByteBuffer bytes = store.getStringBytes("s", "sub", "str");
+    assertEquals("h\u00e9llo", StandardCharsets.UTF_8.decode(bytes).toString());
+    assertFalse(store.contains("s", null, "f"));
+    assertEquals(7, store.getInt("s", null, "f", 7));
+    assertEquals(7, store.getInt("s", null, "str", 7)); // not a number
+    assertFalse(store.getBoolean("s", null, "i", false)); // not a boolean
+    assertNull(store.getString("s", null, "str")); // in subsection sub
+    assertNull(store.getStringBytes("s", null, "i"));
+  }
+
+  @Test
+  public void newGenerations() throws Exception {
+    Path path = tmp.getRoot().toPath().resolve("values");
+    SharedValueStore.publish(path, values("s", "k", 1));
+    SharedValueStore first = SharedValueStore.open(path);
+    assertSame(first, first.reopenIfChanged());
+    SharedValueStore.publish(path, values("s", "k", 2));
+    // The old mapping still has generation 1.
+    assertEquals(1, first.getInt("s", null, "k", 0));
+    SharedValueStore second = first.reopenIfChanged();
+    assertEquals(2, second.getGeneration());
+    assertEquals(2, second.getInt("s", null, "k", 0));
+    assertEquals(1, tmp.getRoot().list().length); // no temporary file is left
+  }
+
+  @Test
+  public void manyValues() throws Exception {
+    Path path = tmp.getRoot().toPath().resolve("values");
+    Map<String, Map<String, Object>> values = new HashMap<>();
+    for (int i = 0; i < 5000; i++) {
+      values.computeIfAbsent("s" + (i % 7), (k) -> new HashMap<>()).put("k" + i, "v" + i);
+    }
+    SharedValueStore.publish(path, values);
+    SharedValueStore store = SharedValueStore.open(path);
+    assertEquals(5000, store.size());
+    for (int i = 0; i < 5000; i++) {
+      assertEquals("v" + i, store.getString("s" + (i % 7), null, "k" + i));
+    }
+  }
+
+  @Test
+  public void publishJSEConfig() throws Exception {
+    Config config = new Config();
+    config.fromText("[s1]\n useJSE = true\n k1 = 1 + 1\n v1 = 't' + k1\n f = (x) => x\n");
+    Path path = tmp.getRoot().toPath().resolve("values");
+    new JSEConfig(config, null).publishValues(path);
+    SharedValueStore store = SharedValueStore.open(path);
+    assertEquals(2, store.getInt("s1", null, "k1", 0));
+    assertEquals("t2", store.getString("s1", null, "v1"));
+    assertTrue(store.getBoolean("s1", null, "useJSE", false));
+    assertFalse(store.contains("s1", null, "f"));
+  }
+}
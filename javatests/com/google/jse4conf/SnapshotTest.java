@@ -0,0 +1,153 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SnapshotTest extends ConfTestBase {
+  private static final String INPUT =
+      "[s1]\n  useJSE = true\n  k1 = 1 + 1\n  k2 = k1 > 1\n  v1 = 't' + k1\n  d = 2.5\n"
+          + "[s1 \"s2\"]\n  useJSE = true\n  list = [1, 'a', [true, null]]\n"
+          + "  obj = ({x: 1, y: {z: 'w'}})\n"
+          + "[f]\n  useJSE = true\n  fac = (n) => n < 2 ? 1 : n * fac(n - 1)\n  fac4 = fac(4)\n"
+          + "[plain]\n  k = v\n";
+
+  private static Config config(String text) throws Exception {
+    Config config = new Config();
+    config.fromText(text);
+    return config;
+  }
+
+  private static byte[] export(JSEConfig config) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    config.exportSnapshot(out);
+    return out.toByteArray();
+  }
+
+  // A listener that counts compiled sections.
+  private static final class CompileCounter implements MetricsListener {
+    int compiled;
+
+    @Override
+    public void sectionCompiled(String section, int keys, int errors, int cycles) {
+      compiled++;
+    }
+  }
+
+  @Test
+  public void restoreValues() throws Exception {
+    JSEConfig original = new JSEConfig(config(INPUT), "var x = 1;");
+    byte[] snapshot = export(original);
+    JSEConfig restored =
+        JSEConfig.fromSnapshot(config(INPUT), "var x = 1;", new ByteArrayInputStream(snapshot));
+    assertEquals(2, restored.getJSInt("s1", "k1", 0));
+    assertTrue(restored.getJSBoolean("s1", "k2", false));
+    assertEquals("t2", restored.getJSString("s1", "v1"));
+    assertEquals(2.5, (Double) restored.getJSValue("s1", "d"), 0);
+    assertEquals("v", restored.getJSString("plain", "k"));
+    assertThat(restored.getJSNames("s1")).isEqualTo(original.getJSNames("s1"));
+    assertEquals(original.dumpJSSource("s1"), restored.dumpJSSource("s1"));
+    assertEquals(original.dumpJSSource("s1", "s2"), restored.dumpJSSource("s1", "s2"));
+    List<?> list = (List<?>) restored.getJSValue("s1", "s2", "list");
+    assertEquals(3, list.size());
+    assertEquals("a", list.get(1));
+    assertEquals(Boolean.TRUE, ((List<?>) list.get(2)).get(0));
+    assertNull(((List<?>) list.get(2)).get(1));
+    Map<?, ?> obj = (Map<?, ?>) restored.getJSValue("s1", "s2", "obj");
+    assertEquals(1, JS.toJava(obj.get("x"), 0));
+    assertEquals("w", ((Map<?, ?>) obj.get("y")).get("z"));
+  }
+
+  @Test
+  public void functionSectionIsCompiledWhenUsed() throws Exception {
+    byte[] snapshot = export(new JSEConfig(config(INPUT), null));
+    JSEConfig restored = new JSEConfig(config(INPUT), null);
+    CompileCounter counter = new CompileCounter();
+    restored.setMetricsListener(counter);
+    assertTrue(restored.importSnapshot(new ByteArrayInputStream(snapshot)));
+    assertEquals(0, counter.compiled);
+    assertEquals(2, restored.getJSInt("s1", "k1", 0));
+    assertEquals(0, counter.compiled); // s1 has only JSON-like values
+    assertEquals(24, restored.getJSInt("f", "fac4", 0));
+    assertEquals(1, counter.compiled); // f has a function value
+    assertEquals(24, restored.getJSInt("f", "fac4", 0));
+    assertEquals(1, counter.compiled);
+  }
+
+  @Test
+  public void cyclicValuesAreCompiledWhenUsed() throws Exception {
+    String input =
+        "[cyclic]\n  useJSE = true\n  x = (o => (o.o = o, o))({})\n"
+            + "[shared]\n  useJSE = true\n  a = [1]\n  b = [a, a]\n"
+            + "[deep]\n  useJSE = true\n  d = Array(200).fill(0).reduce(v => [v], 1)\n";
+    byte[] snapshot = export(new JSEConfig(config(input), null));
+    JSEConfig restored = new JSEConfig(config(input), null);
+    CompileCounter counter = new CompileCounter();
+    restored.setMetricsListener(counter);
+    assertTrue(restored.importSnapshot(new ByteArrayInputStream(snapshot)));
+    Map<?, ?> x = (Map<?, ?>) restored.getJSValue("cyclic", "x");
+    assertTrue(x.get("o") == x);
+    assertEquals(1, counter.compiled);
+    List<?> b = (List<?>) restored.getJSValue("shared", "b");
+    assertTrue(b.get(0) == b.get(1));
+    assertEquals(2, counter.compiled);
+    assertTrue(restored.getJSValue("deep", "d") instanceof List);
+    assertEquals(3, counter.compiled);
+  }
+
+  @Test
+  public void snapshotOfOtherSource() throws Exception {
+    byte[] snapshot = export(new JSEConfig(config(INPUT), null));
+    JSEConfig changed = new JSEConfig(config(INPUT + "[s1]\n  k1 = 3\n"), null);
+    assertFalse(changed.importSnapshot(new ByteArrayInputStream(snapshot)));
+    assertEquals(3, changed.getJSInt("s1", "k1", 0));
+    JSEConfig otherCode = new JSEConfig(config(INPUT), "var x = 2;");
+    assertFalse(otherCode.importSnapshot(new ByteArrayInputStream(snapshot)));
+    JSEConfig fallback =
+        JSEConfig.fromSnapshot(
+            config(INPUT + "[s1]\n  k1 = 3\n"), null, new ByteArrayInputStream(snapshot));
+    assertEquals(3, fallback.getJSInt("s1", "k1", 0));
+  }
+
+  @Test
+  public void notSnapshot() throws Exception {
+    JSEConfig config = new JSEConfig(config(INPUT), null);
+    assertFalse(config.importSnapshot(new ByteArrayInputStream(new byte[8])));
+    assertEquals(2, config.getJSInt("s1", "k1", 0));
+  }
+
+  @Test
+  public void sourceHash() throws Exception {
+    List<String> parts = Arrays.asList("a", "b");
+    assertEquals(Snapshot.hash(parts), Snapshot.hash(Arrays.asList("a", "b")));
+    assertFalse(Snapshot.hash(parts).equals(Snapshot.hash(Arrays.asList("ab", ""))));
+    assertFalse(Snapshot.hash(parts).equals(Snapshot.hash(Arrays.asList("a", null, "b"))));
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ValueDeltaTest extends ConfTestBase {
+
+  @Test
+  public void leafValues() {
+    assertEquals(true, ValueDelta.jsEquals(1, 1.0, 0));
+    assertEquals(true, ValueDelta.jsEquals(Double.NaN, Double.NaN, 0));
+    assertEquals(false, ValueDelta.jsEquals(1, 2, 0));
+    assertEquals(true, ValueDelta.jsEquals(new StringBuilder("ab"), "ab", 0));
+    assertEquals(false, ValueDelta.jsEquals("1", 1, 0));
+    assertEquals(false, ValueDelta.jsEquals(null, false, 0));
+    assertEquals(true, ValueDelta.jsEquals(null, null, 0));
+    // Other objects, like functions, cannot be compared.
+    assertNull(ValueDelta.jsEquals(new Object(), new Object(), 0));
+    assertEquals(false, ValueDelta.jsEquals(new Object(), "x", 0));
+  }
+
+  private static Map<String, Object> values(Object... keysAndValues) {
+    Map<String, Object> values = new HashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      values.put((String) keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return values;
+  }
+
+  @Test
+  public void changedKeys() {
+    Map<String, Map<String, Object>> before = new HashMap<>();
+    Map<String, Map<String, Object>> after = new HashMap<>();
+    Map<String, Object> shared = values("x", new Object());
+    before.put("A", values("a", 1, "b", "s", "c", true));
+    after.put("A", values("a", 1.0, "b", "t", "d", true));
+    before.put("B", shared);
+    after.put("B", shared);
+    before.put("C", values("k", 1));
+    after.put("D", values("k", 1));
+    before.put("E", values("f", new Object()));
+    after.put("E", values("f", new Object()));
+    Map<String, Section> none = new HashMap<>();
+    Map<String, ?> changes = ValueDelta.changes(none, before, none, after);
+    assertThat(changes.keySet()).containsExactly("A", "C", "D", "E");
+    assertThat(changes.get("A").toString()).isEqualTo("[b, c, d]");
+    // Without sections, objects that cannot be compared are changed.
+    assertThat(changes.get("E").toString()).isEqualTo("[f]");
+  }
+}
@@ -0,0 +1,75 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.jse4conf;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mozilla.javascript.ast.AstNode;
+
+@RunWith(JUnit4.class)
+public class ValueParserTest extends ConfTestBase {
+  static final String DATA_DIR = System.getProperty("data.dir");
+
+  // Compile every section of text with and without batch parsing; both should dump the same code.
+  private static void checkBatchParse(String text) throws Exception {
+    ConfParser parser = new ConfParser().parse(text);
+    for (String name : parser.getSectionNames()) {
+      Section section = parser.getSection(name);
+      section.compile();
+      String expected = section.dumpJSCode();
+      section.setBatchParse(true).compile();
+      assertEquals(text, expected, section.dumpJSCode());
+    }
+  }
+
+  @Test
+  public void batchSameAsSeparate() throws Exception {
+    String[] inputs = {
+      "[s]\na=1\nb=a+c\nc='x' + \"y\"\nd=(n) => n < 2 ? 1 : n * d(n - 1)\ne=[a, b]\n",
+      "[s]\nempty=\nlist=[1, 2, 3].map((x) => x * 2)\nobj=({x:1, y:[2]})\n",
+      "[s]\nerr=a b c\nok=1\n", // a syntax error disables the combined parse
+      "[s]\ncomment=1 /* c */ + 2\nok=1\n",
+      "[s]\ndecl=\"function f() { return 1; }\"\nuse=f()\n",
+      "[s]\nv=let y = 1\nw=y\n",
+      "[s]\nclose=1 }\nopen={ 2\n",
+      "[s]\nif=1\nk=2\n",
+    };
+    for (String text : inputs) {
+      checkBatchParse(text);
+    }
+    checkBatchParse(readFile(DATA_DIR + "project.config"));
+  }
+
+  @Test
+  public void splitLabeledBlocks() {
+    Map<String, String> keyValues = new HashMap<>();
+    keyValues.put("a", "1");
+    keyValues.put("b", "a + 2");
+    keyValues.put("c", "x; y");
+    Map<String, AstNode> values =
+        ValueParser.parseAll("s", Arrays.asList("a", "b", "c"), keyValues);
+    assertThat(values.keySet()).containsExactly("a", "b", "c");
+    assertEquals("1;\n", ValueParser.toSource(values.get("a")));
+    assertEquals("a + 2;\n", ValueParser.toSource(values.get("b")));
+    assertEquals("x;\ny;\n", ValueParser.toSource(values.get("c")));
+  }
+}